@@ -0,0 +1,124 @@
+package com.hps.wizard.benchmark;
+
+import com.hps.wizard.WizardEngine;
+
+/**
+ * A {@link WizardEngine.Host} which does the least possible work, so the benchmarks measure the engine rather than the host. Every state can move forward and
+ * back, validates in the foreground and leads to another state carrying a payload of the configured size.
+ */
+final class BenchmarkHost implements WizardEngine.Host<BenchmarkState, BenchmarkState.Definition> {
+	private final int payloadBytes;
+	private BenchmarkState shown;
+
+	/**
+	 * @param payloadBytes
+	 *            The size of the data each state carries.
+	 */
+	BenchmarkHost(int payloadBytes) {
+		this.payloadBytes = payloadBytes;
+	}
+
+	/**
+	 * @return the definition of a state carrying its own payload, just as every state has its own bundle.
+	 */
+	BenchmarkState.Definition definition() {
+		return new BenchmarkState.Definition(BenchmarkState.class, new byte[payloadBytes]);
+	}
+
+	/**
+	 * @return the state most recently shown, so the work done by the engine can't be optimized away.
+	 */
+	BenchmarkState getShown() {
+		return shown;
+	}
+
+	@Override
+	public BenchmarkState createState(BenchmarkState.Definition definition) {
+		return new BenchmarkState(definition.payload);
+	}
+
+	@Override
+	public BenchmarkState restoreState(BenchmarkState.Definition definition) {
+		return new BenchmarkState(definition.payload);
+	}
+
+	@Override
+	public BenchmarkState.Definition saveState(BenchmarkState state) {
+		return new BenchmarkState.Definition(BenchmarkState.class, state.getSavedInstanceState());
+	}
+
+	@Override
+	public BenchmarkState.Definition getNextState(BenchmarkState state) {
+		return definition();
+	}
+
+	@Override
+	public boolean canGoForward(BenchmarkState state) {
+		return true;
+	}
+
+	@Override
+	public boolean canGoBack(BenchmarkState state) {
+		return true;
+	}
+
+	@Override
+	public boolean shouldValidateInBackground(BenchmarkState state) {
+		return false;
+	}
+
+	@Override
+	public boolean validate(BenchmarkState state) {
+		return true;
+	}
+
+	@Override
+	public void validateInBackground(BenchmarkState state) {
+		throw new IllegalStateException("benchmark states validate in the foreground");
+	}
+
+	@Override
+	public boolean shouldResolveNextStateInBackground(BenchmarkState state) {
+		return false;
+	}
+
+	@Override
+	public void resolveNextStateInBackground(BenchmarkState state) {
+		throw new IllegalStateException("benchmark states resolve their next state in the foreground");
+	}
+
+	@Override
+	public void onForward(BenchmarkState state) {
+		// do nothing
+	}
+
+	@Override
+	public void onBack(BenchmarkState state) {
+		// do nothing
+	}
+
+	@Override
+	public void onBackFromFirstState(BenchmarkState state) {
+		// do nothing
+	}
+
+	@Override
+	public void showState(BenchmarkState state) {
+		shown = state;
+	}
+
+	@Override
+	public void prepareState(BenchmarkState state) {
+		// do nothing
+	}
+
+	@Override
+	public void discardState(BenchmarkState state) {
+		// do nothing
+	}
+
+	@Override
+	public boolean isSameState(BenchmarkState.Definition prefetched, BenchmarkState.Definition actual) {
+		return prefetched.clazz == actual.clazz && prefetched.payload.length == actual.payload.length;
+	}
+}
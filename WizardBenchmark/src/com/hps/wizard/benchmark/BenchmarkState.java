@@ -0,0 +1,32 @@
+package com.hps.wizard.benchmark;
+
+/**
+ * A stand-in for a StateFragment. It holds nothing but the data it would hand back from getSavedInstanceState().
+ */
+final class BenchmarkState {
+	/**
+	 * The definition of a benchmark state: the class it would be instantiated from and the data it would be given.
+	 */
+	static final class Definition {
+		final Class<?> clazz;
+		final byte[] payload;
+
+		Definition(Class<?> clazz, byte[] payload) {
+			this.clazz = clazz;
+			this.payload = payload;
+		}
+	}
+
+	private final byte[] payload;
+
+	BenchmarkState(byte[] payload) {
+		this.payload = payload;
+	}
+
+	/**
+	 * @return the data this state would save, standing in for its saved instance state bundle.
+	 */
+	byte[] getSavedInstanceState() {
+		return payload;
+	}
+}
@@ -0,0 +1,111 @@
+package com.hps.wizard.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Stack;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.hps.wizard.StateHistory;
+import com.hps.wizard.WizardEngine;
+
+/**
+ * <p>
+ * Measures the save and restore paths at various history depths and per-state payload sizes.
+ * </p>
+ * <p>
+ * The saved form mirrors AbstractWizardActivity.onSaveInstanceState: a stack of classes and a stack of per-state data, each written with Java serialization,
+ * which is what Bundle.putSerializable does when the bundle is parceled. Run with <code>-prof gc</code> to get the allocation rate.
+ * </p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SaveRestoreBenchmark {
+
+	@Param({ "1", "10", "100", "1000" })
+	public int depth;
+
+	@Param({ "0", "1024", "102400" })
+	public int payloadBytes;
+
+	@Param({ "false", "true" })
+	public boolean parkOffscreenStates;
+
+	private BenchmarkHost host;
+	private WizardEngine<BenchmarkState, BenchmarkState.Definition> engine;
+	private byte[] saved;
+
+	@Setup
+	public void setUp() throws IOException {
+		host = new BenchmarkHost(payloadBytes);
+		engine = TransitionBenchmark.walkForward(host, depth, parkOffscreenStates);
+		saved = save();
+	}
+
+	/**
+	 * Save the history the same way onSaveInstanceState does.
+	 */
+	@Benchmark
+	public byte[] save() throws IOException {
+		Stack<Class<?>> classStack = new Stack<Class<?>>();
+		Stack<byte[]> dataStack = new Stack<byte[]>();
+		for (BenchmarkState.Definition parked : engine.getParkedStates()) {
+			classStack.push(parked.clazz);
+			dataStack.push(parked.payload);
+		}
+		for (BenchmarkState state : engine.getStates()) {
+			classStack.push(state.getClass());
+			dataStack.push(state.getSavedInstanceState());
+		}
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(classStack);
+		out.writeObject(dataStack);
+		out.close();
+
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Rebuild the history the same way initializeFromSavedInstanceState does.
+	 */
+	@Benchmark
+	@SuppressWarnings("unchecked")
+	public BenchmarkState restore() throws IOException, ClassNotFoundException {
+		ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(saved));
+		Stack<Class<?>> classStack = (Stack<Class<?>>) in.readObject();
+		Stack<byte[]> dataStack = (Stack<byte[]>) in.readObject();
+		in.close();
+
+		List<BenchmarkState.Definition> definitions = new ArrayList<BenchmarkState.Definition>(classStack.size());
+		for (int i = 0; i < classStack.size(); i++) {
+			definitions.add(new BenchmarkState.Definition(classStack.get(i), dataStack.get(i)));
+		}
+
+		WizardEngine<BenchmarkState, BenchmarkState.Definition> restored = new WizardEngine<BenchmarkState, BenchmarkState.Definition>(host,
+				StateHistory.UNBOUNDED, parkOffscreenStates);
+		restored.buildStates(definitions);
+		return restored.getCurrentState();
+	}
+}
@@ -0,0 +1,100 @@
+package com.hps.wizard.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.hps.wizard.WizardGraph;
+
+/**
+ * Measures the remaining step counts of a {@link WizardGraph}: the one-off cost of building a graph and working out every count, and the cost of each lookup
+ * afterwards. The graph is a chain of branching states where state i leads to states i + 1 and i + 2, so the shortest and longest routes differ.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StepCountBenchmark {
+
+	@Param({ "10", "1000", "10000" })
+	public int stateCount;
+
+	private Class<?>[] states;
+	private int[][] successors;
+	private WizardGraph graph;
+	private int next;
+
+	@Setup
+	public void setUp() throws ClassNotFoundException {
+		states = distinctClasses(stateCount);
+		successors = new int[stateCount][];
+		for (int i = 0; i < stateCount; i++) {
+			int last = stateCount - 1;
+			if (i == last) {
+				successors[i] = new int[0];
+			} else if (i == last - 1) {
+				successors[i] = new int[] { last };
+			} else {
+				successors[i] = new int[] { i + 1, i + 2 };
+			}
+		}
+
+		graph = new WizardGraph(states, successors);
+		graph.getLongestRemaining(states[0]);
+	}
+
+	/**
+	 * The graph only needs a distinct class per state, and there aren't thousands of state classes on a plain JVM, so use array classes of increasing
+	 * dimension over a handful of JDK classes.
+	 */
+	private static Class<?>[] distinctClasses(int count) throws ClassNotFoundException {
+		String[] components = { "java.lang.Object", "java.lang.String", "java.lang.Integer", "java.lang.Long", "java.lang.Short", "java.lang.Byte",
+				"java.lang.Double", "java.lang.Float", "java.lang.Character", "java.lang.Boolean", "java.lang.Number", "java.lang.Thread",
+				"java.lang.Runnable", "java.lang.Class", "java.lang.StringBuilder", "java.util.List", "java.util.Map", "java.util.Set",
+				"java.util.ArrayList", "java.util.HashMap", "java.util.HashSet", "java.util.Date", "java.util.Random", "java.util.UUID",
+				"java.io.File", "java.io.InputStream", "java.io.OutputStream", "java.math.BigInteger", "java.math.BigDecimal", "java.net.URI",
+				"java.net.URL", "java.nio.ByteBuffer", "java.nio.CharBuffer", "java.util.Locale", "java.util.Iterator", "java.util.Collection",
+				"java.util.Deque", "java.util.Queue", "java.util.TreeMap", "java.util.LinkedList", "java.util.Optional" };
+
+		Class<?>[] classes = new Class<?>[count];
+		for (int i = 0; i < count; i++) {
+			StringBuilder name = new StringBuilder();
+			for (int d = 0; d <= i / components.length; d++) {
+				name.append('[');
+			}
+			name.append('L').append(components[i % components.length]).append(';');
+			classes[i] = Class.forName(name.toString());
+		}
+		return classes;
+	}
+
+	/**
+	 * What the wizard pays on each transition: both counts for the current state.
+	 */
+	@Benchmark
+	public int lookup() {
+		Class<?> state = states[next];
+		next = (next + 1) % stateCount;
+		return graph.getShortestRemaining(state) + graph.getLongestRemaining(state);
+	}
+
+	/**
+	 * What the wizard pays once: building the graph and working out every count.
+	 */
+	@Benchmark
+	public int buildAndCount() {
+		return new WizardGraph(states, successors).getLongestRemaining(states[0]);
+	}
+}
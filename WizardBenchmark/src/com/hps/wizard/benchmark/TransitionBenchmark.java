@@ -0,0 +1,94 @@
+package com.hps.wizard.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.hps.wizard.StateHistory;
+import com.hps.wizard.WizardEngine;
+
+/**
+ * Measures forward and back transitions through the {@link WizardEngine} at various history depths. Run with <code>-prof gc</code> to get the allocation rate.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TransitionBenchmark {
+
+	@Param({ "1", "10", "100", "1000" })
+	public int depth;
+
+	@Param({ "false", "true" })
+	public boolean parkOffscreenStates;
+
+	private BenchmarkHost host;
+	private WizardEngine<BenchmarkState, BenchmarkState.Definition> engine;
+	private WizardEngine<BenchmarkState, BenchmarkState.Definition> prefetchingEngine;
+
+	@Setup
+	public void setUp() {
+		host = new BenchmarkHost(0);
+		engine = walkForward(host, depth, parkOffscreenStates);
+		prefetchingEngine = walkForward(host, depth, parkOffscreenStates);
+		prefetchingEngine.setPrefetching(true);
+	}
+
+	/**
+	 * Build an engine and move it forward until its history is the given depth.
+	 */
+	static WizardEngine<BenchmarkState, BenchmarkState.Definition> walkForward(BenchmarkHost host, int depth, boolean parkOffscreenStates) {
+		WizardEngine<BenchmarkState, BenchmarkState.Definition> engine = new WizardEngine<BenchmarkState, BenchmarkState.Definition>(host,
+				StateHistory.UNBOUNDED, parkOffscreenStates);
+		engine.moveForwardToState(host.definition());
+		for (int i = 1; i < depth; i++) {
+			engine.handleNextClicked();
+		}
+		return engine;
+	}
+
+	/**
+	 * One next click followed by one back click, leaving the history at its original depth.
+	 */
+	@Benchmark
+	public BenchmarkState nextThenBack() {
+		engine.handleNextClicked();
+		engine.handleBackClicked();
+		return host.getShown();
+	}
+
+	/**
+	 * Prefetch the next state, then click next (which should use the prefetched state) and back.
+	 */
+	@Benchmark
+	public BenchmarkState prefetchThenNextThenBack() {
+		prefetchingEngine.prefetch();
+		prefetchingEngine.handleNextClicked();
+		prefetchingEngine.handleBackClicked();
+		return host.getShown();
+	}
+
+	/**
+	 * A whole flow: start a wizard, click next until the history is {@link #depth} deep and then click back until we're on the first state again.
+	 */
+	@Benchmark
+	public BenchmarkState fullFlow() {
+		WizardEngine<BenchmarkState, BenchmarkState.Definition> flow = walkForward(host, depth, parkOffscreenStates);
+		for (int i = 1; i < depth; i++) {
+			flow.handleBackClicked();
+		}
+		return host.getShown();
+	}
+}
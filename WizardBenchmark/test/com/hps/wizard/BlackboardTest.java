@@ -0,0 +1,247 @@
+package com.hps.wizard;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class BlackboardTest {
+	/**
+	 * A host which works the blackboard the way the activity's does: the move starts as the state is left, the state writes its answer on the way forward,
+	 * and the move finishes as the next state is shown. States are single letters, and each is followed by the next letter.
+	 */
+	private static final class BlackboardHost implements WizardEngine.Host<String, String> {
+		final Blackboard blackboard = new Blackboard();
+		WizardEngine<String, String> engine;
+		Blackboard.Move lastMove;
+
+		@Override
+		public String createState(String definition) {
+			return definition;
+		}
+
+		@Override
+		public String restoreState(String definition) {
+			return definition;
+		}
+
+		@Override
+		public String saveState(String state) {
+			return state;
+		}
+
+		@Override
+		public String getNextState(String state) {
+			return String.valueOf((char) (state.charAt(0) + 1));
+		}
+
+		@Override
+		public boolean shouldResolveNextStateInBackground(String state) {
+			return false;
+		}
+
+		@Override
+		public void resolveNextStateInBackground(String state) {
+			throw new AssertionError();
+		}
+
+		@Override
+		public boolean canGoForward(String state) {
+			return true;
+		}
+
+		@Override
+		public boolean canGoBack(String state) {
+			return true;
+		}
+
+		@Override
+		public boolean shouldValidateInBackground(String state) {
+			return false;
+		}
+
+		@Override
+		public boolean validate(String state) {
+			return true;
+		}
+
+		@Override
+		public void validateInBackground(String state) {
+			throw new AssertionError();
+		}
+
+		@Override
+		public void onForward(String state) {
+			blackboard.beginForward();
+			blackboard.put(answer(state), "answer " + state);
+		}
+
+		@Override
+		public void onBack(String state) {
+			blackboard.beginBack();
+		}
+
+		@Override
+		public void onBackFromFirstState(String state) {
+		}
+
+		@Override
+		public void showState(String state) {
+			lastMove = blackboard.finishMove(engine.getHistoryDepth());
+		}
+
+		@Override
+		public void prepareState(String state) {
+		}
+
+		@Override
+		public void discardState(String state) {
+		}
+
+		@Override
+		public boolean isSameState(String prefetched, String actual) {
+			return prefetched.equals(actual);
+		}
+	}
+
+	private BlackboardHost host;
+
+	private static Blackboard.Key<String> answer(String state) {
+		return new Blackboard.Key<String>("answer " + state, String.class);
+	}
+
+	private WizardEngine<String, String> start(int maxHistoryDepth) {
+		WizardEngine<String, String> engine = new WizardEngine<String, String>(host, maxHistoryDepth);
+		host.engine = engine;
+		engine.moveForwardToState("a");
+		return engine;
+	}
+
+	private void assertAnswers(String... states) {
+		Map<String, Object> values = host.blackboard.getValues();
+		assertEquals(states.length, values.size());
+		for (String state : states) {
+			assertEquals("answer " + state, host.blackboard.get(answer(state)));
+		}
+	}
+
+	@Before
+	public void setUp() {
+		host = new BlackboardHost();
+	}
+
+	@Test
+	public void goingForwardKeepsEveryAnswer() {
+		WizardEngine<String, String> engine = start(StateHistory.UNBOUNDED);
+		engine.handleNextClicked();
+		engine.handleNextClicked();
+
+		assertEquals(Blackboard.Move.FORWARD, host.lastMove);
+		assertAnswers("a", "b");
+		assertEquals(2, host.blackboard.getSnapshotCount());
+	}
+
+	@Test
+	public void goingBackUndoesTheAnswerOfTheStateReturnedTo() {
+		WizardEngine<String, String> engine = start(StateHistory.UNBOUNDED);
+		engine.handleNextClicked();
+		engine.handleNextClicked();
+		engine.handleBackClicked();
+
+		assertEquals(Blackboard.Move.BACK, host.lastMove);
+		assertAnswers("a");
+		assertEquals(1, host.blackboard.getSnapshotCount());
+	}
+
+	@Test
+	public void goingForwardAgainAfterBackKeepsTheNewAnswers() {
+		WizardEngine<String, String> engine = start(StateHistory.UNBOUNDED);
+		engine.handleNextClicked();
+		engine.handleNextClicked();
+		engine.handleBackClicked();
+
+		engine.handleNextClicked();
+		assertEquals(Blackboard.Move.FORWARD, host.lastMove);
+		assertAnswers("a", "b");
+
+		engine.handleNextClicked();
+		assertEquals(Blackboard.Move.FORWARD, host.lastMove);
+		assertAnswers("a", "b", "c");
+		assertEquals("d", engine.getCurrentState());
+		assertEquals(3, host.blackboard.getSnapshotCount());
+
+		engine.handleBackClicked();
+		assertAnswers("a", "b");
+	}
+
+	@Test
+	public void snapshotsAreDroppedWithTheOldestStates() {
+		WizardEngine<String, String> engine = start(3);
+		for (int i = 0; i < 5; i++) {
+			engine.handleNextClicked();
+		}
+
+		assertEquals(3, engine.getHistoryDepth());
+		assertEquals(2, host.blackboard.getSnapshotCount());
+		assertAnswers("a", "b", "c", "d", "e");
+
+		engine.handleBackClicked();
+		engine.handleBackClicked();
+		assertAnswers("a", "b", "c");
+		assertEquals(0, host.blackboard.getSnapshotCount());
+	}
+
+	@Test
+	public void showingAStateWithoutAMoveChangesNothing() {
+		WizardEngine<String, String> engine = start(StateHistory.UNBOUNDED);
+		engine.handleNextClicked();
+
+		assertEquals(Blackboard.Move.NONE, host.blackboard.finishMove(engine.getHistoryDepth()));
+		assertAnswers("a");
+		assertEquals(1, host.blackboard.getSnapshotCount());
+	}
+
+	@Test
+	public void restoredHistoryCanBeGoneBackThrough() {
+		WizardEngine<String, String> engine = start(StateHistory.UNBOUNDED);
+		engine.handleNextClicked();
+		engine.handleNextClicked();
+		List<Map<String, Object>> saved = host.blackboard.getHistory();
+
+		BlackboardHost restored = new BlackboardHost();
+		restored.blackboard.restoreHistory(saved);
+		WizardEngine<String, String> rebuilt = new WizardEngine<String, String>(restored);
+		restored.engine = rebuilt;
+		rebuilt.buildStates(Arrays.asList("a", "b", "c"));
+		assertEquals(Blackboard.Move.NONE, restored.lastMove);
+		assertEquals("answer b", restored.blackboard.get(answer("b")));
+
+		rebuilt.handleBackClicked();
+		assertEquals("answer a", restored.blackboard.get(answer("a")));
+		assertNull(restored.blackboard.get(answer("b")));
+	}
+
+	@Test
+	public void snapshotsAreNotChangedByLaterWrites() {
+		Blackboard blackboard = new Blackboard();
+		Blackboard.Key<String> key = answer("a");
+		blackboard.put(key, "first");
+		blackboard.beginForward();
+		blackboard.put(key, "second");
+		blackboard.finishMove(2);
+		blackboard.beginBack();
+		blackboard.finishMove(1);
+
+		assertEquals("first", blackboard.get(key));
+		assertTrue(blackboard.contains(key));
+		blackboard.remove(key);
+		assertFalse(blackboard.contains(key));
+	}
+}
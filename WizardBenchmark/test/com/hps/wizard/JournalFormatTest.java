@@ -0,0 +1,160 @@
+package com.hps.wizard;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.hps.wizard.JournalFormat.Entry;
+
+public class JournalFormatTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static byte[] bytes(String text) {
+		return text.getBytes();
+	}
+
+	private static String text(byte[] bytes) {
+		return new String(bytes);
+	}
+
+	private static List<Entry> history(String... classNames) {
+		List<Entry> history = new ArrayList<Entry>();
+		for (String className : classNames) {
+			history.add(new Entry(className, bytes(className + " args"), bytes("")));
+		}
+		return history;
+	}
+
+	/**
+	 * @return a record moving forward from the current state, leaving it with the given bundle, to the named state.
+	 */
+	private static byte[] forward(String leftState, String next) {
+		return JournalFormat.encodeForward(bytes(leftState), bytes(leftState + " blackboard"), next, bytes(next + " args"), bytes(next + " blackboard"));
+	}
+
+	private static byte[] frames(byte[]... records) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		JournalFormat.writeHeader(out);
+		for (byte[] record : records) {
+			JournalFormat.writeFrame(out, record);
+		}
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	private File write(byte[] contents) throws IOException {
+		File file = folder.newFile();
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(contents);
+		} finally {
+			out.close();
+		}
+		return file;
+	}
+
+	private static List<String> classNames(List<Entry> entries) {
+		List<String> names = new ArrayList<String>();
+		for (Entry entry : entries) {
+			names.add(entry.className);
+		}
+		return names;
+	}
+
+	@Test
+	public void recordsAreReplayedOverTheSnapshot() throws IOException {
+		File file = write(frames(JournalFormat.encodeSnapshot(history("A")), forward("A saved", "B"), forward("B saved", "C"), JournalFormat.encodeBack(),
+				JournalFormat.encodeUpdate(bytes("B edited"), bytes("B values")), forward("B final", "D")));
+
+		List<Entry> entries = JournalFormat.readEntries(file);
+
+		assertEquals(Arrays.asList("A", "B", "D"), classNames(entries));
+		assertEquals("A saved", text(entries.get(0).bundle));
+		assertEquals("A saved blackboard", text(entries.get(0).blackboard));
+		assertEquals("B final", text(entries.get(1).bundle));
+		assertEquals("B final blackboard", text(entries.get(1).blackboard));
+		assertEquals("D args", text(entries.get(2).bundle));
+		assertEquals("D blackboard", text(entries.get(2).blackboard));
+	}
+
+	@Test
+	public void updateReplacesTheCurrentState() throws IOException {
+		File file = write(frames(JournalFormat.encodeSnapshot(history("A", "B")), JournalFormat.encodeUpdate(bytes("B edited"), bytes("B values"))));
+
+		List<Entry> entries = JournalFormat.readEntries(file);
+
+		assertEquals(Arrays.asList("A", "B"), classNames(entries));
+		assertEquals("B edited", text(entries.get(1).bundle));
+		assertEquals("B values", text(entries.get(1).blackboard));
+	}
+
+	@Test
+	public void snapshotOfAReplayedHistoryReplaysTheSame() throws IOException {
+		List<Entry> replayed = JournalFormat.readEntries(write(frames(JournalFormat.encodeSnapshot(history("A")), forward("A saved", "B"))));
+
+		List<Entry> compacted = JournalFormat.readEntries(write(frames(JournalFormat.encodeSnapshot(replayed))));
+
+		assertEquals(classNames(replayed), classNames(compacted));
+		for (int i = 0; i < replayed.size(); i++) {
+			assertEquals(text(replayed.get(i).bundle), text(compacted.get(i).bundle));
+			assertEquals(text(replayed.get(i).blackboard), text(compacted.get(i).blackboard));
+		}
+	}
+
+	@Test
+	public void tornRecordAtTheEndIsDropped() throws IOException {
+		byte[] whole = frames(JournalFormat.encodeSnapshot(history("A")), forward("A saved", "B"), forward("B saved", "C"));
+		File file = write(Arrays.copyOf(whole, whole.length - 3));
+
+		assertEquals(Arrays.asList("A", "B"), classNames(JournalFormat.readEntries(file)));
+	}
+
+	@Test
+	public void recordsAfterACorruptOneAreDropped() throws IOException {
+		byte[] snapshot = JournalFormat.encodeSnapshot(history("A"));
+		byte[] contents = frames(snapshot, forward("A saved", "B"), forward("B saved", "C"));
+		// flip a byte in the body of the first forward record: header, snapshot frame, then its length and CRC
+		contents[8 + 8 + snapshot.length + 8 + 2] ^= 0xff;
+
+		assertEquals(Arrays.asList("A"), classNames(JournalFormat.readEntries(write(contents))));
+	}
+
+	@Test
+	public void recordWhichDoesNotFitTheHistoryMakesItUnreadable() throws IOException {
+		File file = write(frames(JournalFormat.encodeSnapshot(history("A")), JournalFormat.encodeBack()));
+
+		assertNull(JournalFormat.readEntries(file));
+	}
+
+	@Test
+	public void otherVersionsAreNotRead() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(JournalFormat.MAGIC);
+		out.writeInt(JournalFormat.VERSION + 1);
+		JournalFormat.writeFrame(out, JournalFormat.encodeSnapshot(history("A")));
+		out.flush();
+
+		assertNull(JournalFormat.readEntries(write(bytes.toByteArray())));
+	}
+
+	@Test
+	public void missingOrEmptyFileIsNotRead() throws IOException {
+		assertNull(JournalFormat.readEntries(new File(folder.getRoot(), "missing")));
+		assertNull(JournalFormat.readEntries(folder.newFile()));
+	}
+}
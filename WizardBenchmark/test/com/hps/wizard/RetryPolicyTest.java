@@ -0,0 +1,213 @@
+package com.hps.wizard;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class RetryPolicyTest {
+	/**
+	 * A clock which only moves when it's told to, or when something sleeps on it.
+	 */
+	private static final class FakeClock implements RetryPolicy.Clock {
+		long nanos;
+		final List<Long> sleeps = new ArrayList<Long>();
+
+		@Override
+		public long nanoTime() {
+			return nanos;
+		}
+
+		@Override
+		public void sleep(long millis) {
+			sleeps.add(millis);
+			nanos += millis * 1000000;
+		}
+	}
+
+	/**
+	 * A source of jitter which always gives the same fraction.
+	 */
+	private static final class FixedRandom extends Random {
+		private static final long serialVersionUID = 1L;
+		private final double value;
+
+		FixedRandom(double value) {
+			this.value = value;
+		}
+
+		@Override
+		public double nextDouble() {
+			return value;
+		}
+	}
+
+	/**
+	 * Fails with the given exceptions in turn, taking the given time on the clock for each attempt, then succeeds.
+	 */
+	private static final class ScriptedAttempt implements RetryPolicy.Attempt<String> {
+		private final FakeClock clock;
+		private final long attemptNanos;
+		private final Exception[] failures;
+		int calls;
+
+		ScriptedAttempt(FakeClock clock, long attemptNanos, Exception... failures) {
+			this.clock = clock;
+			this.attemptNanos = attemptNanos;
+			this.failures = failures;
+		}
+
+		@Override
+		public String run(int attempt) throws Exception {
+			calls++;
+			assertEquals(calls, attempt);
+			clock.nanos += attemptNanos;
+			if (attempt <= failures.length) {
+				throw failures[attempt - 1];
+			}
+			return "done on " + attempt;
+		}
+	}
+
+	/**
+	 * Records what the policy tells it.
+	 */
+	private static final class RecordingListener implements RetryPolicy.Listener {
+		final List<Long> latencies = new ArrayList<Long>();
+		final List<Exception> failures = new ArrayList<Exception>();
+		final List<Long> delays = new ArrayList<Long>();
+
+		@Override
+		public void onAttemptFinished(int attempt, long latencyNanos, Exception failure) {
+			assertEquals(latencies.size() + 1, attempt);
+			latencies.add(latencyNanos);
+			failures.add(failure);
+		}
+
+		@Override
+		public void onRetry(int nextAttempt, long delayMillis) {
+			assertEquals(delays.size() + 2, nextAttempt);
+			delays.add(delayMillis);
+		}
+	}
+
+	private static List<Long> millis(long... values) {
+		List<Long> list = new ArrayList<Long>();
+		for (long value : values) {
+			list.add(value);
+		}
+		return list;
+	}
+
+	@Test
+	public void delayBacksOffExponentiallyUpToTheMaximum() {
+		RetryPolicy policy = new RetryPolicy(10, 100, 1000, 2, 0);
+		Random random = new FixedRandom(0.5);
+
+		assertEquals(100, policy.getDelayMillis(1, random));
+		assertEquals(200, policy.getDelayMillis(2, random));
+		assertEquals(400, policy.getDelayMillis(3, random));
+		assertEquals(800, policy.getDelayMillis(4, random));
+		assertEquals(1000, policy.getDelayMillis(5, random));
+		assertEquals(1000, policy.getDelayMillis(9, random));
+	}
+
+	@Test
+	public void jitterTakesAtMostItsFractionOffTheDelay() {
+		RetryPolicy policy = new RetryPolicy(4, 1000, 10000, 2, 0.5);
+
+		assertEquals(1000, policy.getDelayMillis(1, new FixedRandom(0)));
+		assertEquals(750, policy.getDelayMillis(1, new FixedRandom(0.5)));
+		assertEquals(500, policy.getDelayMillis(1, new FixedRandom(1)));
+		assertEquals(1500, policy.getDelayMillis(2, new FixedRandom(0.5)));
+	}
+
+	@Test
+	public void retryableFailuresAreRetriedAfterTheBackoff() throws Exception {
+		RetryPolicy policy = new RetryPolicy(4, 500, 30000, 2, 0, IOException.class);
+		FakeClock clock = new FakeClock();
+		ScriptedAttempt attempt = new ScriptedAttempt(clock, 7000000, new IOException("one"), new IOException("two"));
+		RecordingListener listener = new RecordingListener();
+
+		assertEquals("done on 3", policy.run(attempt, clock, new FixedRandom(0), listener));
+
+		assertEquals(3, attempt.calls);
+		assertEquals(millis(500, 1000), clock.sleeps);
+		assertEquals(millis(500, 1000), listener.delays);
+		// each attempt is timed on the clock, not including the waits
+		assertEquals(millis(7000000, 7000000, 7000000), listener.latencies);
+		assertEquals("one", listener.failures.get(0).getMessage());
+		assertNull(listener.failures.get(2));
+	}
+
+	@Test
+	public void lastFailureIsThrownOnceAttemptsRunOut() throws Exception {
+		RetryPolicy policy = new RetryPolicy(3, 100, 30000, 3, 0, IOException.class);
+		FakeClock clock = new FakeClock();
+		IOException last = new IOException("three");
+		ScriptedAttempt attempt = new ScriptedAttempt(clock, 0, new IOException("one"), new IOException("two"), last);
+
+		try {
+			policy.run(attempt, clock, new FixedRandom(0), null);
+			fail();
+		} catch (IOException e) {
+			assertSame(last, e);
+		}
+		assertEquals(3, attempt.calls);
+		assertEquals(millis(100, 300), clock.sleeps);
+	}
+
+	@Test
+	public void otherFailuresAreNotRetried() throws Exception {
+		RetryPolicy policy = new RetryPolicy(5, 100, IOException.class);
+		FakeClock clock = new FakeClock();
+		IllegalStateException failure = new IllegalStateException("not worth it");
+		ScriptedAttempt attempt = new ScriptedAttempt(clock, 0, failure);
+
+		try {
+			policy.run(attempt, clock, new FixedRandom(0), null);
+			fail();
+		} catch (IllegalStateException e) {
+			assertSame(failure, e);
+		}
+		assertEquals(1, attempt.calls);
+		assertTrue(clock.sleeps.isEmpty());
+	}
+
+	@Test
+	public void subclassesOfRetryableExceptionsAreRetryable() {
+		RetryPolicy policy = new RetryPolicy(2, 0, IOException.class);
+
+		assertTrue(policy.isRetryable(new SocketTimeoutException()));
+		assertFalse(policy.isRetryable(new InterruptedException()));
+		assertFalse(policy.isRetryable(new RuntimeException()));
+	}
+
+	@Test
+	public void noneTriesOnce() throws Exception {
+		FakeClock clock = new FakeClock();
+		ScriptedAttempt attempt = new ScriptedAttempt(clock, 0, new IOException());
+
+		try {
+			RetryPolicy.NONE.run(attempt, clock, new FixedRandom(0), null);
+			fail();
+		} catch (IOException expected) {
+		}
+		assertEquals(1, attempt.calls);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void nonExceptionClassesAreRejected() {
+		new RetryPolicy(2, 0, String.class);
+	}
+}
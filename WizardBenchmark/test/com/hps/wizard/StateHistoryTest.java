@@ -0,0 +1,151 @@
+package com.hps.wizard;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.EmptyStackException;
+import java.util.List;
+
+import org.junit.Test;
+
+public class StateHistoryTest {
+	private static List<String> contents(StateHistory<String> history) {
+		List<String> contents = new ArrayList<String>();
+		for (String state : history) {
+			contents.add(state);
+		}
+		return contents;
+	}
+
+	private static List<String> list(String... states) {
+		List<String> list = new ArrayList<String>();
+		for (String state : states) {
+			list.add(state);
+		}
+		return list;
+	}
+
+	@Test
+	public void unboundedHistoryGrowsPastItsInitialCapacity() {
+		StateHistory<String> history = new StateHistory<String>();
+		for (int i = 0; i < 20; i++) {
+			assertNull(history.push("s" + i));
+		}
+
+		assertEquals(20, history.size());
+		assertEquals("s0", history.get(0));
+		assertEquals("s19", history.peek());
+	}
+
+	@Test
+	public void fullHistoryDropsTheOldestState() {
+		StateHistory<String> history = new StateHistory<String>(3);
+		history.push("a");
+		history.push("b");
+		history.push("c");
+
+		assertEquals("a", history.push("d"));
+		assertEquals("b", history.push("e"));
+
+		assertEquals(3, history.size());
+		assertEquals(list("c", "d", "e"), contents(history));
+		assertEquals("c", history.get(0));
+		assertEquals("e", history.peek());
+	}
+
+	@Test
+	public void popAfterWrapAroundReturnsStatesNewestFirst() {
+		StateHistory<String> history = new StateHistory<String>(3);
+		for (String state : list("a", "b", "c", "d", "e")) {
+			history.push(state);
+		}
+
+		assertEquals("e", history.pop());
+		assertEquals("d", history.pop());
+		assertEquals("c", history.pop());
+		assertTrue(history.isEmpty());
+	}
+
+	@Test
+	public void pushAfterPopReusesTheFreedSlotWithoutDropping() {
+		StateHistory<String> history = new StateHistory<String>(3);
+		for (String state : list("a", "b", "c", "d")) {
+			history.push(state);
+		}
+		history.pop();
+
+		assertNull(history.push("x"));
+		assertEquals(list("b", "c", "x"), contents(history));
+		assertEquals("b", history.push("y"));
+		assertEquals(list("c", "x", "y"), contents(history));
+	}
+
+	@Test
+	public void growingAWrappedHistoryKeepsTheOrder() {
+		StateHistory<String> history = new StateHistory<String>(12);
+		for (int i = 0; i < 8; i++) {
+			history.push("s" + i);
+		}
+		// wrap the head round inside the initial array of 8
+		history.pop();
+		history.pop();
+		history.push("s6");
+		history.push("s7");
+		for (int i = 8; i < 14; i++) {
+			history.push("s" + i);
+		}
+
+		assertEquals(12, history.size());
+		for (int i = 0; i < 12; i++) {
+			assertEquals("s" + (i + 2), history.get(i));
+		}
+	}
+
+	@Test
+	public void historyOfOneKeepsOnlyTheCurrentState() {
+		StateHistory<String> history = new StateHistory<String>(1);
+		history.push("a");
+
+		assertEquals("a", history.push("b"));
+		assertEquals(list("b"), contents(history));
+	}
+
+	@Test
+	public void clearEmptiesTheHistory() {
+		StateHistory<String> history = new StateHistory<String>(2);
+		history.push("a");
+		history.push("b");
+		history.push("c");
+		history.clear();
+
+		assertEquals(0, history.size());
+		assertNull(history.push("d"));
+		assertEquals(list("d"), contents(history));
+	}
+
+	@Test(expected = EmptyStackException.class)
+	public void peekOnEmptyHistoryThrows() {
+		new StateHistory<String>().peek();
+	}
+
+	@Test
+	public void getOutsideTheHistoryThrows() {
+		StateHistory<String> history = new StateHistory<String>(2);
+		history.push("a");
+		history.push("b");
+		history.push("c");
+		try {
+			history.get(2);
+			fail();
+		} catch (IndexOutOfBoundsException expected) {
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void negativeMaxDepthIsRejected() {
+		new StateHistory<String>(-1);
+	}
+}
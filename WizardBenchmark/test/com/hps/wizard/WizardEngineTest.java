@@ -0,0 +1,309 @@
+package com.hps.wizard;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class WizardEngineTest {
+	/**
+	 * A state named by a single letter. Its next state is the following letter.
+	 */
+	private static final class TestState {
+		final String name;
+
+		TestState(String name) {
+			this.name = name;
+		}
+
+		@Override
+		public String toString() {
+			return name;
+		}
+	}
+
+	/**
+	 * A host which writes down everything the engine asks of it. Definitions are just state names.
+	 */
+	private static final class RecordingHost implements WizardEngine.Host<TestState, String> {
+		final List<String> events = new ArrayList<String>();
+		boolean validates = true;
+		boolean resolvesInBackground;
+		TestState shown;
+
+		/**
+		 * @return the events since the last call.
+		 */
+		List<String> take() {
+			List<String> taken = new ArrayList<String>(events);
+			events.clear();
+			return taken;
+		}
+
+		@Override
+		public TestState createState(String definition) {
+			events.add("create " + definition);
+			return new TestState(definition);
+		}
+
+		@Override
+		public TestState restoreState(String definition) {
+			events.add("restore " + definition);
+			return new TestState(definition);
+		}
+
+		@Override
+		public String saveState(TestState state) {
+			events.add("save " + state);
+			return state.name;
+		}
+
+		@Override
+		public String getNextState(TestState state) {
+			return String.valueOf((char) (state.name.charAt(0) + 1));
+		}
+
+		@Override
+		public boolean shouldResolveNextStateInBackground(TestState state) {
+			return resolvesInBackground;
+		}
+
+		@Override
+		public void resolveNextStateInBackground(TestState state) {
+			events.add("resolve " + state);
+		}
+
+		@Override
+		public boolean canGoForward(TestState state) {
+			return true;
+		}
+
+		@Override
+		public boolean canGoBack(TestState state) {
+			return true;
+		}
+
+		@Override
+		public boolean shouldValidateInBackground(TestState state) {
+			return false;
+		}
+
+		@Override
+		public boolean validate(TestState state) {
+			return validates;
+		}
+
+		@Override
+		public void validateInBackground(TestState state) {
+			throw new AssertionError("test states validate in the foreground");
+		}
+
+		@Override
+		public void onForward(TestState state) {
+			events.add("forward " + state);
+		}
+
+		@Override
+		public void onBack(TestState state) {
+			events.add("back " + state);
+		}
+
+		@Override
+		public void onBackFromFirstState(TestState state) {
+			events.add("first " + state);
+		}
+
+		@Override
+		public void showState(TestState state) {
+			events.add("show " + state);
+			shown = state;
+		}
+
+		@Override
+		public void prepareState(TestState state) {
+			events.add("prepare " + state);
+		}
+
+		@Override
+		public void discardState(TestState state) {
+			events.add("discard " + state);
+		}
+
+		@Override
+		public boolean isSameState(String prefetched, String actual) {
+			return prefetched.equals(actual);
+		}
+	}
+
+	private RecordingHost host;
+
+	@Before
+	public void setUp() {
+		host = new RecordingHost();
+	}
+
+	private static List<String> events(String... events) {
+		return Arrays.asList(events);
+	}
+
+	private static void clickNext(WizardEngine<TestState, String> engine, int times) {
+		for (int i = 0; i < times; i++) {
+			engine.handleNextClicked();
+		}
+	}
+
+	@Test
+	public void nextAndBackMoveThroughTheHistory() {
+		WizardEngine<TestState, String> engine = new WizardEngine<TestState, String>(host);
+		engine.moveForwardToState("a");
+		assertEquals(events("create a", "show a"), host.take());
+
+		engine.handleNextClicked();
+		assertEquals(events("forward a", "create b", "show b"), host.take());
+		assertEquals(2, engine.getHistoryDepth());
+
+		engine.handleBackClicked();
+		assertEquals(events("back b", "show a"), host.take());
+		assertEquals(1, engine.getHistoryDepth());
+
+		engine.handleBackClicked();
+		assertEquals(events("first a"), host.take());
+	}
+
+	@Test
+	public void failedValidationStaysPut() {
+		WizardEngine<TestState, String> engine = new WizardEngine<TestState, String>(host);
+		engine.moveForwardToState("a");
+		host.take();
+		host.validates = false;
+
+		engine.handleNextClicked();
+
+		assertEquals(events(), host.take());
+		assertEquals("a", engine.getCurrentState().name);
+	}
+
+	@Test
+	public void boundedHistoryDropsTheOldestState() {
+		WizardEngine<TestState, String> engine = new WizardEngine<TestState, String>(host, 3);
+		engine.moveForwardToState("a");
+		clickNext(engine, 4);
+
+		assertEquals(3, engine.getHistoryDepth());
+		assertEquals("e", engine.getCurrentState().name);
+
+		engine.goBackAStep();
+		engine.goBackAStep();
+		assertEquals("c", engine.getCurrentState().name);
+		host.take();
+		engine.goBackAStep();
+		assertEquals(events("first c"), host.take());
+	}
+
+	@Test
+	public void parkedStatesAreSavedAndOnlyRestoredOnTheWayBack() {
+		WizardEngine<TestState, String> engine = new WizardEngine<TestState, String>(host, StateHistory.UNBOUNDED, true);
+		engine.moveForwardToState("a");
+		host.take();
+
+		clickNext(engine, 2);
+		assertEquals(events("forward a", "create b", "save a", "show b", "forward b", "create c", "save b", "show c"), host.take());
+		assertEquals(1, engine.getStates().size());
+		assertEquals(2, engine.getParkedStates().size());
+		assertEquals(3, engine.getHistoryDepth());
+
+		engine.goBackAStep();
+		assertEquals(events("back c", "restore b", "show b"), host.take());
+		assertEquals(2, engine.getHistoryDepth());
+	}
+
+	@Test
+	public void boundedParkingCountsTheLiveState() {
+		WizardEngine<TestState, String> engine = new WizardEngine<TestState, String>(host, 3, true);
+		engine.moveForwardToState("a");
+		clickNext(engine, 5);
+
+		assertEquals(3, engine.getHistoryDepth());
+		assertEquals("d", engine.getParkedStates().get(0));
+		assertEquals("f", engine.getCurrentState().name);
+	}
+
+	@Test
+	public void buildStatesReplaysASavedHistory() {
+		WizardEngine<TestState, String> engine = new WizardEngine<TestState, String>(host);
+		engine.buildStates(Arrays.asList("a", "b", "c"));
+
+		assertEquals(events("restore a", "restore b", "restore c", "show c"), host.take());
+		assertEquals(3, engine.getHistoryDepth());
+
+		engine.goBackAStep();
+		assertEquals(events("back c", "show b"), host.take());
+	}
+
+	@Test
+	public void buildStatesWhenParkingOnlyBuildsTheCurrentState() {
+		WizardEngine<TestState, String> engine = new WizardEngine<TestState, String>(host, StateHistory.UNBOUNDED, true);
+		engine.buildStates(Arrays.asList("a", "b", "c"));
+
+		assertEquals(events("restore c", "show c"), host.take());
+		assertEquals(3, engine.getHistoryDepth());
+
+		engine.goBackAStep();
+		assertEquals(events("back c", "restore b", "show b"), host.take());
+	}
+
+	@Test
+	public void backgroundResolutionOnlyLeavesTheStateOnceTheNextIsKnown() {
+		WizardEngine<TestState, String> engine = new WizardEngine<TestState, String>(host);
+		engine.moveForwardToState("a");
+		host.take();
+		host.resolvesInBackground = true;
+
+		engine.handleNextClicked();
+		assertEquals(events("resolve a"), host.take());
+
+		engine.handleNextStateResolved(null);
+		assertEquals(events(), host.take());
+		assertEquals("a", engine.getCurrentState().name);
+
+		engine.handleNextStateResolved("z");
+		assertEquals(events("forward a", "create z", "show z"), host.take());
+	}
+
+	@Test
+	public void prefetchedStateIsUsedWhenThePredictionHolds() {
+		WizardEngine<TestState, String> engine = new WizardEngine<TestState, String>(host);
+		engine.setPrefetching(true);
+		engine.moveForwardToState("a");
+		host.take();
+
+		engine.prefetch();
+		TestState prefetched = engine.getPrefetchedState();
+		assertEquals(events("create b", "prepare b"), host.take());
+
+		engine.handleNextClicked();
+		assertEquals(events("forward a", "show b"), host.take());
+		assertSame(prefetched, engine.getCurrentState());
+		assertNull(engine.getPrefetchedState());
+		assertEquals(1, engine.getPrefetchHitCount());
+	}
+
+	@Test
+	public void prefetchedStateIsDiscardedOnTheWayBack() {
+		WizardEngine<TestState, String> engine = new WizardEngine<TestState, String>(host);
+		engine.setPrefetching(true);
+		engine.buildStates(Arrays.asList("a", "b"));
+		engine.prefetch();
+		host.take();
+
+		engine.goBackAStep();
+		assertEquals(events("discard c", "back b", "show a"), host.take());
+		assertEquals(1, engine.getPrefetchDiscardCount());
+	}
+}
@@ -0,0 +1,100 @@
+package com.hps.wizard;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class WizardGraphTest {
+	private static final class Start {
+	}
+
+	private static final class Short {
+	}
+
+	private static final class LongFirst {
+	}
+
+	private static final class LongSecond {
+	}
+
+	private static final class Done {
+	}
+
+	private static final class Loop {
+	}
+
+	private static final class Undeclared {
+	}
+
+	/**
+	 * Start branches to Short, which goes straight to Done, or to LongFirst and LongSecond before Done.
+	 */
+	private static WizardGraph branching() {
+		return new WizardGraph(new Class<?>[] { Start.class, Short.class, LongFirst.class, LongSecond.class, Done.class }, new int[][] { { 1, 2 }, { 4 },
+				{ 3 }, { 4 }, {} });
+	}
+
+	@Test
+	public void finalStateHasNothingRemaining() {
+		WizardGraph graph = branching();
+
+		assertEquals(0, graph.getShortestRemaining(Done.class));
+		assertEquals(0, graph.getLongestRemaining(Done.class));
+	}
+
+	@Test
+	public void branchesGiveDifferentShortestAndLongestRoutes() {
+		WizardGraph graph = branching();
+
+		assertEquals(2, graph.getShortestRemaining(Start.class));
+		assertEquals(3, graph.getLongestRemaining(Start.class));
+		assertEquals(1, graph.getShortestRemaining(Short.class));
+		assertEquals(1, graph.getLongestRemaining(Short.class));
+		assertEquals(2, graph.getShortestRemaining(LongFirst.class));
+		assertEquals(2, graph.getLongestRemaining(LongFirst.class));
+	}
+
+	@Test
+	public void cycleHasAShortestButNoLongestRoute() {
+		// Start -> Loop, Loop -> Start or Done
+		WizardGraph graph = new WizardGraph(new Class<?>[] { Start.class, Loop.class, Done.class }, new int[][] { { 1 }, { 0, 2 }, {} });
+
+		assertEquals(2, graph.getShortestRemaining(Start.class));
+		assertEquals(1, graph.getShortestRemaining(Loop.class));
+		assertEquals(WizardGraph.UNKNOWN, graph.getLongestRemaining(Start.class));
+		assertEquals(WizardGraph.UNKNOWN, graph.getLongestRemaining(Loop.class));
+		assertEquals(0, graph.getLongestRemaining(Done.class));
+	}
+
+	@Test
+	public void routeThroughAnUndeclaredStateIsUnknown() {
+		// Start -> Undeclared or Done, and Undeclared's transitions were never declared
+		WizardGraph graph = new WizardGraph(new Class<?>[] { Start.class, Undeclared.class, Done.class }, new int[][] { { 1, 2 }, null, {} });
+
+		assertEquals(WizardGraph.UNKNOWN, graph.getShortestRemaining(Undeclared.class));
+		assertEquals(WizardGraph.UNKNOWN, graph.getShortestRemaining(Start.class));
+		assertEquals(WizardGraph.UNKNOWN, graph.getLongestRemaining(Start.class));
+	}
+
+	@Test
+	public void stateWithNoRouteToAnEndIsUnknown() {
+		// Start and Loop go round for ever
+		WizardGraph graph = new WizardGraph(new Class<?>[] { Start.class, Loop.class }, new int[][] { { 1 }, { 0 } });
+
+		assertEquals(WizardGraph.UNKNOWN, graph.getShortestRemaining(Start.class));
+		assertEquals(WizardGraph.UNKNOWN, graph.getLongestRemaining(Start.class));
+	}
+
+	@Test
+	public void stateOutsideTheGraphIsUnknown() {
+		WizardGraph graph = branching();
+
+		assertEquals(WizardGraph.UNKNOWN, graph.getShortestRemaining(Loop.class));
+		assertEquals(WizardGraph.UNKNOWN, graph.getLongestRemaining(Loop.class));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void successorOutOfRangeIsRejected() {
+		new WizardGraph(new Class<?>[] { Start.class, Done.class }, new int[][] { { 2 }, {} });
+	}
+}
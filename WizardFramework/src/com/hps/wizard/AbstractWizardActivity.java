@@ -1,21 +1,30 @@
 package com.hps.wizard;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.Stack;
+import java.util.concurrent.Executor;
 
 import android.app.Activity;
 import android.app.Dialog;
 import android.app.ProgressDialog;
-import android.os.AsyncTask;
+import android.content.DialogInterface;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.MessageQueue;
 import android.support.v4.app.DialogFragment;
 import android.support.v4.app.Fragment;
 import android.support.v4.app.FragmentActivity;
 import android.support.v4.app.FragmentManager;
 import android.support.v4.app.FragmentTransaction;
+import android.text.TextUtils;
 import android.util.Log;
 import android.view.Menu;
 import android.view.View;
 import android.view.View.OnClickListener;
+import android.view.ViewTreeObserver;
 import android.widget.Button;
 import android.widget.TextView;
 import android.widget.Toast;
@@ -44,15 +53,23 @@ public abstract class AbstractWizardActivity extends FragmentActivity implements
 	protected static final String ALLOW_NEUTRAL_BUTTON_PLACEHOLDER = "allowNeutralPlaceholder";
 	protected static final String ALLOW_PREVIOUS_BUTTON_PLACEHOLDER = "allowPreviousPlaceholder";
 	protected static final String FIRST_STATE_CLASS = "firstState";
+	/** Key for the class stack saved by earlier versions. Only read, so those saved states can still be restored. */
 	protected static final String SAVED_CLASS_STACK = "ClassStack";
+	/** Key for the data stack saved by earlier versions. Only read, so those saved states can still be restored. */
 	protected static final String SAVED_DATA_STACK = "StateData";
+	protected static final String SAVED_HISTORY = "History";
+	protected static final String SESSION_JOURNAL = "sessionJournal";
+	protected static final String SAVED_BLACKBOARD = "blackboard";
 	protected static final String STEP_COUNT = "stepCount";
 	protected static final String TASK_FRAGMENT_TAG = "taskFragment";
+	protected static final String PREFETCHED_STATE_TAG = "prefetchedState";
 
 	/** Button ID for the Neutral button. */
 	public static final int NEUTRAL_BUTTON = 3;
 	/** Used in {@link #startWizard} when the step count is not known. */
 	public static final int STEP_COUNT_UNKNOWN = -1;
+	/** Used in {@link #startWizard} to have the step count worked out from the wizard's {@link WizardGraph}. See {@link #getStepCount()}. */
+	public static final int STEP_COUNT_AUTOMATIC = -2;
 	/** Button ID for the Next button. */
 	public static final int NEXT_BUTTON = 1;
 	/** Button ID for the Previous button. */
@@ -61,55 +78,144 @@ public abstract class AbstractWizardActivity extends FragmentActivity implements
 	/** The fragment to use when a state requires background validation. This ensures that the validation continues uninterrupted across orientation changes. */
 	private TaskFragment taskFragment;
 
+	/** True if the task fragment survived from an earlier instance of the activity, along with the blackboard it holds. */
+	private boolean taskFragmentRetained;
+
 	/** The dialog to use for showing progress during background validation. */
 	private static ProgressDialog progressDialog;
 
 	private boolean allowNeutralPlaceholder, allowPreviousPlaceholder;
-	private Button previous, neutral, next;
-	private Stack<StateFragment> states = new Stack<StateFragment>();
+	private ButtonBinding previous, neutral, next;
+	/** The default labels for the next button, looked up once. */
+	private String nextLabel, finishLabel;
+	/** The model the buttons were last bound to. */
+	private ButtonModel buttonModel;
+
+	/** Handles clicks on all three buttons, for the life of the activity. */
+	private final OnClickListener buttonListener = new OnClickListener() {
+		@Override
+		public void onClick(View v) {
+			if (previous.isFor(v)) {
+				handleBackClicked();
+			} else if (neutral.isFor(v)) {
+				getStates().peek().onNeutralButtonClicked();
+			} else if (buttonModel.isFinal) {
+				handleFinishClicked();
+			} else {
+				handleNextClicked();
+			}
+		}
+	};
 	private int stepCount;
 	private TextView title, stepCountTextView;
 
+	/** The navigation core. It owns the history and tells us which state to render. */
+	private WizardEngine<StateFragment, StateDefinition> engine;
+
+	/** The state whose fragment is currently in the content container. */
+	private StateFragment shownState;
+
+	/** The state most recently removed from the history by a back step. */
+	private StateFragment poppedState;
+
+	/** Where the wizard's moves are journalled, or null if it wasn't started with a session name. */
+	private SessionJournal journal;
+	private String sessionName;
+
+	/** The saved bundle of the state being left, taken as it was left. */
+	private Bundle journalLeftState;
+
+	/** The blackboard's values as the state being left had them before its {@link StateFragment#onForward()}, as a bundle for the journal. */
+	private Bundle journalLeftBlackboard;
+
+	/** Keeps the views of states which have left the screen, or null if the activity doesn't pool them. */
+	private StatePool statePool;
+
+	/** The declared transitions between this wizard's states, or null if there aren't any. */
+	private WizardGraph wizardGraph;
+
+	/** True while background validation is running. */
+	private boolean validating;
+
+	/** What the progress dialog currently shows, so it's only updated when that changes. */
+	private int shownProgressPercent;
+	private CharSequence shownProgressMessage;
+	private int shownProgressAttempt;
+
+	/** The latest speculative validation of the current state, or null. See {@link #getSpeculativeValidationDelayMillis()}. */
+	private SpeculativeValidation speculation;
+
+	/** Runs speculative validations once their debounce delay has passed. */
+	private final Handler speculationHandler = new Handler();
+
+	/** Marks the first frame of each transition once it's drawn, apart from the other handlers so their work can't get in the way. */
+	private final Handler metricsHandler = new Handler();
+
+	/** Waits for the next state to be drawn, to time the transition's first frame. See {@link #getWizardMetrics()}. */
+	private final ViewTreeObserver.OnPreDrawListener firstFrameListener = new ViewTreeObserver.OnPreDrawListener() {
+		@Override
+		public boolean onPreDraw() {
+			View view = shownState == null ? null : shownState.getView();
+			if (view == null || view.getWindowToken() == null) {
+				// the fragment transaction hasn't run yet, so this frame is still the old state
+				return true;
+			}
+			getWindow().getDecorView().getViewTreeObserver().removeOnPreDrawListener(this);
+			// this is about to be drawn; the front of the queue is just after
+			metricsHandler.postAtFrontOfQueue(firstFrameDrawn);
+			return true;
+		}
+	};
+
+	private final Runnable firstFrameDrawn = new Runnable() {
+		@Override
+		public void run() {
+			getWizardMetrics().finish();
+		}
+	};
+
 	/**
-	 * Adds the state to the stack.
-	 * 
-	 * @param state
-	 *            the state to add (cannot be null)
+	 * True from a click on next until the wizard has moved on or stayed put. Prefetching asks the host the same questions as the click does, so they're only
+	 * timed while this is set.
 	 */
-	private void addState(StateFragment state) {
-		if (state == null) {
-			throw new IllegalArgumentException("null state cannot be added!");
+	private boolean nextClicked;
+
+	/** True while {@link #prefetchHandler} is waiting for the main thread to go idle. */
+	private boolean prefetchScheduled;
+
+	/** Prefetches the next state once the main thread has nothing better to do. */
+	private final MessageQueue.IdleHandler prefetchHandler = new MessageQueue.IdleHandler() {
+		@Override
+		public boolean queueIdle() {
+			prefetchScheduled = false;
+			if (!validating && !isFinishing()) {
+				try {
+					engine.prefetch();
+				} catch (RuntimeException e) {
+					// a failed guess must never break the wizard
+					Log.w(TAG, "prefetch failed", e);
+					engine.discardPrefetch();
+				}
+			}
+			return false;
 		}
-		getStates().push(state);
-	}
+	};
 
 	/**
-	 * Builds the state stack from the given classes and bundle.
+	 * Builds the state stack from the class and data stacks saved by earlier versions.
 	 * 
 	 * @param classStack
 	 * @param dataStack
 	 */
 	private void buildStates(Stack<Class<? extends StateFragment>> classStack, Stack<Bundle> dataStack) {
+		List<StateDefinition> definitions = new ArrayList<StateDefinition>(classStack.size());
 
 		int i = 0;
 		for (Class<? extends StateFragment> clazz : classStack) {
-			Bundle extras = dataStack.get(i++);
-			StateFragment state;
-
-			Fragment foundFragment = getSupportFragmentManager().findFragmentByTag(clazz.getSimpleName());
-
-			if (foundFragment != null) {
-				state = (StateFragment) foundFragment;
-			} else {
-				state = StateFragment.create(this, clazz.getName(), extras);
-			}
-
-			addState(state);
-
-			Log.i(TAG, "state " + clazz.getSimpleName() + " (" + state + ") to the stack with extras " + extras);
+			definitions.add(new StateDefinition(clazz, dataStack.get(i++)));
 		}
 
-		showState(getStates().peek());
+		engine.buildStates(definitions);
 	}
 
 	/**
@@ -129,6 +235,7 @@ public abstract class AbstractWizardActivity extends FragmentActivity implements
 			break;
 		case NEXT_BUTTON:
 			next.setEnabled(enabled);
+			schedulePrefetch();
 			break;
 		case PREVIOUS_BUTTON:
 			previous.setEnabled(enabled);
@@ -138,6 +245,67 @@ public abstract class AbstractWizardActivity extends FragmentActivity implements
 		}
 	}
 
+	/**
+	 * Tells the wizard that the given state's next state may have changed, so any prefetched state is thrown away and the prediction is made again. This call
+	 * is ignored if the requester is not the current state. It's only needed for changes which don't already go through
+	 * {@link #enableButton(int, boolean, StateFragment)}.
+	 * 
+	 * @param requester
+	 *            The state whose next state may have changed.
+	 */
+	public void invalidatePrefetch(StateFragment requester) {
+		if (requester != getStates().peek()) {
+			return;
+		}
+		engine.discardPrefetch();
+		schedulePrefetch();
+	}
+
+	/**
+	 * <p>
+	 * Tells the wizard that the given state's input has changed. If speculative validation is on (see {@link #getSpeculativeValidationDelayMillis()}) any
+	 * speculative validation of the old input is cancelled, and the state is validated in the background once its input has stopped changing for the delay.
+	 * This call is ignored if the requester is not the current state or doesn't validate in the background.
+	 * </p>
+	 * 
+	 * @param requester
+	 *            The state whose input changed.
+	 */
+	public void onInputChanged(StateFragment requester) {
+		if (requester != getStates().peek() || validating) {
+			return;
+		}
+		long delay = getSpeculativeValidationDelayMillis();
+		if (delay <= 0 || !requester.shouldValidateInBackground()) {
+			return;
+		}
+
+		discardSpeculation();
+		speculation = new SpeculativeValidation(requester);
+		speculationHandler.postDelayed(speculation, delay);
+	}
+
+	/**
+	 * Cancel any speculative validation which is pending or running.
+	 */
+	private void discardSpeculation() {
+		if (speculation != null) {
+			speculationHandler.removeCallbacks(speculation);
+			speculation.cancel();
+			speculation = null;
+		}
+	}
+
+	/**
+	 * Ask for the next state to be prefetched when the main thread is next idle, if prefetching is on and that isn't already pending.
+	 */
+	private void schedulePrefetch() {
+		if (engine.isPrefetching() && !prefetchScheduled) {
+			prefetchScheduled = true;
+			Looper.myQueue().addIdleHandler(prefetchHandler);
+		}
+	}
+
 	/**
 	 * Initialize the simple fields from the given extras.
 	 * 
@@ -157,32 +325,14 @@ public abstract class AbstractWizardActivity extends FragmentActivity implements
 	}
 
 	private void handleBackClicked() {
-		StateFragment state = getStates().peek();
-		if (state.canGoBack()) {
-			goBackAStep();
-		}
+		engine.handleBackClicked();
 	}
 
 	/**
 	 * Move back one step in the wizard.
 	 */
 	protected void goBackAStep() {
-		if (getStates().size() < 2) {
-			if (getStates().peek().backShouldFinish()) {
-				onBackPressed();
-			} else {
-				Toast.makeText(this, "There ain't no goin' back!", Toast.LENGTH_SHORT).show();
-				Log.i(TAG, "no prior state found");
-			}
-		} else {
-			getStates().peek().onBack();
-
-			getStates().pop();
-			StateFragment lastState = getStates().peek();
-			Log.i(TAG, "going back to " + lastState.getClass().getSimpleName());
-
-			showState(lastState);
-		}
+		engine.goBackAStep();
 	}
 
 	/**
@@ -190,51 +340,89 @@ public abstract class AbstractWizardActivity extends FragmentActivity implements
 	 */
 	private void handleFinishClicked() {
 		setResult(RESULT_OK, getStates().peek().getFinalResult());
+		Blackboard.Store store = getBlackboardStore();
+		if (store != null) {
+			saveBlackboard(store);
+		}
+		deleteJournal();
 		finish();
 	}
 
+	/**
+	 * Saves the blackboard's current values to the store, on the {@link #getValidationExecutor() validation executor}.
+	 */
+	private void saveBlackboard(final Blackboard.Store store) {
+		final Map<String, Object> values = getBlackboard().getValues();
+		getValidationExecutor().execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					store.save(values);
+				} catch (RuntimeException e) {
+					Log.e(TAG, "cannot save " + values.keySet(), e);
+				}
+			}
+		});
+	}
+
+	/**
+	 * The wizard is over, one way or the other, so there's nothing to resume.
+	 */
+	private void deleteJournal() {
+		if (journal != null) {
+			journal.delete();
+			journal = null;
+		}
+	}
+
 	/**
 	 * The next button was clicked. Here we ask the current state if we are allowed to go forward. If we are, ask it for the next state and go.
 	 */
 	private void handleNextClicked() {
-		StateFragment state = getStates().peek();
-		if (state.canGoForward()) {
-			if (state.shouldValidateInBackground()) {
-				/**
-				 * This task is validating in the background. Grab its ValidationTask and let the taskFragment work its magic.
-				 */
-				ValidationAsyncTask task = state.getValidatorTask();
-				taskFragment.execute(task);
+		nextClicked = true;
+		getWizardMetrics().begin(getStates().peek().getClass());
+		engine.handleNextClicked();
+	}
 
-				return;
-			} else if (state.validate()) { // Run validation in the foreground and respond to the results immediately.
-				handleSuccessfulValidation();
-			}
-		}
+	/**
+	 * The wizard isn't moving after all, so stop timing the transition.
+	 */
+	private void cancelTransition() {
+		nextClicked = false;
+		getWizardMetrics().cancel();
 	}
 
 	/**
 	 * Move to the next state.
 	 */
 	private void handleSuccessfulValidation() {
-		StateFragment state = getStates().peek();
-		state.onForward();
-		StateDefinition def = state.getNextState();
-		moveForwardToState(def.clazz, def.args);
+		engine.handleSuccessfulValidation();
 	}
 
 	/**
-	 * Initialize the buttons based on the state's requested behavior.
+	 * Initialize the buttons based on the state's requested behavior. Only what differs from what the buttons already show is pushed to them.
 	 */
 	private void initalizeButtons() {
-		initPreviousButton();
-		initNeutralButton();
-		initNextButton();
+		StateFragment state = getStates().peek();
+		buttonModel = ButtonModel.of(state, getHistoryDepth() > 1, nextLabel, finishLabel, state.buttonModel);
+		state.buttonModel = buttonModel;
+
+		previous.bind(buttonModel.previousLabel, allowPreviousPlaceholder ? View.INVISIBLE : View.GONE, buttonModel.previousEnabled);
+		neutral.bind(buttonModel.neutralLabel, allowNeutralPlaceholder ? View.INVISIBLE : View.GONE, true);
+		next.bind(buttonModel.nextLabel, View.GONE, buttonModel.nextEnabled);
+	}
+
+	/**
+	 * @return the label for the next button when the state doesn't give one.
+	 */
+	String getDefaultNextButtonLabel(boolean isFinal) {
+		return isFinal ? finishLabel : nextLabel;
 	}
 
 	/**
 	 * If this is the first time in (i.e. the saved instance state is null) we initialize the state machine from the extras passed to the activity during
-	 * {@link Activity#startActivity(android.content.Intent, Bundle)}.
+	 * {@link Activity#startActivity(android.content.Intent, Bundle)}. If the wizard has a {@link SessionJournal} which survived the process being killed, the
+	 * history is rebuilt from that instead.
 	 * 
 	 * @param extras
 	 */
@@ -245,13 +433,29 @@ public abstract class AbstractWizardActivity extends FragmentActivity implements
 
 		Bundle args = new Bundle(extras);
 		args.remove(FIRST_STATE_CLASS);
+		args.remove(SESSION_JOURNAL);
 
 		StateDefinition def = new StateDefinition(clazz, args);
 
 		getBasicDataFromBundle(extras);
+		wizardGraph = loadWizardGraph(clazz);
+
+		sessionName = extras.getString(SESSION_JOURNAL);
+		if (sessionName != null) {
+			journal = new SessionJournal(SessionJournal.fileFor(this, sessionName));
+			List<Bundle> blackboard = new ArrayList<Bundle>();
+			List<StateDefinition> definitions = journal.read(blackboard);
+			if (definitions != null && definitions.get(0).clazz == clazz) {
+				Log.i(TAG, "resuming " + definitions.size() + " states from " + journal);
+				BlackboardBundles.restore(getBlackboard(), blackboard);
+				engine.buildStates(definitions);
+				return;
+			}
+			journal.start(def);
+		}
 
 		Log.i(TAG, "first state class is " + clazz.getName());
-		moveForwardToState(def.clazz, def.args);
+		engine.moveForwardToState(def);
 	}
 
 	/**
@@ -263,6 +467,33 @@ public abstract class AbstractWizardActivity extends FragmentActivity implements
 	protected void initializeFromSavedInstanceState(Bundle savedState) {
 		Log.d(TAG, "restoring bundle " + savedState);
 
+		SavedHistory history = savedState.getParcelable(SAVED_HISTORY);
+		if (history != null) {
+			if (history.size() == 0) {
+				throw new IllegalStateException("Cannot restore an empty history: " + history);
+			}
+
+			getBasicDataFromBundle(savedState);
+			sessionName = savedState.getString(SESSION_JOURNAL);
+			if (sessionName != null) {
+				journal = new SessionJournal(SessionJournal.fileFor(this, sessionName));
+			}
+
+			if (!taskFragmentRetained) {
+				// the process was killed, taking the blackboard with it
+				ArrayList<Bundle> blackboard = savedState.getParcelableArrayList(SAVED_BLACKBOARD);
+				BlackboardBundles.restore(getBlackboard(), blackboard);
+			}
+
+			List<StateDefinition> definitions = history.getDefinitions();
+			wizardGraph = loadWizardGraph(definitions.get(0).clazz);
+			engine.buildStates(definitions);
+			return;
+		}
+
+		/**
+		 * No history, so this was saved by an earlier version as a pair of serialized stacks.
+		 */
 		@SuppressWarnings("unchecked")
 		Stack<Class<? extends StateFragment>> classStack = (Stack<Class<? extends StateFragment>>) savedState.getSerializable(SAVED_CLASS_STACK);
 		if (classStack == null || classStack.size() == 0) {
@@ -281,105 +512,10 @@ public abstract class AbstractWizardActivity extends FragmentActivity implements
 
 		getBasicDataFromBundle(savedState);
 
+		wizardGraph = loadWizardGraph(classStack.get(0));
 		buildStates(classStack, dataStack);
 	}
 
-	/**
-	 * Get the label and initialize the click listener for the neutral button.
-	 */
-	private void initNeutralButton() {
-		String label = getStates().peek().getNeutralButtonLabel();
-		if (label == null) {
-			neutral.setVisibility(allowNeutralPlaceholder ? View.INVISIBLE : View.GONE);
-		} else {
-			neutral.setVisibility(View.VISIBLE);
-			neutral.setText(label);
-			neutral.setEnabled(true);
-		}
-
-		neutral.setOnClickListener(new OnClickListener() {
-			@Override
-			public void onClick(View v) {
-				getStates().peek().onNeutralButtonClicked();
-			}
-		});
-	}
-
-	/**
-	 * Get the label and initialize the click listener for the next button.
-	 */
-	private void initNextButton() {
-		if (getStates().peek().isFinal()) {
-			initNextButtonAsFinal();
-		} else {
-			initNextButtonAsNext();
-		}
-	}
-
-	/**
-	 * Sets up the next button as a final button in the wizard. If no text is provided by the state's {@link StateFragment#getNextButtonLabel()} then the value
-	 * of R.string.wizard_finish will be used. The on click listener is set to close this activity.
-	 */
-	private void initNextButtonAsFinal() {
-		String label = getStates().peek().getNextButtonLabel();
-		if (label == null) {
-			label = getString(R.string.wizard_finish);
-		} else {
-			next.setText(label);
-		}
-
-		next.setEnabled(getStates().peek().canGoForward());
-
-		next.setOnClickListener(new OnClickListener() {
-			@Override
-			public void onClick(View v) {
-				handleFinishClicked();
-			}
-		});
-	}
-
-	/**
-	 * Sets up the next button as a next button in the wizard. If no text is provided by the state's {@link StateFragment#getNextButtonLabel()} then the value
-	 * of R.string.wizard_next will be used. The on click listener is set to close this activity.
-	 */
-	private void initNextButtonAsNext() {
-		String label = getStates().peek().getNextButtonLabel();
-		if (label == null) {
-			label = getString(R.string.wizard_next);
-		} else {
-			next.setText(label);
-			next.setEnabled(getStates().peek().canGoForward());
-		}
-
-		next.setOnClickListener(new OnClickListener() {
-			@Override
-			public void onClick(View v) {
-				handleNextClicked();
-			}
-		});
-	}
-
-	/**
-	 * Get the label and initialize the click listener for the next button.
-	 */
-	private void initPreviousButton() {
-		String label = getStates().peek().getPreviousButtonLabel();
-		if (label == null) {
-			previous.setVisibility(allowPreviousPlaceholder ? View.INVISIBLE : View.GONE);
-		} else {
-			previous.setVisibility(View.VISIBLE);
-			previous.setText(label);
-			previous.setEnabled(getStates().size() > 1);
-		}
-
-		previous.setOnClickListener(new OnClickListener() {
-			@Override
-			public void onClick(View v) {
-				handleBackClicked();
-			}
-		});
-	}
-
 	/**
 	 * Get the title (if any) from the state.
 	 * 
@@ -387,37 +523,17 @@ public abstract class AbstractWizardActivity extends FragmentActivity implements
 	 */
 	abstract protected void initTitle();
 
-	/**
-	 * Takes the state class and bundles and builds the {@link StateFragment} using {@link Fragment#instantiate(android.content.Context, String, Bundle)}. That
-	 * state is then loaded up using {@link #showState(StateFragment)}.
-	 * 
-	 * @param stateClass
-	 * @param extras
-	 */
-	private void moveForwardToState(Class<? extends StateFragment> stateClass, Bundle extras) {
-		Log.i(TAG, "moving forward to state " + stateClass.getName());
-
-		if (stateClass == null || !StateFragment.class.isAssignableFrom(stateClass)) {
-			throw new IllegalArgumentException("state class cannot be null and must extend StateFragment");
-		}
-
-		StateFragment state = StateFragment.create(this, stateClass.getName(), extras);
-
-		addState(state);
-
-		showState(state);
-	}
-
 	/**
 	 * Swallow the back button event if the wizard has already been started. If we're on the first step set the result to RESULT_CANCELLED and exit the wizard.
 	 */
 	@Override
 	public void onBackPressed() {
-		if (getStates().size() > 1) {
+		if (getHistoryDepth() > 1) {
 			// Do Not goBackAStep();
 		} else {
 			// we're on the first step, cancel out
 			setResult(RESULT_CANCELED);
+			deleteJournal();
 			finish();
 		}
 	}
@@ -426,6 +542,14 @@ public abstract class AbstractWizardActivity extends FragmentActivity implements
 	protected void onCreate(Bundle savedInstanceState) {
 		super.onCreate(savedInstanceState);
 
+		engine = new WizardEngine<StateFragment, StateDefinition>(new EngineHost(), getMaxHistoryDepth(), shouldParkOffscreenStates());
+		engine.setPrefetching(shouldPrefetchNextState());
+
+		int poolSize = getStatePoolSize();
+		if (poolSize > 0) {
+			statePool = new StatePool(poolSize);
+		}
+
 		setContentView(getContentViewId());
 
 		FragmentManager fm = getSupportFragmentManager();
@@ -434,19 +558,27 @@ public abstract class AbstractWizardActivity extends FragmentActivity implements
 		/**
 		 * If the Fragment is non-null, then it is currently being retained across a configuration change.
 		 */
+		taskFragmentRetained = taskFragment != null;
 		if (taskFragment == null) {
 			taskFragment = new TaskFragment();
 			fm.beginTransaction().add(taskFragment, TASK_FRAGMENT_TAG).commit();
 		}
 
+		long validationCacheTtl = getValidationCacheTtlMillis();
+		if (validationCacheTtl > 0 && taskFragment.getValidationCache() == null) {
+			taskFragment.setValidationCache(new ValidationCache(validationCacheTtl));
+		}
+
 		/**
 		 * Initialize the UI elements.
 		 */
 		title = (TextView) findViewById(R.id.wizard_title);
 		stepCountTextView = (TextView) findViewById(R.id.wizard_step_count);
-		previous = (Button) findViewById(R.id.wizard_previous_button);
-		neutral = (Button) findViewById(R.id.wizard_neutral_button);
-		next = (Button) findViewById(R.id.wizard_next_button);
+		previous = new ButtonBinding((Button) findViewById(R.id.wizard_previous_button), buttonListener);
+		neutral = new ButtonBinding((Button) findViewById(R.id.wizard_neutral_button), buttonListener);
+		next = new ButtonBinding((Button) findViewById(R.id.wizard_next_button), buttonListener);
+		nextLabel = getString(R.string.wizard_next);
+		finishLabel = getString(R.string.wizard_finish);
 
 		/**
 		 * Finish initialization based on user preferences as set in the extras or stored in the saved instance state.
@@ -467,75 +599,397 @@ public abstract class AbstractWizardActivity extends FragmentActivity implements
 	 */
 	abstract protected int getContentViewId();
 
-	@Override
-	public boolean onCreateOptionsMenu(Menu menu) {
-		// No menu in a wizard.
-		return false;
+	/**
+	 * <p>
+	 * Gets the maximum number of states to keep in the history. Once the history is full, moving forward drops the oldest state and the user can no longer go
+	 * back to it.
+	 * </p>
+	 * <p>
+	 * The default implementation returns {@link StateHistory#UNBOUNDED}.
+	 * </p>
+	 * 
+	 * @return the maximum depth, or {@link StateHistory#UNBOUNDED}.
+	 */
+	protected int getMaxHistoryDepth() {
+		return StateHistory.UNBOUNDED;
 	}
 
-	@Override
-	protected void onSaveInstanceState(Bundle bundle) {
-		Log.d(TAG, "saving state");
-		Stack<Class<? extends StateFragment>> classStack = new Stack<Class<? extends StateFragment>>();
-		Stack<Bundle> dataStack = new Stack<Bundle>();
-		for (StateFragment state : getStates()) {
-			Class<? extends StateFragment> clazz = state.getClass();
-			classStack.push(clazz);
-			dataStack.push(state.getSavedInstanceState());
-		}
-
-		Log.i(TAG, "class stack: " + classStack);
-		bundle.putSerializable(SAVED_CLASS_STACK, classStack);
+	/**
+	 * <p>
+	 * Determines whether states which are no longer on screen should stay alive. When they're parked, only the current {@link StateFragment} is kept. The others
+	 * are reduced to their class and the bundle from {@link StateFragment#getSavedInstanceState()}, and are only recreated when the user goes back to them.
+	 * Restoring the wizard after it's been destroyed also only recreates the current state. This cuts memory use and restore time on deep wizards.
+	 * </p>
+	 * <p>
+	 * States must be able to rebuild themselves entirely from the arguments they're given, just as they already must to survive orientation changes. With
+	 * parking enabled {@link #getStates()} only holds the current state.
+	 * </p>
+	 * <p>
+	 * The default implementation returns false.
+	 * </p>
+	 * 
+	 * @return true to park off-screen states, false to keep every state alive.
+	 */
+	protected boolean shouldParkOffscreenStates() {
+		return false;
+	}
 
-		Log.i(TAG, "data stack: " + dataStack);
-		bundle.putSerializable(SAVED_DATA_STACK, dataStack);
+	/**
+	 * <p>
+	 * Determines whether the next state should be built ahead of time. When this is on, whenever the main thread goes idle after a state is shown or the Next
+	 * button is enabled, the current state is asked for its next state, which is then created and has its view inflated out of sight. If the Next click leads
+	 * to the same state (same class and equal arguments) it's simply swapped in. If not, it's thrown away. See {@link WizardEngine#getPrefetchHitRate()} for how
+	 * often the guesses pay off.
+	 * </p>
+	 * <p>
+	 * Only turn this on if every state's {@link StateFragment#getNextState()} can be called at any time without side effects, and if creating a state's view
+	 * before it's shown is harmless.
+	 * </p>
+	 * <p>
+	 * The default implementation returns false.
+	 * </p>
+	 * 
+	 * @return true to prefetch the next state.
+	 */
+	protected boolean shouldPrefetchNextState() {
+		return false;
+	}
 
-		bundle.putBoolean(ALLOW_NEUTRAL_BUTTON_PLACEHOLDER, allowNeutralPlaceholder);
-		bundle.putBoolean(ALLOW_PREVIOUS_BUTTON_PLACEHOLDER, allowPreviousPlaceholder);
-		bundle.putInt(STEP_COUNT, getStepCount());
+	/**
+	 * <p>
+	 * Gets the number of off-screen states whose fragments and views should be kept so that going back to them, or forward to them again, doesn't inflate
+	 * their views again. Pooled fragments are hidden rather than removed and are released, least recently used first, when the pool is full, when memory runs
+	 * low or when the activity saves its state. See {@link StatePool}.
+	 * </p>
+	 * <p>
+	 * A state the user backed out of may be reused when they move forward to a state with the same class and arguments, in which case it keeps whatever the
+	 * user had entered.
+	 * </p>
+	 * <p>
+	 * The default implementation returns 0, which turns pooling off.
+	 * </p>
+	 * 
+	 * @return the maximum number of pooled states, or 0 for none.
+	 */
+	protected int getStatePoolSize() {
+		return 0;
+	}
 
-		Log.d(TAG, "saved bundle " + bundle);
-		super.onSaveInstanceState(bundle);
+	/**
+	 * <p>
+	 * Gets the {@link Executor} which runs background validation. It's asked each time a {@link ValidationAsyncTask} is started. Callbacks always come back on
+	 * the main thread, whatever the executor.
+	 * </p>
+	 * <p>
+	 * The default implementation returns {@link ValidationAsyncTask#DEFAULT_EXECUTOR}, a small pool used only for validation. Override it to use, for example,
+	 * a dedicated thread from {@link java.util.concurrent.Executors#newSingleThreadExecutor()}, or a pool shared with the rest of the application.
+	 * </p>
+	 * 
+	 * @return the executor for background validation.
+	 */
+	protected Executor getValidationExecutor() {
+		return ValidationAsyncTask.DEFAULT_EXECUTOR;
 	}
 
 	/**
-	 * Initialize the {@link StateFragment} and load it up. This method moves forward, meaning it adds the state to the history. See {@link moveBack} for when a
-	 * state is being popped.
+	 * <p>
+	 * Gets how long a state's input must stay unchanged before it's validated speculatively. States report changes with
+	 * {@link #onInputChanged(StateFragment)}; once the delay passes the state's validator is run in the background, with no progress dialog, while the user
+	 * carries on. If Next is tapped and the state's {@link StateFragment#getValidationFingerprint() fingerprint} matches the speculative run, a pass moves on
+	 * straight away and a run still in progress is shown in the progress dialog rather than started again. A speculative run which failed is simply run again.
+	 * </p>
+	 * <p>
+	 * Only states with a fingerprint take part, and their {@link StateFragment#getValidatorTask()} must have no side effects, since it may be called more than
+	 * once.
+	 * </p>
+	 * <p>
+	 * The default implementation returns 0, which turns speculative validation off.
+	 * </p>
 	 * 
-	 * @param state
-	 *            the state we're moving to. It should be the top state in the stack.
+	 * @return the debounce delay in milliseconds, or 0 for no speculative validation.
 	 */
-	private void showState(StateFragment state) {
-		FragmentManager fragmentManager = getSupportFragmentManager();
+	protected long getSpeculativeValidationDelayMillis() {
+		return 0;
+	}
 
-		Fragment sf = fragmentManager.findFragmentByTag(state.getClass().getName());
+	/**
+	 * <p>
+	 * Gets how long a state's pass of background validation is remembered. While it is, moving forward from the state again with the same input (see
+	 * {@link StateFragment#getValidationFingerprint()}) skips the validation. The cache survives configuration changes but not the activity finishing.
+	 * </p>
+	 * <p>
+	 * The default implementation returns 0, which turns caching off.
+	 * </p>
+	 * 
+	 * @return the time-to-live in milliseconds, or 0 for no caching.
+	 */
+	protected long getValidationCacheTtlMillis() {
+		return 0;
+	}
 
-		FragmentTransaction fragmentTransaction = fragmentManager.beginTransaction();
+	/**
+	 * @return the timings of the background validations run so far, which survive configuration changes. See {@link ValidationTimings}.
+	 */
+	public ValidationTimings getValidationTimings() {
+		return taskFragment.getValidationTimings();
+	}
 
-		if (sf != null) {
-			Log.i(TAG, "found fragment " + sf.getClass().getName());
-			fragmentTransaction.detach(sf);
-		}
-		fragmentTransaction.replace(R.id.wizard_content_container, state, state.getClass().getName());
-		fragmentTransaction.commit();
+	/**
+	 * @return the timings of this wizard's transitions. See {@link WizardMetrics}.
+	 */
+	public WizardMetrics getWizardMetrics() {
+		return taskFragment.getWizardMetrics();
+	}
 
-		state.onAdded();
+	/**
+	 * @return the values shared by the states of this wizard. See {@link Blackboard}.
+	 */
+	public Blackboard getBlackboard() {
+		return taskFragment.getBlackboard();
+	}
 
-		initTitle();
-		initalizeButtons();
+	/**
+	 * <p>
+	 * Gets where the {@link Blackboard}'s values are saved when the wizard finishes. The save runs on the {@link #getValidationExecutor() validation executor}.
+	 * </p>
+	 * <p>
+	 * The default implementation returns null, so the values are dropped with the wizard.
+	 * </p>
+	 * 
+	 * @return the store, or null.
+	 */
+	protected Blackboard.Store getBlackboardStore() {
+		return null;
+	}
+
+	/**
+	 * @return the cache of validation passes, or null if caching is turned off. See {@link #getValidationCacheTtlMillis()}.
+	 */
+	public ValidationCache getValidationCache() {
+		return taskFragment.getValidationCache();
+	}
+
+	/**
+	 * <p>
+	 * Gets the graph of transitions between this wizard's states. It's used to check each move forward against the states declared with {@link Transitions},
+	 * and a move the graph doesn't allow is logged as a warning.
+	 * </p>
+	 * <p>
+	 * The default implementation loads the graph generated for the first state's package, if there is one. See {@link WizardGraph#forState(Class)}.
+	 * </p>
+	 * 
+	 * @param firstState
+	 *            The class of the first state of the wizard.
+	 * @return the graph, or null if there isn't one.
+	 */
+	protected WizardGraph loadWizardGraph(Class<? extends StateFragment> firstState) {
+		return WizardGraph.forState(firstState);
+	}
+
+	/**
+	 * @return the graph of transitions between this wizard's states, or null if there isn't one. See {@link #loadWizardGraph(Class)}.
+	 */
+	protected WizardGraph getWizardGraph() {
+		return wizardGraph;
+	}
+
+	/**
+	 * @return the pool of off-screen states, or null if pooling is turned off. See {@link #getStatePoolSize()}.
+	 */
+	protected StatePool getStatePool() {
+		return statePool;
+	}
+
+	/**
+	 * Release the views of every pooled state.
+	 */
+	private void clearStatePool() {
+		if (statePool != null && statePool.size() > 0) {
+			FragmentTransaction transaction = getSupportFragmentManager().beginTransaction();
+			statePool.clear(transaction);
+			transaction.commit();
+		}
+	}
+
+	@Override
+	protected void onDestroy() {
+		discardSpeculation();
+		metricsHandler.removeCallbacks(firstFrameDrawn);
+		super.onDestroy();
+	}
+
+	@Override
+	public void onLowMemory() {
+		super.onLowMemory();
+		clearStatePool();
+	}
+
+	@Override
+	public void onTrimMemory(int level) {
+		super.onTrimMemory(level);
+		if (level >= TRIM_MEMORY_RUNNING_LOW) {
+			clearStatePool();
+		}
+	}
+
+	@Override
+	public boolean onCreateOptionsMenu(Menu menu) {
+		// No menu in a wizard.
+		return false;
+	}
+
+	@Override
+	protected void onSaveInstanceState(Bundle bundle) {
+		Log.d(TAG, "saving state");
+
+		// don't let prefetched or pooled fragments be saved and recreated with the activity
+		engine.discardPrefetch();
+		clearStatePool();
+		SavedHistory history = new SavedHistory(getHistoryDepth());
+		for (StateDefinition parked : engine.getParkedStates()) {
+			history.add(parked.clazz, parked.args);
+		}
+		for (StateFragment state : getStates()) {
+			history.add(state.getClass(), state.captureSavedInstanceState(state == shownState));
+		}
+
+		Log.i(TAG, "history: " + history);
+		bundle.putParcelable(SAVED_HISTORY, history);
+		bundle.putParcelableArrayList(SAVED_BLACKBOARD, BlackboardBundles.save(getBlackboard()));
+
+		if (journal != null) {
+			// the process may be killed from here on, so get the current state's latest data to disk
+			StateFragment current = getStates().peek();
+			journal.recordUpdate(current.captureSavedInstanceState(current == shownState), BlackboardBundles.toBundle(getBlackboard().getValues()));
+			journal.flush();
+			bundle.putString(SESSION_JOURNAL, sessionName);
+		}
+
+		bundle.putBoolean(ALLOW_NEUTRAL_BUTTON_PLACEHOLDER, allowNeutralPlaceholder);
+		bundle.putBoolean(ALLOW_PREVIOUS_BUTTON_PLACEHOLDER, allowPreviousPlaceholder);
+		bundle.putInt(STEP_COUNT, stepCount);
+
+		Log.d(TAG, "saved bundle " + bundle);
+		super.onSaveInstanceState(bundle);
+	}
+
+	/**
+	 * Initialize the {@link StateFragment} and load it up. This method moves forward, meaning it adds the state to the history. See {@link moveBack} for when a
+	 * state is being popped.
+	 * 
+	 * @param state
+	 *            the state we're moving to. It should be the top state in the stack.
+	 */
+	private void showState(StateFragment state) {
+		discardSpeculation();
+
+		FragmentManager fragmentManager = getSupportFragmentManager();
+
+		FragmentTransaction fragmentTransaction = fragmentManager.beginTransaction();
+
+		if (statePool != null) {
+			showPooledState(state, fragmentTransaction);
+		} else if (state.isAdded() && state.isHidden()) {
+			/**
+			 * The state was prefetched, so it's already in the container with its view inflated. Just swap it in.
+			 */
+			Log.i(TAG, "showing prefetched fragment " + state.getClass().getName());
+			if (shownState != null && shownState != state && shownState.isAdded()) {
+				fragmentTransaction.remove(shownState);
+			}
+			fragmentTransaction.show(state);
+		} else {
+			Fragment sf = fragmentManager.findFragmentByTag(state.getClass().getName());
+
+			if (sf != null) {
+				Log.i(TAG, "found fragment " + sf.getClass().getName());
+				fragmentTransaction.detach(sf);
+			}
+			fragmentTransaction.replace(R.id.wizard_content_container, state, state.getClass().getName());
+		}
+		fragmentTransaction.commit();
+		// the back step, if this was one, has been dealt with; leaving it set would make the next move forward look like a move back
+		poppedState = null;
+		if (shownState != null && shownState != state) {
+			// whatever the user did to it has to be saved once more
+			shownState.markDirty();
+		}
+		shownState = state;
+
+		WizardMetrics metrics = getWizardMetrics();
+		if (metrics.isTiming()) {
+			metrics.mark(WizardMetrics.Phase.COMMITTED);
+			View root = getWindow().getDecorView();
+			root.getViewTreeObserver().removeOnPreDrawListener(firstFrameListener);
+			root.getViewTreeObserver().addOnPreDrawListener(firstFrameListener);
+		}
+
+		state.onAdded();
+
+		initTitle();
+		initalizeButtons();
+
+		schedulePrefetch();
+	}
+
+	/**
+	 * Swap in the given state when pooling is on. The state leaving the screen is pooled if the user could come back to it, or removed if it's been parked.
+	 * The state being shown is un-hidden if it's pooled or prefetched, and only added (and so inflated) otherwise.
+	 * 
+	 * @param state
+	 *            the state we're moving to.
+	 * @param fragmentTransaction
+	 *            the transaction to perform the swap in.
+	 */
+	private void showPooledState(StateFragment state, FragmentTransaction fragmentTransaction) {
+		if (shownState != null && shownState != state && shownState.isAdded()) {
+			if (shownState == poppedState || isInHistory(shownState)) {
+				statePool.release(shownState, fragmentTransaction);
+			} else {
+				fragmentTransaction.remove(shownState);
+			}
+		}
+
+		if (statePool.take(state) || (state.isAdded() && state.isHidden())) {
+			Log.i(TAG, "showing pooled or prefetched fragment " + state.getClass().getName());
+			fragmentTransaction.show(state);
+		} else if (!state.isAdded()) {
+			fragmentTransaction.add(R.id.wizard_content_container, state, state.getClass().getName());
+		}
+	}
+
+	/**
+	 * @return true if the given state is one of the live states in the history.
+	 */
+	private boolean isInHistory(StateFragment state) {
+		for (StateFragment live : getStates()) {
+			if (live == state) {
+				return true;
+			}
+		}
+		return false;
 	}
 
 	@Override
 	public void onPreExecute() {
 		/**
-		 * Display the progress dialog.
+		 * Display the progress dialog, or reuse it if it's still up from the task this one follows on from.
 		 */
-		progressDialog = new ProgressDialog(this);
-		progressDialog.setMessage("Starting");
+		shownProgressPercent = ValidationProgress.UNKNOWN_PERCENT;
+		shownProgressMessage = null;
+		shownProgressAttempt = 1;
+		if (progressDialog != null && progressDialog.isShowing()) {
+			progressDialog.setMessage("");
+		} else {
+			progressDialog = new ProgressDialog(this);
+			progressDialog.setMessage("Starting");
 
-		FragmentManager fragmentManager = getSupportFragmentManager();
-		ProgressDialogFragment newFragment = new ProgressDialogFragment();
-		newFragment.show(fragmentManager, "Dialog");
+			FragmentManager fragmentManager = getSupportFragmentManager();
+			ProgressDialogFragment newFragment = new ProgressDialogFragment();
+			newFragment.show(fragmentManager, "Dialog");
+		}
+
+		validating = true;
 
 		/**
 		 * Disable all of the buttons so they can't navigate while the background task is running.
@@ -546,11 +1000,90 @@ public abstract class AbstractWizardActivity extends FragmentActivity implements
 	}
 
 	@Override
-	public void onProgressUpdate(String... progress) {
+	public void onProgressUpdate(ValidationProgress progress) {
 		/**
-		 * Runs when the user calls
+		 * Runs at most once a frame while the task publishes progress. The dialog is only touched when what it would show has changed.
 		 */
-		progressDialog.setMessage(progress[0]);
+		CharSequence message = progress.getMessage();
+		if (message == null && progress.getMessageResId() != 0) {
+			message = getText(progress.getMessageResId());
+		}
+		int percent = progress.getPercent();
+		int attempt = progress.getAttempt();
+		if (percent == shownProgressPercent && attempt == shownProgressAttempt && TextUtils.equals(message, shownProgressMessage)) {
+			return;
+		}
+		shownProgressPercent = percent;
+		shownProgressMessage = message;
+		shownProgressAttempt = attempt;
+
+		StringBuilder text = new StringBuilder();
+		if (message != null) {
+			text.append(message);
+		}
+		if (percent != ValidationProgress.UNKNOWN_PERCENT) {
+			if (text.length() > 0) {
+				text.append(" (").append(percent).append("%)");
+			} else {
+				text.append(percent).append('%');
+			}
+		}
+		if (attempt > 1) {
+			// retries look the same whichever state is validating
+			text.append(text.length() > 0 ? ", " : "").append(getString(R.string.wizard_attempt, attempt, progress.getMaxAttempts()));
+		}
+		progressDialog.setMessage(text);
+	}
+
+	/**
+	 * Cancels the background validation, if one is running. The progress dialog is dismissed and the buttons are restored, without waiting for the task to
+	 * notice. This is what the progress dialog's Cancel button does.
+	 */
+	public void cancelValidation() {
+		if (validating) {
+			Log.i(TAG, "cancelling validation");
+			taskFragment.cancel();
+		}
+	}
+
+	/**
+	 * <p>
+	 * Runs a background job other than validation, such as loading data a coming state needs or submitting the wizard's results. The job is kept by the
+	 * retained {@link TaskFragment}, so it carries on across configuration changes. Jobs run a few at a time, most urgent first, and prefetch work gives way to
+	 * validation.
+	 * </p>
+	 * <p>
+	 * The task isn't connected to the activity: it should handle its own result by overriding {@link ValidationAsyncTask#onPostExecute(ValidationResult)}.
+	 * </p>
+	 * 
+	 * @param name
+	 *            Identifies the job. While a job with this name is queued or running, submitting another does nothing.
+	 * @param priority
+	 *            How urgent the job is. Can't be {@link TaskFragment.JobPriority#VALIDATION}, which is reserved for the wizard's own validation.
+	 * @param task
+	 *            The work to do. It's run on the {@link #getValidationExecutor() validation executor}.
+	 * @return true if the job was queued, false if one with the same name was already in flight.
+	 */
+	public boolean submitBackgroundJob(String name, TaskFragment.JobPriority priority, ValidationAsyncTask task) {
+		return taskFragment.submit(name, priority, task, getValidationExecutor());
+	}
+
+	/**
+	 * Cancels a job started with {@link #submitBackgroundJob(String, TaskFragment.JobPriority, ValidationAsyncTask)}.
+	 * 
+	 * @param name
+	 *            The name the job was submitted with.
+	 * @return true if the job was queued or running.
+	 */
+	public boolean cancelBackgroundJob(String name) {
+		return taskFragment.cancel(name);
+	}
+
+	/**
+	 * @return true if a job with the given name is queued or running.
+	 */
+	public boolean isBackgroundJobInFlight(String name) {
+		return taskFragment.isInFlight(name);
 	}
 
 	@Override
@@ -558,29 +1091,70 @@ public abstract class AbstractWizardActivity extends FragmentActivity implements
 		/**
 		 * Revert to the normal state (no progress dialog, UI elements based on state preferences.
 		 */
+		validating = false;
+		cancelTransition();
 		progressDialog.dismiss();
+		taskFragment.onValidationFinished(null);
 		initalizeButtons();
 	}
 
 	@Override
-	public void onPostExecute(Boolean result) {
+	public void onPostExecute(ValidationResult result) {
 		/**
-		 * Hide the dialog and handle success or failure.
+		 * Let the state see the result and handle success or failure, or move on if this was the next state being worked out. The dialog stays up if that
+		 * starts more background work, and is hidden otherwise.
 		 */
-		progressDialog.dismiss();
-		if (result) {
-			handleSuccessfulValidation();
+		validating = false;
+		boolean resolvedNextState = taskFragment.isResolvingNextState();
+		taskFragment.onValidationFinished(result);
+		if (resolvedNextState) {
+			StateDefinition next = (StateDefinition) result.getResponse();
+			if (next == null) {
+				cancelTransition();
+			} else {
+				getWizardMetrics().mark(WizardMetrics.Phase.NEXT_STATE);
+			}
+			engine.handleNextStateResolved(next);
+			if (next == null) {
+				initalizeButtons();
+			}
 		} else {
-			initalizeButtons();
+			StateFragment state = getStates().peek();
+			if (state != null) {
+				state.onValidationResult(result);
+			}
+			if (result.isPassed()) {
+				getWizardMetrics().mark(WizardMetrics.Phase.VALIDATION_FINISHED);
+				handleSuccessfulValidation();
+			} else {
+				cancelTransition();
+				initalizeButtons();
+			}
+		}
+		if (!validating) {
+			progressDialog.dismiss();
 		}
+	}
+
+	/**
+	 * @return the current history of live {@link StateFragment}s. See {@link #shouldParkOffscreenStates()}.
+	 */
+	protected StateHistory<StateFragment> getStates() {
+		return engine.getStates();
+	}
 
+	/**
+	 * @return the number of states in the history, including any parked ones. This is the number of the current step.
+	 */
+	protected int getHistoryDepth() {
+		return engine.getHistoryDepth();
 	}
 
 	/**
-	 * @return the current stack of {@link StateFragment}s.
+	 * @return the {@link WizardEngine} which drives this wizard's navigation.
 	 */
-	protected Stack<StateFragment> getStates() {
-		return states;
+	protected WizardEngine<StateFragment, StateDefinition> getEngine() {
+		return engine;
 	}
 
 	/**
@@ -598,22 +1172,427 @@ public abstract class AbstractWizardActivity extends FragmentActivity implements
 	}
 
 	/**
-	 * @return the number of steps in the current fragment, which may be STEP_COUNT_UNKNOWN.
+	 * Gets the number of steps in the wizard. If the wizard was started with {@link #STEP_COUNT_AUTOMATIC} this is the current step plus the steps remaining on
+	 * the longest route from the current state, according to the {@link WizardGraph}, so it can change as the user picks a branch.
+	 * 
+	 * @return the number of steps in the wizard, which may be STEP_COUNT_UNKNOWN.
 	 */
 	public int getStepCount() {
-		return stepCount;
+		if (stepCount != STEP_COUNT_AUTOMATIC) {
+			return stepCount;
+		}
+		int remaining = getRemainingSteps(false);
+		return remaining == WizardGraph.UNKNOWN ? STEP_COUNT_UNKNOWN : getHistoryDepth() + remaining;
+	}
+
+	/**
+	 * Gets the step counter text, in the form x/y where x is the current step and y is the number of steps. If the wizard was started with
+	 * {@link #STEP_COUNT_AUTOMATIC} and the routes from the current state differ in length, y is shown as a range, for example 3/5-6.
+	 * 
+	 * @return the text, or null if the step count is unknown.
+	 */
+	protected String getStepCountText() {
+		int total = getStepCount();
+		if (total == STEP_COUNT_UNKNOWN) {
+			return null;
+		}
+
+		int depth = getHistoryDepth();
+		if (stepCount == STEP_COUNT_AUTOMATIC) {
+			int fewest = depth + getRemainingSteps(true);
+			if (fewest < total) {
+				return depth + "/" + fewest + "-" + total;
+			}
+		}
+		return depth + "/" + total;
+	}
+
+	/**
+	 * @param shortest
+	 *            True for the shortest route from the current state, false for the longest.
+	 * @return the number of steps after the current state, or {@link WizardGraph#UNKNOWN}.
+	 */
+	private int getRemainingSteps(boolean shortest) {
+		if (wizardGraph == null || getStates().isEmpty()) {
+			return WizardGraph.UNKNOWN;
+		}
+		Class<? extends StateFragment> current = getStates().peek().getClass();
+		return shortest ? wizardGraph.getShortestRemaining(current) : wizardGraph.getLongestRemaining(current);
+	}
+
+	/**
+	 * Connects the {@link WizardEngine} to the fragments and views of this activity.
+	 */
+	private class EngineHost implements WizardEngine.Host<StateFragment, StateDefinition> {
+		/**
+		 * Takes the state class and bundles and builds the {@link StateFragment} using {@link Fragment#instantiate(android.content.Context, String, Bundle)}.
+		 */
+		@Override
+		public StateFragment createState(StateDefinition definition) {
+			Class<? extends StateFragment> stateClass = definition.clazz;
+			if (stateClass == null || !StateFragment.class.isAssignableFrom(stateClass)) {
+				throw new IllegalArgumentException("state class cannot be null and must extend StateFragment");
+			}
+
+			Log.i(TAG, "moving forward to state " + stateClass.getName());
+
+			if (wizardGraph != null && !getStates().isEmpty()) {
+				Class<? extends StateFragment> current = getStates().peek().getClass();
+				if (!wizardGraph.isDeclaredTransition(current, stateClass)) {
+					Log.w(TAG, "undeclared transition from " + current.getName() + " to " + stateClass.getName() + ", see @Transitions");
+				}
+			}
+
+			if (statePool != null) {
+				StateFragment pooled = statePool.find(definition);
+				if (pooled != null && !isInHistory(pooled)) {
+					Log.i(TAG, "reusing pooled state " + stateClass.getName());
+					return pooled;
+				}
+			}
+
+			StateFragment state = StateFragment.create(AbstractWizardActivity.this, stateClass.getName(), definition.args);
+			if (nextClicked) {
+				getWizardMetrics().mark(WizardMetrics.Phase.STATE_CREATED);
+			}
+			return state;
+		}
+
+		@Override
+		public StateFragment restoreState(StateDefinition definition) {
+			Class<? extends StateFragment> clazz = definition.clazz;
+			StateFragment state;
+
+			Fragment foundFragment = getSupportFragmentManager().findFragmentByTag(clazz.getSimpleName());
+
+			if (foundFragment != null) {
+				state = (StateFragment) foundFragment;
+			} else {
+				state = StateFragment.create(AbstractWizardActivity.this, clazz.getName(), definition.args);
+			}
+
+			Log.i(TAG, "state " + clazz.getSimpleName() + " (" + state + ") to the stack with extras " + definition.args);
+
+			return state;
+		}
+
+		@Override
+		public StateDefinition saveState(StateFragment state) {
+			Log.i(TAG, "parking state " + state.getClass().getSimpleName());
+			return new StateDefinition(state.getClass(), state.captureSavedInstanceState(state == shownState));
+		}
+
+		@Override
+		public StateDefinition getNextState(StateFragment state) {
+			StateDefinition next = state.getNextState();
+			if (nextClicked) {
+				getWizardMetrics().mark(WizardMetrics.Phase.NEXT_STATE);
+			}
+			return next;
+		}
+
+		@Override
+		public boolean canGoForward(StateFragment state) {
+			boolean canGoForward = state.canGoForward();
+			if (!canGoForward && nextClicked) {
+				cancelTransition();
+			}
+			return canGoForward;
+		}
+
+		@Override
+		public boolean canGoBack(StateFragment state) {
+			return state.canGoBack();
+		}
+
+		@Override
+		public boolean shouldResolveNextStateInBackground(StateFragment state) {
+			return state.shouldResolveNextStateInBackground();
+		}
+
+		@Override
+		public void resolveNextStateInBackground(StateFragment state) {
+			Log.i(TAG, "working out the next state of " + state.getClass().getSimpleName() + " in the background");
+			taskFragment.resolveNextState(new NextStateTask(state.createNextStateResolver()), getValidationExecutor());
+		}
+
+		@Override
+		public boolean shouldValidateInBackground(StateFragment state) {
+			return state.shouldValidateInBackground();
+		}
+
+		@Override
+		public boolean validate(StateFragment state) {
+			WizardMetrics metrics = getWizardMetrics();
+			metrics.mark(WizardMetrics.Phase.VALIDATION_STARTED);
+			boolean valid = state.validate();
+			if (valid) {
+				metrics.mark(WizardMetrics.Phase.VALIDATION_FINISHED);
+			} else {
+				cancelTransition();
+			}
+			return valid;
+		}
+
+		@Override
+		public void validateInBackground(StateFragment state) {
+			getWizardMetrics().mark(WizardMetrics.Phase.VALIDATION_STARTED);
+			String fingerprint = state.getValidationFingerprint();
+			if (speculation != null && speculation.matches(state, fingerprint)) {
+				if (speculation.result != null && speculation.result.isPassed()) {
+					Log.i(TAG, "using speculative validation of " + state.getClass().getSimpleName());
+					state.onValidationResult(speculation.result);
+					speculation = null;
+					getWizardMetrics().mark(WizardMetrics.Phase.VALIDATION_FINISHED);
+					handleSuccessfulValidation();
+					return;
+				}
+				if (speculation.isRunning()) {
+					Log.i(TAG, "waiting on speculative validation of " + state.getClass().getSimpleName());
+					speculation.adopt();
+					return;
+				}
+			}
+			discardSpeculation();
+
+			ValidationCache cache = getValidationCache();
+			ValidationResult cached = cache != null && fingerprint != null ? cache.getPassed(state.getClass(), fingerprint) : null;
+			if (cached != null) {
+				Log.i(TAG, "reusing validation of " + state.getClass().getSimpleName());
+				state.onValidationResult(cached);
+				getWizardMetrics().mark(WizardMetrics.Phase.VALIDATION_FINISHED);
+				handleSuccessfulValidation();
+				return;
+			}
+
+			/**
+			 * This task is validating in the background. Grab its ValidationTask and let the taskFragment work its magic.
+			 */
+			ValidationAsyncTask task = state.getValidatorTask();
+			taskFragment.execute(task, getValidationExecutor(), state.getClass(), cache == null ? null : fingerprint, state.getValidationTimeoutMillis());
+		}
+
+		@Override
+		public void onForward(StateFragment state) {
+			getBlackboard().beginForward();
+			if (journal != null) {
+				journalLeftBlackboard = BlackboardBundles.toBundle(getBlackboard().getValues());
+			}
+			state.onForward();
+			if (journal != null) {
+				journalLeftState = state.captureSavedInstanceState(true);
+			}
+		}
+
+		@Override
+		public void onBack(StateFragment state) {
+			getBlackboard().beginBack();
+			state.onBack();
+			poppedState = state;
+		}
+
+		@Override
+		public void onBackFromFirstState(StateFragment state) {
+			if (state.backShouldFinish()) {
+				onBackPressed();
+			} else {
+				Toast.makeText(AbstractWizardActivity.this, "There ain't no goin' back!", Toast.LENGTH_SHORT).show();
+				Log.i(TAG, "no prior state found");
+			}
+		}
+
+		@Override
+		public void showState(StateFragment state) {
+			Log.i(TAG, "showing state " + state.getClass().getSimpleName());
+			Blackboard.Move move = getBlackboard().finishMove(getHistoryDepth());
+			// the click on next, if there was one, is done with
+			nextClicked = false;
+			if (move == Blackboard.Move.BACK) {
+				getWizardMetrics().cancel();
+				if (journal != null) {
+					journal.recordBack();
+				}
+			} else if (move == Blackboard.Move.FORWARD && journal != null) {
+				journal.recordForward(journalLeftState, journalLeftBlackboard, state.getClass(), state.getArguments(),
+						BlackboardBundles.toBundle(getBlackboard().getValues()));
+			}
+			journalLeftState = null;
+			journalLeftBlackboard = null;
+			AbstractWizardActivity.this.showState(state);
+		}
+
+		/**
+		 * Adds the prefetched state to the content container, hidden, and runs the transaction right away so its view is inflated while we're idle. A state
+		 * which came from the pool is already there.
+		 */
+		@Override
+		public void prepareState(StateFragment state) {
+			Log.i(TAG, "prefetching state " + state.getClass().getSimpleName());
+			if (state.isAdded()) {
+				return;
+			}
+			FragmentManager fragmentManager = getSupportFragmentManager();
+			fragmentManager.beginTransaction().add(R.id.wizard_content_container, state, PREFETCHED_STATE_TAG).hide(state).commit();
+			fragmentManager.executePendingTransactions();
+		}
+
+		@Override
+		public void discardState(StateFragment state) {
+			Log.i(TAG, "discarding prefetched state " + state.getClass().getSimpleName());
+			if (state.isAdded() && (statePool == null || !statePool.contains(state))) {
+				getSupportFragmentManager().beginTransaction().remove(state).commit();
+			}
+		}
+
+		@Override
+		public boolean isSameState(StateDefinition prefetched, StateDefinition actual) {
+			return prefetched.isEquivalentTo(actual);
+		}
+	}
+
+	/**
+	 * A background validation started before Next was tapped. It reports to nobody until it's adopted, when it's handed to the {@link TaskFragment} and
+	 * carries on as if Next had started it.
+	 */
+	private class SpeculativeValidation implements Runnable, TaskCallback {
+		private final StateFragment state;
+		private String fingerprint;
+		private ValidationAsyncTask task;
+		/** The result, or null while it's pending or running, or if it was cancelled. */
+		ValidationResult result;
+		private boolean cancelled;
+		private ValidationProgress lastProgress;
+
+		SpeculativeValidation(StateFragment state) {
+			this.state = state;
+		}
+
+		/**
+		 * The debounce delay has passed, so start validating.
+		 */
+		@Override
+		public void run() {
+			if (cancelled || state != getStates().peek() || validating) {
+				return;
+			}
+			fingerprint = state.getValidationFingerprint();
+			if (fingerprint == null) {
+				return;
+			}
+			task = state.getValidatorTask();
+			if (task == null) {
+				return;
+			}
+			Log.i(TAG, "validating " + state.getClass().getSimpleName() + " speculatively");
+			task.setCallback(this);
+			task.executeOnExecutor(getValidationExecutor());
+		}
+
+		boolean matches(StateFragment current, String currentFingerprint) {
+			return !cancelled && current == state && fingerprint != null && fingerprint.equals(currentFingerprint);
+		}
+
+		boolean isRunning() {
+			return task != null && result == null && !cancelled;
+		}
+
+		/**
+		 * Show this validation to the user as if Next had started it.
+		 */
+		void adopt() {
+			speculation = null;
+			AbstractWizardActivity.this.onPreExecute();
+			if (lastProgress != null) {
+				AbstractWizardActivity.this.onProgressUpdate(lastProgress);
+			}
+			taskFragment.adopt(task, state.getClass(), fingerprint, state.getValidationTimeoutMillis());
+		}
+
+		void cancel() {
+			cancelled = true;
+			if (task != null) {
+				task.cancel(true);
+			}
+		}
+
+		@Override
+		public void onPreExecute() {
+			// nothing to show until it's adopted
+		}
+
+		@Override
+		public void onProgressUpdate(ValidationProgress progress) {
+			if (lastProgress == null) {
+				lastProgress = new ValidationProgress();
+			}
+			lastProgress.copyFrom(progress);
+		}
+
+		@Override
+		public void onCancelled() {
+			// a stale guess, nobody is waiting on it
+		}
+
+		@Override
+		public void onPostExecute(ValidationResult validationResult) {
+			result = validationResult;
+			getValidationTimings().record(validationResult);
+			ValidationCache cache = getValidationCache();
+			if (validationResult.isPassed() && cache != null) {
+				cache.putPassed(state.getClass(), fingerprint, validationResult);
+			}
+		}
+	}
+
+	/**
+	 * Works out a state's next state on the validation executor. The definition comes back as the result's response. It only holds the state's resolver, not
+	 * the state, since it's kept by the retained {@link TaskFragment} and can outlive the activity.
+	 */
+	private static class NextStateTask extends ValidationAsyncTask {
+		private final StateFragment.NextStateResolver resolver;
+
+		NextStateTask(StateFragment.NextStateResolver resolver) {
+			this.resolver = resolver;
+		}
+
+		@Override
+		protected ValidationResult doValidation() {
+			publishProgress(ValidationProgress.UNKNOWN_PERCENT, R.string.wizard_loading_next);
+			return ValidationResult.passed(resolver.resolve());
+		}
 	}
 
 	/**
 	 * Maintains a static progress dialog so orientation changes don't automatically destroy it when background validation is underway. The dialog is originally
-	 * shown with no title or text. States performing background validation can update the text via {@link AsyncTask#publishProgress
-	 * ValidationAsyncTask.publishProgress(String)}.
+	 * shown with no title or text. States performing background validation can update the text via {@link ValidationAsyncTask#publishProgress(int, int)}.
+	 * Its Cancel button, like the back key, cancels the validation. See {@link AbstractWizardActivity#cancelValidation()}.
 	 */
 	public static class ProgressDialogFragment extends DialogFragment {
 		@Override
 		public Dialog onCreateDialog(Bundle savedInstanceState) {
-			progressDialog = ProgressDialog.show(getActivity(), "", "");
+			progressDialog = new ProgressDialog(getActivity());
+			progressDialog.setIndeterminate(true);
+			progressDialog.setMessage("");
+			progressDialog.setButton(DialogInterface.BUTTON_NEGATIVE, getString(R.string.wizard_cancel), new DialogInterface.OnClickListener() {
+				@Override
+				public void onClick(DialogInterface dialog, int which) {
+					cancelValidation();
+				}
+			});
 			return progressDialog;
 		}
+
+		@Override
+		public void onCancel(DialogInterface dialog) {
+			super.onCancel(dialog);
+			cancelValidation();
+		}
+
+		private void cancelValidation() {
+			AbstractWizardActivity activity = (AbstractWizardActivity) getActivity();
+			if (activity != null) {
+				activity.cancelValidation();
+			}
+		}
 	}
 }
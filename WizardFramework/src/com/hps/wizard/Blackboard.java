@@ -0,0 +1,278 @@
+package com.hps.wizard;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ * Typed values shared between the states of one wizard session, such as the answers given so far. States read and write it through
+ * {@link StateFragment#getBlackboard()}, usually writing in {@link StateFragment#onForward()}. Everything is in memory, so a transition costs no I/O.
+ * </p>
+ * <p>
+ * Each move forward takes a snapshot of the values, and each move back restores the one taken when the user went forward from the state being returned to.
+ * So going back undoes whatever that state and the ones after it wrote, without the states having to clean up in {@link StateFragment#onBack()}. Snapshots
+ * cost nothing to take or restore: the values are copied on write, and only the first write after a snapshot copies them.
+ * </p>
+ * <p>
+ * The blackboard survives configuration changes, and is saved with the activity's instance state and in its {@link SessionJournal}, so it survives the
+ * process being killed too. Only values which are {@link android.os.Parcelable} or {@link java.io.Serializable} can be saved; anything else is dropped, with a warning, if
+ * the process is killed. It doesn't survive the activity finishing: to keep the values, give the activity a {@link Store}; see
+ * {@link AbstractWizardActivity#getBlackboardStore()}. It's only used on the main thread, and doesn't depend on Android.
+ * </p>
+ * 
+ * <pre>
+ * static final Blackboard.Key&lt;String&gt; ANSWER = new Blackboard.Key&lt;String&gt;(&quot;answer&quot;, String.class);
+ * 
+ * &#064;Override
+ * public void onForward() {
+ * 	getBlackboard().put(ANSWER, selectedLabel);
+ * }
+ * </pre>
+ */
+public final class Blackboard {
+	/**
+	 * The moves the wizard makes from one state to another.
+	 */
+	enum Move {
+		/** The state was shown without the user moving, as when the history is rebuilt. */
+		NONE,
+		/** The user went forward. */
+		FORWARD,
+		/** The user went back. */
+		BACK
+	}
+
+	/**
+	 * Names a value on the blackboard and gives its type. Keys with the same name are the same key, so they must have the same type too.
+	 * 
+	 * @param <T>
+	 *            The type of the value.
+	 */
+	public static final class Key<T> {
+		private final String name;
+		private final Class<T> type;
+
+		/**
+		 * @param name
+		 *            The name of the value, unique within the wizard.
+		 * @param type
+		 *            The type of the value. It should be {@link android.os.Parcelable} or {@link java.io.Serializable}, so the value can be saved.
+		 */
+		public Key(String name, Class<T> type) {
+			if (name == null || type == null) {
+				throw new IllegalArgumentException("A key needs a name and a type");
+			}
+			this.name = name;
+			this.type = type;
+		}
+
+		/**
+		 * @return the name of the value.
+		 */
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * @return the type of the value.
+		 */
+		public Class<T> getType() {
+			return type;
+		}
+
+		@Override
+		public String toString() {
+			return name + ":" + type.getSimpleName();
+		}
+	}
+
+	/**
+	 * Somewhere to keep the blackboard's values once the wizard is finished, such as a database or {@link android.content.SharedPreferences}.
+	 */
+	public interface Store {
+		/**
+		 * Saves the values. Called on a background thread when the wizard finishes.
+		 * 
+		 * @param values
+		 *            The values by key name. The map can't be changed and isn't changed by anything else, so it can be kept.
+		 */
+		void save(Map<String, Object> values);
+	}
+
+	/** The current values. Never changed while shared. */
+	private Map<String, Object> values = Collections.emptyMap();
+	/** True if the values map is shared with a snapshot, so it has to be copied before it's changed. */
+	private boolean shared = true;
+	/** The snapshots taken going forward, oldest first. */
+	private final List<Map<String, Object>> snapshots = new ArrayList<Map<String, Object>>();
+	/** The move under way, from the state being left until the next one is shown. */
+	private Move pendingMove = Move.NONE;
+	/** The values before the state being left went forward, kept until the move is finished. */
+	private Map<String, Object> pendingSnapshot;
+
+	/**
+	 * @return the value, or null if there isn't one.
+	 */
+	public <T> T get(Key<T> key) {
+		return key.type.cast(values.get(key.name));
+	}
+
+	/**
+	 * @return the value, or the default if there isn't one.
+	 */
+	public <T> T get(Key<T> key, T defaultValue) {
+		T value = get(key);
+		return value == null ? defaultValue : value;
+	}
+
+	/**
+	 * @return true if there's a value for the key.
+	 */
+	public boolean contains(Key<?> key) {
+		return values.containsKey(key.name);
+	}
+
+	/**
+	 * Sets a value.
+	 * 
+	 * @param value
+	 *            The value. Null removes it. It should be immutable, since snapshots share it.
+	 * @return this blackboard.
+	 */
+	public <T> Blackboard put(Key<T> key, T value) {
+		if (value == null) {
+			return remove(key);
+		}
+		writableValues().put(key.name, key.type.cast(value));
+		return this;
+	}
+
+	/**
+	 * Removes a value.
+	 * 
+	 * @return this blackboard.
+	 */
+	public Blackboard remove(Key<?> key) {
+		if (values.containsKey(key.name)) {
+			writableValues().remove(key.name);
+		}
+		return this;
+	}
+
+	/**
+	 * Removes every value. Snapshots aren't affected.
+	 */
+	public void clear() {
+		values = Collections.emptyMap();
+		shared = true;
+	}
+
+	/**
+	 * @return the current values by key name. The map can't be changed and isn't changed by later writes.
+	 */
+	public Map<String, Object> getValues() {
+		shared = true;
+		return Collections.unmodifiableMap(values);
+	}
+
+	private Map<String, Object> writableValues() {
+		if (shared) {
+			values = new HashMap<String, Object>(values);
+			shared = false;
+		}
+		return values;
+	}
+
+	/**
+	 * Starts a move forward. Called before the state being left writes its answers in {@link StateFragment#onForward()}, so the values it's left with are
+	 * the ones restored if the user comes back to it.
+	 */
+	void beginForward() {
+		pendingMove = Move.FORWARD;
+		pendingSnapshot = values;
+		shared = true;
+	}
+
+	/**
+	 * Starts a move back.
+	 */
+	void beginBack() {
+		pendingMove = Move.BACK;
+		pendingSnapshot = null;
+	}
+
+	/**
+	 * Finishes the move under way, as the next state is shown. Going forward keeps the snapshot taken by {@link #beginForward()}; going back restores the
+	 * most recent snapshot, if it hasn't been dropped. Either way the move is then over, so showing a state without a move changes nothing.
+	 * 
+	 * @param historyDepth
+	 *            The number of states in the history once the move is done. There's a snapshot for each state but the current one, and no more, so the
+	 *            oldest snapshots are dropped as the history drops its oldest states once it's full.
+	 * @return the move which was finished, or {@link Move#NONE} if there wasn't one.
+	 */
+	Move finishMove(int historyDepth) {
+		Move move = pendingMove;
+		if (move == Move.FORWARD) {
+			snapshots.add(pendingSnapshot);
+		} else if (move == Move.BACK && !snapshots.isEmpty()) {
+			values = snapshots.remove(snapshots.size() - 1);
+			shared = true;
+		}
+		pendingMove = Move.NONE;
+		pendingSnapshot = null;
+
+		int excess = snapshots.size() - Math.max(0, historyDepth - 1);
+		if (excess > 0) {
+			snapshots.subList(0, excess).clear();
+		}
+		return move;
+	}
+
+	/**
+	 * @return the snapshots, oldest first, followed by the current values, for {@link #restoreHistory(List)}. None of the maps can be changed.
+	 */
+	List<Map<String, Object>> getHistory() {
+		List<Map<String, Object>> history = new ArrayList<Map<String, Object>>(snapshots.size() + 1);
+		for (Map<String, Object> snapshot : snapshots) {
+			history.add(Collections.unmodifiableMap(snapshot));
+		}
+		history.add(getValues());
+		return history;
+	}
+
+	/**
+	 * Replaces the values and snapshots with saved ones, as the wizard is rebuilt after the process was killed.
+	 * 
+	 * @param history
+	 *            The snapshots, oldest first, followed by the current values, as returned by {@link #getHistory()}. Nothing happens if it's null or empty.
+	 */
+	void restoreHistory(List<Map<String, Object>> history) {
+		if (history == null || history.isEmpty()) {
+			return;
+		}
+		snapshots.clear();
+		int last = history.size() - 1;
+		for (int i = 0; i < last; i++) {
+			snapshots.add(history.get(i));
+		}
+		values = history.get(last);
+		shared = true;
+		pendingMove = Move.NONE;
+		pendingSnapshot = null;
+	}
+
+	/**
+	 * @return the number of snapshots kept.
+	 */
+	int getSnapshotCount() {
+		return snapshots.size();
+	}
+
+	@Override
+	public String toString() {
+		return "Blackboard " + values + ", " + snapshots.size() + " snapshots";
+	}
+}
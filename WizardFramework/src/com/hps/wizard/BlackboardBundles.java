@@ -0,0 +1,85 @@
+package com.hps.wizard;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import android.os.Bundle;
+import android.os.Parcelable;
+import android.util.Log;
+
+/**
+ * Converts a {@link Blackboard}'s values to and from bundles, so they can go in the activity's saved instance state and the {@link SessionJournal}. Kept
+ * apart from the blackboard so it doesn't depend on Android.
+ */
+final class BlackboardBundles {
+	private static final String TAG = "Blackboard";
+
+	private BlackboardBundles() {
+	}
+
+	/**
+	 * @return the values as a bundle. Values which are neither {@link Parcelable} nor {@link Serializable} are left out.
+	 */
+	static Bundle toBundle(Map<String, Object> values) {
+		Bundle bundle = new Bundle();
+		for (Map.Entry<String, Object> entry : values.entrySet()) {
+			Object value = entry.getValue();
+			if (value instanceof Parcelable) {
+				bundle.putParcelable(entry.getKey(), (Parcelable) value);
+			} else if (value instanceof Serializable) {
+				bundle.putSerializable(entry.getKey(), (Serializable) value);
+			} else {
+				Log.w(TAG, "cannot save " + entry.getKey() + ", a " + value.getClass().getName() + " is neither Parcelable nor Serializable");
+			}
+		}
+		return bundle;
+	}
+
+	/**
+	 * @return the values in the bundle. Empty if the bundle is null.
+	 */
+	static Map<String, Object> fromBundle(Bundle bundle) {
+		if (bundle == null || bundle.isEmpty()) {
+			return Collections.emptyMap();
+		}
+		bundle.setClassLoader(Blackboard.class.getClassLoader());
+		Map<String, Object> values = new HashMap<String, Object>();
+		for (String name : bundle.keySet()) {
+			values.put(name, bundle.get(name));
+		}
+		return values;
+	}
+
+	/**
+	 * @return the blackboard's snapshots, oldest first, followed by its current values, each as a bundle for {@link #restore(Blackboard, List)}.
+	 */
+	static ArrayList<Bundle> save(Blackboard blackboard) {
+		List<Map<String, Object>> history = blackboard.getHistory();
+		ArrayList<Bundle> saved = new ArrayList<Bundle>(history.size());
+		for (Map<String, Object> values : history) {
+			saved.add(toBundle(values));
+		}
+		return saved;
+	}
+
+	/**
+	 * Replaces the blackboard's values and snapshots with saved ones. Nothing happens if there are none.
+	 *
+	 * @param saved
+	 *            The snapshots, oldest first, followed by the current values, as returned by {@link #save(Blackboard)}.
+	 */
+	static void restore(Blackboard blackboard, List<Bundle> saved) {
+		if (saved == null || saved.isEmpty()) {
+			return;
+		}
+		List<Map<String, Object>> history = new ArrayList<Map<String, Object>>(saved.size());
+		for (Bundle values : saved) {
+			history.add(fromBundle(values));
+		}
+		blackboard.restoreHistory(history);
+	}
+}
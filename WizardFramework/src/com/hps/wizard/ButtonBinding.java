@@ -0,0 +1,76 @@
+package com.hps.wizard;
+
+import android.text.TextUtils;
+import android.view.View;
+import android.view.View.OnClickListener;
+import android.widget.Button;
+
+/**
+ * One of the wizard's buttons, along with what it's currently showing, so only the properties which change are pushed to the view. The click listener is set
+ * once, when the binding is made.
+ */
+final class ButtonBinding {
+	private final Button button;
+	private CharSequence text;
+	private int visibility;
+	private boolean enabled;
+
+	/**
+	 * @param button
+	 *            The button.
+	 * @param listener
+	 *            Handles its clicks for as long as it's shown.
+	 */
+	ButtonBinding(Button button, OnClickListener listener) {
+		this.button = button;
+		text = button.getText();
+		visibility = button.getVisibility();
+		enabled = button.isEnabled();
+		button.setOnClickListener(listener);
+	}
+
+	/**
+	 * Shows the button with the given label, or hides it if there isn't one.
+	 * 
+	 * @param label
+	 *            The label, or null to hide the button.
+	 * @param hiddenVisibility
+	 *            {@link View#INVISIBLE} to keep the button's space when it's hidden, or {@link View#GONE}.
+	 * @param enabled
+	 *            Whether the button is enabled when it's shown.
+	 */
+	void bind(String label, int hiddenVisibility, boolean enabled) {
+		if (label == null) {
+			setVisibility(hiddenVisibility);
+			return;
+		}
+
+		setVisibility(View.VISIBLE);
+		if (!TextUtils.equals(text, label)) {
+			button.setText(label);
+			text = label;
+		}
+		setEnabled(enabled);
+	}
+
+	void setEnabled(boolean enabled) {
+		if (this.enabled != enabled) {
+			button.setEnabled(enabled);
+			this.enabled = enabled;
+		}
+	}
+
+	private void setVisibility(int visibility) {
+		if (this.visibility != visibility) {
+			button.setVisibility(visibility);
+			this.visibility = visibility;
+		}
+	}
+
+	/**
+	 * @return true if the view is the bound button.
+	 */
+	boolean isFor(View view) {
+		return view == button;
+	}
+}
@@ -0,0 +1,64 @@
+package com.hps.wizard;
+
+import android.text.TextUtils;
+
+/**
+ * What the wizard's buttons should show for a state: their labels, whether they're enabled and whether Next finishes the wizard. A null label hides the
+ * button. Models are immutable, and a state keeps its last one so showing the state again with nothing changed doesn't build another.
+ */
+final class ButtonModel {
+	final String previousLabel;
+	final boolean previousEnabled;
+	final String neutralLabel;
+	final String nextLabel;
+	final boolean nextEnabled;
+	final boolean isFinal;
+
+	private ButtonModel(String previousLabel, boolean previousEnabled, String neutralLabel, String nextLabel, boolean nextEnabled, boolean isFinal) {
+		this.previousLabel = previousLabel;
+		this.previousEnabled = previousEnabled;
+		this.neutralLabel = neutralLabel;
+		this.nextLabel = nextLabel;
+		this.nextEnabled = nextEnabled;
+		this.isFinal = isFinal;
+	}
+
+	/**
+	 * Works out the model for a state.
+	 * 
+	 * @param state
+	 *            The state being shown.
+	 * @param canGoBack
+	 *            True if there's a state to go back to.
+	 * @param defaultNextLabel
+	 *            The label for Next if the state doesn't give one and it isn't final.
+	 * @param defaultFinishLabel
+	 *            The label for Next if the state doesn't give one and it's final.
+	 * @param last
+	 *            The state's previous model, or null. It's returned if nothing has changed.
+	 * @return the model.
+	 */
+	static ButtonModel of(StateFragment state, boolean canGoBack, String defaultNextLabel, String defaultFinishLabel, ButtonModel last) {
+		String previousLabel = state.getPreviousButtonLabel();
+		String neutralLabel = state.getNeutralButtonLabel();
+		boolean isFinal = state.isFinal();
+		String nextLabel = state.getNextButtonLabel();
+		if (nextLabel == null) {
+			nextLabel = isFinal ? defaultFinishLabel : defaultNextLabel;
+		}
+		boolean nextEnabled = state.canGoForward();
+
+		if (last != null && last.previousEnabled == canGoBack && last.nextEnabled == nextEnabled && last.isFinal == isFinal
+				&& TextUtils.equals(last.previousLabel, previousLabel) && TextUtils.equals(last.neutralLabel, neutralLabel)
+				&& TextUtils.equals(last.nextLabel, nextLabel)) {
+			return last;
+		}
+		return new ButtonModel(previousLabel, canGoBack, neutralLabel, nextLabel, nextEnabled, isFinal);
+	}
+
+	@Override
+	public String toString() {
+		return "ButtonModel [" + previousLabel + (previousEnabled ? "" : " disabled") + "] [" + neutralLabel + "] [" + nextLabel
+				+ (nextEnabled ? "" : " disabled") + (isFinal ? " final" : "") + "]";
+	}
+}
@@ -0,0 +1,280 @@
+package com.hps.wizard;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * <p>
+ * Runs several independent {@link ValidationAsyncTask}s at the same time and reports a single result: validation passes only if every part passes. As soon
+ * as one part fails the others are cancelled, with an interrupt, and the composite fails without waiting for them, with the failing part's
+ * {@link ValidationResult}. If the failing part threw, the composite throws the same exception.
+ * </p>
+ * <p>
+ * Only the parts' {@link ValidationAsyncTask#doValidation() doValidation} is run. Their progress is merged: the percentage is the average of the
+ * parts which have reported one, the text is the latest text message from each part, a line per part, and the message resource and payload are the most
+ * recently published ones. The composite's own callbacks are what reach the {@link TaskCallback}.
+ * </p>
+ * <p>
+ * The composite's thread takes on any part the executor hasn't started yet, so it can share a busy or small executor with its parts without deadlocking.
+ * </p>
+ *
+ * <h2>Usage</h2>
+ *
+ * <pre>
+ * &#064;Override
+ * public ValidationAsyncTask getValidatorTask() {
+ * 	return new CompositeValidationTask(new BinLookupTask(card), new AddressCheckTask(address), new VelocityCheckTask(account));
+ * }
+ * </pre>
+ */
+public class CompositeValidationTask extends ValidationAsyncTask {
+	/** How often the waiting thread checks whether the composite was cancelled without an interrupt. */
+	private static final long CANCEL_CHECK_MILLIS = 100;
+
+	/** The executor to run the parts on, or null to run them on the one the composite is run on. */
+	private final Executor executor;
+	private final ValidationAsyncTask[] parts;
+	/** The latest progress from each part. Guarded by itself. */
+	private final ValidationProgress[] progress;
+	/** The parts' latest text messages, a line per part, or null if none has one. Guarded by {@link #progress}. */
+	private String mergedMessage;
+	/** The parts as they're being run, or null before then. Guarded by this. */
+	private Part[] running;
+	/** The first part to fail, which is the one whose exception is rethrown. */
+	private final AtomicReference<Part> firstFailure = new AtomicReference<Part>();
+
+	/**
+	 * Creates a composite which runs its parts on the executor it's run on itself, which for a state's validation is
+	 * {@link AbstractWizardActivity#getValidationExecutor()}.
+	 *
+	 * @param parts
+	 *            The tasks to run. None of them can have been executed.
+	 */
+	public CompositeValidationTask(ValidationAsyncTask... parts) {
+		this(null, parts);
+	}
+
+	/**
+	 * @param executor
+	 *            The executor to run the parts on, or null for the one the composite is run on.
+	 * @param parts
+	 *            The tasks to run. None of them can have been executed.
+	 */
+	public CompositeValidationTask(Executor executor, ValidationAsyncTask... parts) {
+		if (parts.length == 0) {
+			throw new IllegalArgumentException("a composite needs at least one part");
+		}
+		this.executor = executor;
+		this.parts = parts.clone();
+		progress = new ValidationProgress[parts.length];
+		for (int i = 0; i < parts.length; i++) {
+			progress[i] = new ValidationProgress();
+		}
+		for (ValidationAsyncTask part : this.parts) {
+			part.joinComposite(this);
+		}
+	}
+
+	/**
+	 * A part, wrapped so its completion is queued for the composite, and so a failure cancels the other parts right away.
+	 */
+	private class Part extends FutureTask<ValidationResult> {
+		private final BlockingQueue<Part> finished;
+
+		Part(final ValidationAsyncTask task, BlockingQueue<Part> finished) {
+			super(new Callable<ValidationResult>() {
+				private final long queuedAt = System.nanoTime();
+
+				@Override
+				public ValidationResult call() {
+					return task.runInBackground(queuedAt);
+				}
+			});
+			this.finished = finished;
+		}
+
+		@Override
+		protected void done() {
+			if (!passed() && firstFailure.compareAndSet(null, this)) {
+				cancelParts();
+			}
+			finished.add(this);
+		}
+
+		/**
+		 * @return true if the part finished and passed. Only meaningful once it's done.
+		 */
+		boolean passed() {
+			ValidationResult result = result();
+			return result != null && result.isPassed();
+		}
+
+		/**
+		 * @return what the part returned, or null if it was cancelled or threw. Only meaningful once it's done.
+		 */
+		ValidationResult result() {
+			try {
+				return isCancelled() ? null : get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return null;
+			} catch (ExecutionException e) {
+				return null;
+			}
+		}
+	}
+
+	@Override
+	protected ValidationResult doValidation() {
+		BlockingQueue<Part> finished = new LinkedBlockingQueue<Part>();
+		Part[] started = new Part[parts.length];
+		for (int i = 0; i < parts.length; i++) {
+			started[i] = new Part(parts[i], finished);
+		}
+		synchronized (this) {
+			running = started;
+		}
+
+		Executor partExecutor = executor != null ? executor : getExecutor();
+		if (partExecutor == null) {
+			// a part of another composite isn't started on an executor of its own
+			partExecutor = DEFAULT_EXECUTOR;
+		}
+		for (Part part : started) {
+			try {
+				partExecutor.execute(part);
+			} catch (RejectedExecutionException e) {
+				// the part will be run on this thread instead
+			}
+		}
+
+		try {
+			int pending = started.length;
+			int next = 0;
+			while (pending > 0) {
+				if (isCancelled()) {
+					cancelParts();
+					return ValidationResult.failed();
+				}
+
+				Part done = finished.poll();
+				if (done == null) {
+					if (next < started.length) {
+						// does nothing if the executor has already started it
+						started[next++].run();
+						continue;
+					}
+					done = finished.poll(CANCEL_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+					if (done == null) {
+						continue;
+					}
+				}
+
+				pending--;
+				if (!done.passed()) {
+					Part failure = firstFailure.get();
+					rethrowFailure(failure);
+					ValidationResult result = failure == null ? null : failure.result();
+					return result != null ? result : ValidationResult.failed();
+				}
+			}
+			return ValidationResult.passed();
+		} catch (InterruptedException e) {
+			cancelParts();
+			return ValidationResult.failed();
+		}
+	}
+
+	/**
+	 * If the part failed by throwing, throw the same exception from the composite.
+	 */
+	private void rethrowFailure(Part part) {
+		if (part == null || part.isCancelled()) {
+			return;
+		}
+		try {
+			part.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new RuntimeException(cause);
+		}
+	}
+
+	/**
+	 * Cancels every part which hasn't finished, interrupting those which are running.
+	 */
+	private void cancelParts() {
+		Part[] toCancel;
+		synchronized (this) {
+			toCancel = running;
+		}
+		for (int i = 0; i < parts.length; i++) {
+			parts[i].cancel(true);
+			if (toCancel != null) {
+				toCancel[i].cancel(false);
+			}
+		}
+	}
+
+	/**
+	 * Called from a part's thread when it publishes progress. Publishes the merged progress of every part.
+	 */
+	void onPartProgress(ValidationAsyncTask part, int percent, int messageResId, String message, Object payload) {
+		int totalPercent = 0, reporting = 0;
+		String merged;
+		synchronized (progress) {
+			boolean messageChanged = false;
+			for (int i = 0; i < parts.length; i++) {
+				if (parts[i] == part) {
+					String previous = progress[i].getMessage();
+					messageChanged |= previous == null ? message != null : !previous.equals(message);
+					progress[i].set(percent, messageResId, message, payload);
+				}
+			}
+
+			for (ValidationProgress latest : progress) {
+				if (latest.getPercent() != ValidationProgress.UNKNOWN_PERCENT) {
+					totalPercent += latest.getPercent();
+					reporting++;
+				}
+			}
+			if (messageChanged) {
+				mergedMessage = mergeMessages();
+			}
+			merged = mergedMessage;
+		}
+		publishMerged(reporting == 0 ? ValidationProgress.UNKNOWN_PERCENT : totalPercent / reporting, messageResId, merged, payload);
+	}
+
+	/**
+	 * @return the parts' latest text messages, a line per part, or null if none has one. Must hold the lock on {@link #progress}.
+	 */
+	private String mergeMessages() {
+		StringBuilder builder = null;
+		for (ValidationProgress latest : progress) {
+			if (latest.getMessage() != null) {
+				if (builder == null) {
+					builder = new StringBuilder(latest.getMessage());
+				} else {
+					builder.append('\n').append(latest.getMessage());
+				}
+			}
+		}
+		return builder == null ? null : builder.toString();
+	}
+}
@@ -0,0 +1,252 @@
+package com.hps.wizard;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * <p>
+ * The file format of a {@link SessionJournal}: a header followed by records, each framed by its length and a CRC32. A record is a snapshot of the whole
+ * history, a move forward, a move back or an update of the current state. Replaying the records in order gives the history as it was when the last one was
+ * written.
+ * </p>
+ * <p>
+ * Bundles are handled as the bytes they were marshalled to, so this class doesn't depend on Android and the replay can be tested on a plain JVM.
+ * </p>
+ */
+final class JournalFormat {
+	static final int MAGIC = 0x574a524e;
+	static final int VERSION = 2;
+
+	private static final byte SNAPSHOT = 1;
+	private static final byte FORWARD = 2;
+	private static final byte BACK = 3;
+	private static final byte UPDATE = 4;
+
+	/**
+	 * One state in the history: its class name, its marshalled bundle, and the marshalled blackboard values it was left with, or has if it's the current
+	 * state.
+	 */
+	static final class Entry {
+		final String className;
+		final byte[] bundle;
+		final byte[] blackboard;
+
+		Entry(String className, byte[] bundle, byte[] blackboard) {
+			this.className = className;
+			this.bundle = bundle;
+			this.blackboard = blackboard;
+		}
+	}
+
+	private JournalFormat() {
+	}
+
+	/**
+	 * @return a record replacing the history with the given one.
+	 */
+	static byte[] encodeSnapshot(List<Entry> history) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		try {
+			out.writeByte(SNAPSHOT);
+			out.writeInt(history.size());
+			for (Entry entry : history) {
+				out.writeUTF(entry.className);
+				writeBytes(out, entry.bundle);
+				writeBytes(out, entry.blackboard);
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * @return a record of a move forward: the current state's bundle and blackboard are replaced, and a new state is added with the given class, arguments
+	 *         and blackboard.
+	 */
+	static byte[] encodeForward(byte[] leftState, byte[] leftBlackboard, String nextClassName, byte[] nextArguments, byte[] nextBlackboard) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		try {
+			out.writeByte(FORWARD);
+			writeBytes(out, leftState);
+			writeBytes(out, leftBlackboard);
+			out.writeUTF(nextClassName);
+			writeBytes(out, nextArguments);
+			writeBytes(out, nextBlackboard);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * @return a record of a move back, which removes the current state.
+	 */
+	static byte[] encodeBack() {
+		return new byte[] { BACK };
+	}
+
+	/**
+	 * @return a record replacing the current state's bundle and blackboard.
+	 */
+	static byte[] encodeUpdate(byte[] currentState, byte[] blackboard) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		try {
+			out.writeByte(UPDATE);
+			writeBytes(out, currentState);
+			writeBytes(out, blackboard);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Applies a record to a history.
+	 * 
+	 * @return false if the record doesn't make sense for the history.
+	 */
+	static boolean apply(List<Entry> history, byte[] record) {
+		try {
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+			switch (in.readByte()) {
+			case SNAPSHOT:
+				history.clear();
+				int count = in.readInt();
+				for (int i = 0; i < count; i++) {
+					history.add(new Entry(in.readUTF(), readBytes(in), readBytes(in)));
+				}
+				return true;
+
+			case FORWARD:
+				if (history.isEmpty()) {
+					return false;
+				}
+				Entry left = history.get(history.size() - 1);
+				history.set(history.size() - 1, new Entry(left.className, readBytes(in), readBytes(in)));
+				history.add(new Entry(in.readUTF(), readBytes(in), readBytes(in)));
+				return true;
+
+			case BACK:
+				if (history.size() < 2) {
+					return false;
+				}
+				history.remove(history.size() - 1);
+				return true;
+
+			case UPDATE:
+				if (history.isEmpty()) {
+					return false;
+				}
+				Entry current = history.get(history.size() - 1);
+				history.set(history.size() - 1, new Entry(current.className, readBytes(in), readBytes(in)));
+				return true;
+
+			default:
+				return false;
+			}
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Writes the header which starts every journal file.
+	 */
+	static void writeHeader(DataOutputStream out) throws IOException {
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+	}
+
+	/**
+	 * Writes a record with its length and CRC32.
+	 */
+	static void writeFrame(DataOutputStream out, byte[] record) throws IOException {
+		out.writeInt(record.length);
+		out.writeInt((int) crc(record));
+		out.write(record);
+	}
+
+	/**
+	 * Reads a journal file and replays its records. Records after a torn or corrupt one are ignored, since the process must have died while writing it.
+	 * 
+	 * @return the history the file describes, or null if it doesn't exist, isn't a journal of this version, or holds a record which doesn't fit the history.
+	 * @throws IOException
+	 *             if the file can't be read.
+	 */
+	static List<Entry> readEntries(File file) throws IOException {
+		if (!file.exists()) {
+			return null;
+		}
+
+		List<Entry> entries = new ArrayList<Entry>();
+		InputStream stream = new BufferedInputStream(new FileInputStream(file));
+		try {
+			DataInputStream in = new DataInputStream(stream);
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				return null;
+			}
+			while (true) {
+				byte[] record;
+				try {
+					int length = in.readInt();
+					long crc = in.readInt() & 0xffffffffL;
+					if (length <= 0 || length > file.length()) {
+						break;
+					}
+					record = new byte[length];
+					in.readFully(record);
+					if (crc(record) != crc) {
+						break;
+					}
+				} catch (EOFException e) {
+					break;
+				}
+				if (!apply(entries, record)) {
+					return null;
+				}
+			}
+		} catch (EOFException e) {
+			// too short for a header
+			return null;
+		} finally {
+			stream.close();
+		}
+		return entries;
+	}
+
+	private static long crc(byte[] record) {
+		CRC32 crc = new CRC32();
+		crc.update(record);
+		return crc.getValue();
+	}
+
+	private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static byte[] readBytes(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if (length < 0 || length > in.available()) {
+			throw new IOException("bad length " + length);
+		}
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return bytes;
+	}
+}
@@ -0,0 +1,30 @@
+package com.hps.wizard;
+
+/**
+ * <p>
+ * A {@link ValidationAsyncTask} which validates in {@link #doInBackground(Object...)}, as tasks did when ValidationAsyncTask was an AsyncTask. A task
+ * written that way keeps working by extending this class instead.
+ * </p>
+ * 
+ * @deprecated Extend {@link ValidationAsyncTask} and override {@link ValidationAsyncTask#doValidation()}, returning {@link ValidationResult#of(boolean)}.
+ */
+@Deprecated
+public abstract class LegacyValidationTask extends ValidationAsyncTask {
+	/**
+	 * Runs the validation. This is called on one of the executor's threads.
+	 * 
+	 * @param params
+	 *            Always holds a single null, kept for compatibility with tasks written against AsyncTask.
+	 * @return true if validation passed. Null counts as a fail.
+	 */
+	protected abstract Boolean doInBackground(Object... params);
+
+	/**
+	 * Calls {@link #doInBackground(Object...)} and wraps its answer.
+	 */
+	@Override
+	protected final ValidationResult doValidation() {
+		Object noParameters = null;
+		return ValidationResult.of(Boolean.TRUE.equals(doInBackground(noParameters)));
+	}
+}
@@ -0,0 +1,253 @@
+package com.hps.wizard;
+
+import java.util.Random;
+
+/**
+ * <p>
+ * How often, and how patiently, to retry an operation which fails by throwing, such as a call to a flaky gateway. An operation is tried at most
+ * {@link #getMaxAttempts()} times. After a failed attempt which threw one of the retryable exceptions it waits, then tries again. The wait starts at the
+ * initial delay and is multiplied after each attempt up to a maximum, and jitter takes a random part off each wait so that many clients failing together
+ * don't all retry together.
+ * </p>
+ * <p>
+ * Policies are immutable, so one can be shared by any number of tasks. This class doesn't depend on Android, and the {@link Clock} and {@link Random} are
+ * passed in, so retries can be exercised against a stub server with a fake clock. See {@link RetryingValidationTask} for its use in validation.
+ * </p>
+ * 
+ * <pre>
+ * // up to 4 attempts, waiting about 0.5s, 1s and 2s in between, retrying only on I/O errors
+ * static final RetryPolicy GATEWAY_RETRIES = new RetryPolicy(4, 500, IOException.class);
+ * </pre>
+ */
+public class RetryPolicy {
+	/** Tries once and never retries. */
+	public static final RetryPolicy NONE = new RetryPolicy(1, 0, 0, 1, 0);
+
+	/** The default multiplier applied to the delay after each attempt. */
+	public static final double DEFAULT_MULTIPLIER = 2;
+	/** The default longest wait between attempts. */
+	public static final long DEFAULT_MAX_DELAY_MILLIS = 30000;
+	/** The default fraction of each wait which may be taken off at random. */
+	public static final double DEFAULT_JITTER = 0.5;
+
+	/**
+	 * Tells the time and waits. {@link #SYSTEM_CLOCK} is the real thing; tests can substitute one which doesn't really sleep.
+	 */
+	public interface Clock {
+		/**
+		 * @return the current time in nanoseconds, from an arbitrary origin. Only differences are used.
+		 */
+		long nanoTime();
+
+		/**
+		 * Waits for the given time.
+		 * 
+		 * @throws InterruptedException
+		 *             if the waiting thread is interrupted, which ends the retries.
+		 */
+		void sleep(long millis) throws InterruptedException;
+	}
+
+	/** The system clock. */
+	public static final Clock SYSTEM_CLOCK = new Clock() {
+		@Override
+		public long nanoTime() {
+			return System.nanoTime();
+		}
+
+		@Override
+		public void sleep(long millis) throws InterruptedException {
+			Thread.sleep(millis);
+		}
+	};
+
+	/**
+	 * One try of the operation being retried.
+	 */
+	public interface Attempt<T> {
+		/**
+		 * @param attempt
+		 *            The number of this attempt, starting at 1.
+		 * @return the result of the operation.
+		 * @throws Exception
+		 *             if the attempt failed. It's retried if the exception is {@link RetryPolicy#isRetryable(Exception) retryable} and attempts remain.
+		 */
+		T run(int attempt) throws Exception;
+	}
+
+	/**
+	 * Told about each attempt as it happens, on the thread doing the retrying.
+	 */
+	public interface Listener {
+		/**
+		 * Called after every attempt.
+		 * 
+		 * @param attempt
+		 *            The number of the attempt, starting at 1.
+		 * @param latencyNanos
+		 *            How long it took.
+		 * @param failure
+		 *            What it threw, or null if it succeeded.
+		 */
+		void onAttemptFinished(int attempt, long latencyNanos, Exception failure);
+
+		/**
+		 * Called before waiting to retry.
+		 * 
+		 * @param nextAttempt
+		 *            The number of the attempt about to be made.
+		 * @param delayMillis
+		 *            How long it will wait first.
+		 */
+		void onRetry(int nextAttempt, long delayMillis);
+	}
+
+	private final int maxAttempts;
+	private final long initialDelayMillis;
+	private final long maxDelayMillis;
+	private final double multiplier;
+	private final double jitter;
+	private final Class<?>[] retryOn;
+
+	/**
+	 * Creates a policy with the default multiplier, maximum delay and jitter.
+	 * 
+	 * @param maxAttempts
+	 *            The most times to try, including the first. Must be at least 1.
+	 * @param initialDelayMillis
+	 *            How long to wait before the first retry.
+	 * @param retryOn
+	 *            The exceptions, and their subclasses, which are worth retrying. Anything else fails straight away.
+	 */
+	public RetryPolicy(int maxAttempts, long initialDelayMillis, Class<?>... retryOn) {
+		this(maxAttempts, initialDelayMillis, DEFAULT_MAX_DELAY_MILLIS, DEFAULT_MULTIPLIER, DEFAULT_JITTER, retryOn);
+	}
+
+	/**
+	 * @param maxAttempts
+	 *            The most times to try, including the first. Must be at least 1.
+	 * @param initialDelayMillis
+	 *            How long to wait before the first retry.
+	 * @param maxDelayMillis
+	 *            The longest to wait between attempts, however many there have been.
+	 * @param multiplier
+	 *            What the delay is multiplied by after each retry. Must be at least 1.
+	 * @param jitter
+	 *            The fraction of each wait, from 0 to 1, which may be taken off at random. 0 waits exactly the delay; 1 waits anything up to it.
+	 * @param retryOn
+	 *            The exceptions, and their subclasses, which are worth retrying. Anything else fails straight away. Each must be a subclass of Exception.
+	 */
+	public RetryPolicy(int maxAttempts, long initialDelayMillis, long maxDelayMillis, double multiplier, double jitter, Class<?>... retryOn) {
+		if (maxAttempts < 1) {
+			throw new IllegalArgumentException("there must be at least one attempt: " + maxAttempts);
+		}
+		if (initialDelayMillis < 0 || maxDelayMillis < initialDelayMillis) {
+			throw new IllegalArgumentException("bad delays: " + initialDelayMillis + " to " + maxDelayMillis);
+		}
+		if (multiplier < 1) {
+			throw new IllegalArgumentException("the multiplier can't shrink the delay: " + multiplier);
+		}
+		if (jitter < 0 || jitter > 1) {
+			throw new IllegalArgumentException("jitter must be between 0 and 1: " + jitter);
+		}
+		this.maxAttempts = maxAttempts;
+		this.initialDelayMillis = initialDelayMillis;
+		this.maxDelayMillis = maxDelayMillis;
+		this.multiplier = multiplier;
+		this.jitter = jitter;
+		for (Class<?> retryable : retryOn) {
+			if (!Exception.class.isAssignableFrom(retryable)) {
+				throw new IllegalArgumentException(retryable.getName() + " isn't an exception");
+			}
+		}
+		this.retryOn = retryOn.clone();
+	}
+
+	/**
+	 * @return the most times an operation is tried, including the first.
+	 */
+	public int getMaxAttempts() {
+		return maxAttempts;
+	}
+
+	/**
+	 * Decides whether a failure is worth retrying. Interrupts never are.
+	 * 
+	 * @param failure
+	 *            What the attempt threw.
+	 * @return true if it's an instance of one of the retryable exceptions.
+	 */
+	public boolean isRetryable(Exception failure) {
+		if (failure instanceof InterruptedException) {
+			return false;
+		}
+		for (Class<?> retryable : retryOn) {
+			if (retryable.isInstance(failure)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Works out how long to wait after a failed attempt.
+	 * 
+	 * @param attempt
+	 *            The number of the attempt which failed, starting at 1.
+	 * @param random
+	 *            The source of jitter.
+	 * @return the delay in milliseconds, between (1 - jitter) times the backed-off delay and the backed-off delay itself.
+	 */
+	public long getDelayMillis(int attempt, Random random) {
+		double delay = initialDelayMillis * Math.pow(multiplier, attempt - 1);
+		delay = Math.min(delay, maxDelayMillis);
+		delay *= 1 - jitter * random.nextDouble();
+		return Math.round(delay);
+	}
+
+	/**
+	 * Runs an operation, retrying it as the policy allows.
+	 * 
+	 * @param attempt
+	 *            The operation.
+	 * @param clock
+	 *            Times the attempts and waits between them.
+	 * @param random
+	 *            The source of jitter.
+	 * @param listener
+	 *            Told about each attempt and retry, or null.
+	 * @return what the first successful attempt returned.
+	 * @throws Exception
+	 *             what the last attempt threw, if none succeeded. InterruptedException if the thread was interrupted while waiting to retry.
+	 */
+	public <T> T run(Attempt<T> attempt, Clock clock, Random random, Listener listener) throws Exception {
+		for (int number = 1;; number++) {
+			long start = clock.nanoTime();
+			try {
+				T result = attempt.run(number);
+				if (listener != null) {
+					listener.onAttemptFinished(number, clock.nanoTime() - start, null);
+				}
+				return result;
+			} catch (Exception e) {
+				if (listener != null) {
+					listener.onAttemptFinished(number, clock.nanoTime() - start, e);
+				}
+				if (number >= maxAttempts || !isRetryable(e)) {
+					throw e;
+				}
+			}
+
+			long delay = getDelayMillis(number, random);
+			if (listener != null) {
+				listener.onRetry(number + 1, delay);
+			}
+			clock.sleep(delay);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "RetryPolicy " + maxAttempts + " attempts, " + initialDelayMillis + "ms x" + multiplier + " up to " + maxDelayMillis + "ms, jitter " + jitter;
+	}
+}
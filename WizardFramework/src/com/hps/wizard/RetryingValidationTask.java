@@ -0,0 +1,157 @@
+package com.hps.wizard;
+
+import java.util.Random;
+
+/**
+ * <p>
+ * A {@link ValidationAsyncTask} whose work is retried according to a {@link RetryPolicy}, so states talking to flaky services don't each need their own
+ * retry loop. Each try is a call to {@link #attempt(int)}. Returning, with a pass or a fail, ends the validation; throwing a retryable exception tries again
+ * after the policy's backoff, while attempts remain.
+ * </p>
+ * <p>
+ * Retries show up in the progress dialog the same way for every state: each retry publishes progress with the attempt number (see
+ * {@link ValidationProgress#getAttempt()}). How long each attempt took is recorded in the result, see {@link ValidationResult#getAttemptLatencyNanos(int)},
+ * and so in the {@link ValidationTimings}. Cancelling the task
+ * interrupts a wait between attempts, and no more attempts are made.
+ * </p>
+ * 
+ * <h2>Usage</h2>
+ * 
+ * <pre>
+ * public class CardCheckTask extends RetryingValidationTask {
+ * 	public CardCheckTask() {
+ * 		super(new RetryPolicy(4, 500, IOException.class));
+ * 	}
+ * 
+ * 	&#064;Override
+ * 	protected ValidationResult attempt(int attempt) throws IOException {
+ * 		publishProgress(ValidationProgress.UNKNOWN_PERCENT, R.string.checking_card);
+ * 		CardResponse response = gateway.checkCard(card);
+ * 		return response.isApproved() ? ValidationResult.passed(response) : ValidationResult.failed(response);
+ * 	}
+ * }
+ * </pre>
+ */
+public abstract class RetryingValidationTask extends ValidationAsyncTask {
+	private final RetryPolicy policy;
+	private final RetryPolicy.Clock clock;
+	private final Random random;
+
+	/** How long each attempt took, in order. Written on the worker thread and read after it's done. */
+	private final long[] attemptLatencies;
+	private volatile int attemptCount;
+
+	/**
+	 * @param policy
+	 *            How to retry.
+	 */
+	protected RetryingValidationTask(RetryPolicy policy) {
+		this(policy, RetryPolicy.SYSTEM_CLOCK, new Random());
+	}
+
+	/**
+	 * @param policy
+	 *            How to retry.
+	 * @param clock
+	 *            Times the attempts and the waits between them.
+	 * @param random
+	 *            The source of the policy's jitter.
+	 */
+	protected RetryingValidationTask(RetryPolicy policy, RetryPolicy.Clock clock, Random random) {
+		this.policy = policy;
+		this.clock = clock;
+		this.random = random;
+		attemptLatencies = new long[policy.getMaxAttempts()];
+	}
+
+	/**
+	 * Makes one try at the validation. Called on the executor's thread.
+	 * 
+	 * @param attempt
+	 *            The number of this attempt, starting at 1.
+	 * @return the result of the validation, pass or fail. Either way there are no more attempts.
+	 * @throws Exception
+	 *             if the attempt couldn't be completed. It's tried again if the policy says the exception is retryable and attempts remain.
+	 */
+	protected abstract ValidationResult attempt(int attempt) throws Exception;
+
+	/**
+	 * Called on the executor's thread when the last attempt threw, or one threw something which isn't retryable.
+	 * 
+	 * @param failure
+	 *            What the last attempt threw.
+	 * @return the result of the validation. The default implementation returns a fail with the exception as its response.
+	 */
+	protected ValidationResult onAttemptsFailed(Exception failure) {
+		return ValidationResult.failed(failure);
+	}
+
+	@Override
+	protected final ValidationResult doValidation() {
+		ValidationResult result = runAttempts();
+		int attempts = attemptCount;
+		if (result != null && attempts > 0) {
+			long[] latencies = new long[attempts];
+			System.arraycopy(attemptLatencies, 0, latencies, 0, attempts);
+			result.setAttemptLatencies(latencies);
+		}
+		return result;
+	}
+
+	private ValidationResult runAttempts() {
+		try {
+			return policy.run(new RetryPolicy.Attempt<ValidationResult>() {
+				@Override
+				public ValidationResult run(int attempt) throws Exception {
+					if (isCancelled()) {
+						throw new InterruptedException("cancelled");
+					}
+					return attempt(attempt);
+				}
+			}, clock, random, new RetryPolicy.Listener() {
+				@Override
+				public void onAttemptFinished(int attempt, long latencyNanos, Exception failure) {
+					attemptLatencies[attempt - 1] = latencyNanos;
+					attemptCount = attempt;
+				}
+
+				@Override
+				public void onRetry(int nextAttempt, long delayMillis) {
+					setAttempt(nextAttempt, policy.getMaxAttempts());
+					publishProgress(ValidationProgress.UNKNOWN_PERCENT, R.string.wizard_retrying);
+				}
+			});
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return ValidationResult.failed();
+		} catch (Exception e) {
+			return onAttemptsFailed(e);
+		}
+	}
+
+	/**
+	 * @return the policy the task retries with.
+	 */
+	public RetryPolicy getRetryPolicy() {
+		return policy;
+	}
+
+	/**
+	 * @return how many attempts have finished so far.
+	 */
+	public int getAttemptCount() {
+		return attemptCount;
+	}
+
+	/**
+	 * @param attempt
+	 *            The number of a finished attempt, from 1 to {@link #getAttemptCount()}.
+	 * @return how long that attempt took, in nanoseconds.
+	 */
+	public long getAttemptLatencyNanos(int attempt) {
+		if (attempt < 1 || attempt > attemptCount) {
+			throw new IndexOutOfBoundsException("attempt " + attempt + " of " + attemptCount);
+		}
+		return attemptLatencies[attempt - 1];
+	}
+}
@@ -0,0 +1,171 @@
+package com.hps.wizard;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import android.os.Bundle;
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import com.hps.wizard.StateFragment.StateDefinition;
+
+/**
+ * <p>
+ * The saved form of a wizard's history, as written by {@link AbstractWizardActivity#onSaveInstanceState(Bundle)}. It replaces the serialized class and data
+ * stacks used by earlier versions, which Java-serialized every class object and bundle each time the activity was saved.
+ * </p>
+ * <p>
+ * The parceled layout is:
+ * </p>
+ * <ul>
+ * <li>a table of the distinct state class names, each written once;</li>
+ * <li>for each state, in order from first to current, the index of its class in the table followed by its saved bundle. Bundles are written with
+ * {@link Parcel#writeBundle(Bundle)}, which prefixes each one with its length.</li>
+ * </ul>
+ */
+public final class SavedHistory implements Parcelable {
+
+	private final List<String> classNames;
+	private final int[] classIndexes;
+	private final Bundle[] data;
+	private int size;
+
+	/** Only used while adding states, to find the index of a class name in the table. */
+	private Map<String, Integer> classNameIndexes;
+
+	/**
+	 * Creates an empty history to be filled by {@link #add(Class, Bundle)}.
+	 *
+	 * @param capacity
+	 *            The number of states that will be added.
+	 */
+	public SavedHistory(int capacity) {
+		classNames = new ArrayList<String>();
+		classIndexes = new int[capacity];
+		data = new Bundle[capacity];
+		classNameIndexes = new HashMap<String, Integer>();
+	}
+
+	private SavedHistory(Parcel in) {
+		int classCount = in.readInt();
+		classNames = new ArrayList<String>(classCount);
+		for (int i = 0; i < classCount; i++) {
+			classNames.add(in.readString());
+		}
+
+		size = in.readInt();
+		classIndexes = new int[size];
+		data = new Bundle[size];
+		ClassLoader classLoader = SavedHistory.class.getClassLoader();
+		for (int i = 0; i < size; i++) {
+			classIndexes[i] = in.readInt();
+			data[i] = in.readBundle(classLoader);
+		}
+	}
+
+	/**
+	 * Adds the next state to the history.
+	 *
+	 * @param stateClass
+	 *            The class of the state.
+	 * @param savedState
+	 *            The data returned by {@link StateFragment#getSavedInstanceState()}, which can be null.
+	 */
+	public void add(Class<? extends StateFragment> stateClass, Bundle savedState) {
+		if (classNameIndexes == null) {
+			throw new IllegalStateException("states cannot be added to a restored history");
+		}
+
+		String name = stateClass.getName();
+		Integer index = classNameIndexes.get(name);
+		if (index == null) {
+			index = classNames.size();
+			classNames.add(name);
+			classNameIndexes.put(name, index);
+		}
+
+		classIndexes[size] = index;
+		data[size] = savedState;
+		size++;
+	}
+
+	/**
+	 * @return the number of states in the history.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Builds the definitions needed to restore the history. Each distinct class is only looked up once, and not at all if it's in the {@link StateRegistry}.
+	 *
+	 * @return the definitions, in order from first to current.
+	 */
+	public List<StateDefinition> getDefinitions() {
+		List<Class<? extends StateFragment>> classes = new ArrayList<Class<? extends StateFragment>>(classNames.size());
+		for (String name : classNames) {
+			classes.add(loadStateClass(name));
+		}
+
+		List<StateDefinition> definitions = new ArrayList<StateDefinition>(size);
+		for (int i = 0; i < size; i++) {
+			definitions.add(new StateDefinition(classes.get(classIndexes[i]), data[i]));
+		}
+		return definitions;
+	}
+
+	@Override
+	public int describeContents() {
+		return 0;
+	}
+
+	@Override
+	public void writeToParcel(Parcel dest, int flags) {
+		dest.writeInt(classNames.size());
+		for (String name : classNames) {
+			dest.writeString(name);
+		}
+
+		dest.writeInt(size);
+		for (int i = 0; i < size; i++) {
+			dest.writeInt(classIndexes[i]);
+			dest.writeBundle(data[i]);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "SavedHistory " + size + " states, classes " + classNames;
+	}
+
+	public static final Parcelable.Creator<SavedHistory> CREATOR = new Parcelable.Creator<SavedHistory>() {
+		@Override
+		public SavedHistory createFromParcel(Parcel in) {
+			return new SavedHistory(in);
+		}
+
+		@Override
+		public SavedHistory[] newArray(int size) {
+			return new SavedHistory[size];
+		}
+	};
+
+	/**
+	 * @return the state class with the given name, looked up in the {@link StateRegistry} if it's there and by reflection otherwise.
+	 * @throws IllegalStateException
+	 *             if there's no such class.
+	 */
+	static Class<? extends StateFragment> loadStateClass(String name) {
+		Class<? extends StateFragment> stateClass = StateRegistry.getStateClass(name);
+		if (stateClass == null) {
+			try {
+				stateClass = Class.forName(name).asSubclass(StateFragment.class);
+			} catch (ClassNotFoundException e) {
+				throw new IllegalStateException("Cannot restore state class " + name, e);
+			}
+		}
+		return stateClass;
+	}
+}
@@ -0,0 +1,369 @@
+package com.hps.wizard;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Parcel;
+import android.os.Process;
+import android.util.Log;
+
+import com.hps.wizard.JournalFormat.Entry;
+import com.hps.wizard.StateFragment.StateDefinition;
+
+/**
+ * <p>
+ * An append-only file recording a wizard's progress, so it can be resumed after the process is killed. Each move forward appends one record holding the
+ * bundle of the state being left and the class and arguments of the new one, along with the {@link Blackboard}'s values before and after the move; each
+ * move back appends a record with nothing in it. See
+ * {@link WizardActivity#startWizard(android.app.Activity, StateDefinition, int, boolean, boolean, int, String)}.
+ * </p>
+ * <p>
+ * Records are written on a background thread, in batches: everything recorded within {@value #BATCH_DELAY_MILLIS}ms goes to disk in one write and one sync.
+ * Once {@value #COMPACT_AFTER_RECORDS} records have been appended the file is rewritten as a single snapshot of the history, so it never holds more than one
+ * snapshot and that many records. Resuming reads the snapshot and replays at most that many records, however long the session has run.
+ * </p>
+ * <p>
+ * The file layout is a header followed by records; see {@link JournalFormat}. Each record is framed by its length and a CRC32, so a record torn by the
+ * process dying mid-write is recognised and dropped along with anything after it. Bundles are stored as marshalled {@link Parcel}s, which are only readable by the same build of the
+ * app on the same device; that's all a journal needs, and a journal which can't be read is simply not resumed.
+ * </p>
+ */
+public final class SessionJournal {
+	private static final String TAG = "SessionJournal";
+
+	/** How long records are collected before they're written. */
+	public static final long BATCH_DELAY_MILLIS = 250;
+	/** How many records are appended before the file is compacted into a snapshot. */
+	public static final int COMPACT_AFTER_RECORDS = 32;
+
+	private static Handler writerHandler;
+
+	private final File file;
+
+	/** Encoded records waiting to be written. Guarded by itself. */
+	private final List<byte[]> pending = new ArrayList<byte[]>();
+	/** True if the file is to be thrown away before the pending records are written. Guarded by pending. */
+	private boolean resetPending;
+	/** True while a write is scheduled. Guarded by pending. */
+	private boolean writeScheduled;
+
+	/** The history as the file describes it, or null until it's first needed. Only touched on the writer thread. */
+	private List<Entry> mirror;
+	/** The number of records after the snapshot in the file. Only touched on the writer thread. */
+	private int appendedRecords;
+	/** True if the file can't be trusted, so nothing is written to it until the journal is started again. Only touched on the writer thread. */
+	private boolean broken;
+
+	private final Runnable write = new Runnable() {
+		@Override
+		public void run() {
+			writePending();
+		}
+	};
+
+	/**
+	 * @param file
+	 *            The journal's file. It needn't exist yet.
+	 */
+	public SessionJournal(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * @param context
+	 *            Any context of the app.
+	 * @param sessionName
+	 *            The name of the wizard session. It becomes part of a file name, so it may only hold letters, digits, '-', '_' and '.'.
+	 * @return the file the named session is journalled in, in the app's private files directory.
+	 */
+	public static File fileFor(Context context, String sessionName) {
+		if (!sessionName.matches("[A-Za-z0-9._-]+")) {
+			throw new IllegalArgumentException("bad session name: " + sessionName);
+		}
+		return new File(context.getFilesDir(), "wizard-journal-" + sessionName);
+	}
+
+	/**
+	 * @return the journal's file.
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Reads the history the journal describes. This reads the file on the calling thread; it's small, since it's compacted regularly. Writes which are still
+	 * pending aren't seen.
+	 * 
+	 * @param blackboard
+	 *            Filled with the blackboard's values as each state was left, and then the current values, each as a bundle by key name. Left alone if
+	 *            the journal can't be read.
+	 * @return the definitions of the states, from first to current, or null if there's no journal or it can't be read.
+	 */
+	public List<StateDefinition> read(List<Bundle> blackboard) {
+		List<Entry> entries = readEntries(file);
+		if (entries == null || entries.isEmpty()) {
+			return null;
+		}
+
+		List<StateDefinition> definitions = new ArrayList<StateDefinition>(entries.size());
+		List<Bundle> values = new ArrayList<Bundle>(entries.size());
+		try {
+			for (Entry entry : entries) {
+				definitions.add(new StateDefinition(SavedHistory.loadStateClass(entry.className), unmarshall(entry.bundle)));
+				values.add(unmarshall(entry.blackboard));
+			}
+		} catch (RuntimeException e) {
+			Log.w(TAG, "cannot resume from " + file, e);
+			return null;
+		}
+		blackboard.addAll(values);
+		return definitions;
+	}
+
+	/**
+	 * Reads the history the journal describes, without the blackboard. See {@link #read(List)}.
+	 * 
+	 * @return the definitions of the states, from first to current, or null if there's no journal or it can't be read.
+	 */
+	public List<StateDefinition> read() {
+		return read(new ArrayList<Bundle>());
+	}
+
+	/**
+	 * Starts a new session at the given state, replacing anything journalled before.
+	 */
+	public void start(StateDefinition firstState) {
+		List<Entry> snapshot = new ArrayList<Entry>(1);
+		snapshot.add(new Entry(firstState.clazz.getName(), marshall(firstState.args), marshall(null)));
+		byte[] record = JournalFormat.encodeSnapshot(snapshot);
+		synchronized (pending) {
+			pending.clear();
+			resetPending = true;
+			pending.add(record);
+		}
+		scheduleWrite(BATCH_DELAY_MILLIS);
+	}
+
+	/**
+	 * Records a move forward.
+	 * 
+	 * @param leftState
+	 *            The {@link StateFragment#getSavedInstanceState()} of the state being left, which can be null.
+	 * @param leftBlackboard
+	 *            The blackboard's values before the state being left went forward, by key name.
+	 * @param nextState
+	 *            The class of the new state.
+	 * @param nextArguments
+	 *            The arguments of the new state, which can be null.
+	 * @param nextBlackboard
+	 *            The blackboard's values now, in the same form.
+	 */
+	public void recordForward(Bundle leftState, Bundle leftBlackboard, Class<? extends StateFragment> nextState, Bundle nextArguments, Bundle nextBlackboard) {
+		append(JournalFormat.encodeForward(marshall(leftState), marshall(leftBlackboard), nextState.getName(), marshall(nextArguments),
+				marshall(nextBlackboard)));
+	}
+
+	/**
+	 * Records a move back.
+	 */
+	public void recordBack() {
+		append(JournalFormat.encodeBack());
+	}
+
+	/**
+	 * Records the latest saved bundle of the current state and the blackboard's values, so changes made since it was shown survive too.
+	 * 
+	 * @param currentState
+	 *            Its {@link StateFragment#getSavedInstanceState()}, which can be null.
+	 * @param blackboard
+	 *            The blackboard's values, by key name.
+	 */
+	public void recordUpdate(Bundle currentState, Bundle blackboard) {
+		append(JournalFormat.encodeUpdate(marshall(currentState), marshall(blackboard)));
+	}
+
+	/**
+	 * Writes anything pending now rather than at the end of the batch. It's still written on the background thread.
+	 */
+	public void flush() {
+		scheduleWrite(0);
+	}
+
+	/**
+	 * Ends the session: the journal's file is deleted, along with anything pending.
+	 */
+	public void delete() {
+		synchronized (pending) {
+			pending.clear();
+			resetPending = true;
+		}
+		scheduleWrite(0);
+	}
+
+	private void append(byte[] record) {
+		synchronized (pending) {
+			pending.add(record);
+		}
+		scheduleWrite(BATCH_DELAY_MILLIS);
+	}
+
+	private void scheduleWrite(long delayMillis) {
+		Handler handler = getWriterHandler();
+		synchronized (pending) {
+			if (writeScheduled) {
+				if (delayMillis > 0) {
+					return;
+				}
+				handler.removeCallbacks(write);
+			}
+			writeScheduled = true;
+		}
+		handler.postDelayed(write, delayMillis);
+	}
+
+	private static synchronized Handler getWriterHandler() {
+		if (writerHandler == null) {
+			HandlerThread thread = new HandlerThread("WizardJournal", Process.THREAD_PRIORITY_BACKGROUND);
+			thread.start();
+			writerHandler = new Handler(thread.getLooper());
+		}
+		return writerHandler;
+	}
+
+	/**
+	 * Runs on the writer thread. Brings the mirror up to date with the pending records, then appends them or, if enough have built up, compacts the file.
+	 */
+	private void writePending() {
+		List<byte[]> batch;
+		boolean reset;
+		synchronized (pending) {
+			batch = new ArrayList<byte[]>(pending);
+			pending.clear();
+			reset = resetPending;
+			resetPending = false;
+			writeScheduled = false;
+		}
+
+		if (reset) {
+			if (file.exists() && !file.delete()) {
+				Log.w(TAG, "cannot delete " + file);
+			}
+			mirror = new ArrayList<Entry>();
+			appendedRecords = 0;
+			broken = false;
+		} else if (mirror == null) {
+			mirror = readEntries(file);
+			broken = mirror == null;
+			if (broken) {
+				Log.w(TAG, "cannot read " + file + ", not journalling until the next session starts");
+			}
+		}
+		if (batch.isEmpty()) {
+			return;
+		}
+
+		for (byte[] record : batch) {
+			if (!broken && !JournalFormat.apply(mirror, record)) {
+				Log.w(TAG, "record doesn't fit the journalled history, not journalling until the next session starts");
+				broken = true;
+			}
+		}
+		if (broken) {
+			return;
+		}
+
+		try {
+			if (!file.exists() || appendedRecords + batch.size() >= COMPACT_AFTER_RECORDS) {
+				compact();
+			} else {
+				FileOutputStream stream = new FileOutputStream(file, true);
+				try {
+					ByteArrayOutputStream frames = new ByteArrayOutputStream();
+					DataOutputStream out = new DataOutputStream(frames);
+					for (byte[] record : batch) {
+						JournalFormat.writeFrame(out, record);
+					}
+					out.flush();
+					stream.write(frames.toByteArray());
+					stream.getFD().sync();
+				} finally {
+					stream.close();
+				}
+				appendedRecords += batch.size();
+			}
+		} catch (IOException e) {
+			Log.w(TAG, "cannot write " + file, e);
+			// the file may be half written; start it again from the mirror next time
+			appendedRecords = COMPACT_AFTER_RECORDS;
+		}
+	}
+
+	/**
+	 * Replaces the file with a snapshot of the mirror. The snapshot is written to a temporary file first, so there's always a whole journal on disk.
+	 */
+	private void compact() throws IOException {
+		File temporary = new File(file.getPath() + ".tmp");
+		FileOutputStream stream = new FileOutputStream(temporary);
+		try {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+			JournalFormat.writeHeader(out);
+			JournalFormat.writeFrame(out, JournalFormat.encodeSnapshot(mirror));
+			out.flush();
+			stream.getFD().sync();
+		} finally {
+			stream.close();
+		}
+		if (!temporary.renameTo(file)) {
+			throw new IOException("cannot rename " + temporary + " to " + file);
+		}
+		appendedRecords = 0;
+	}
+
+	/**
+	 * @return the entries the file describes, or null if it doesn't exist or can't be read.
+	 */
+	private static List<Entry> readEntries(File file) {
+		try {
+			return JournalFormat.readEntries(file);
+		} catch (IOException e) {
+			Log.w(TAG, "cannot read " + file, e);
+			return null;
+		}
+	}
+
+	private static byte[] marshall(Bundle bundle) {
+		Parcel parcel = Parcel.obtain();
+		try {
+			parcel.writeBundle(bundle);
+			return parcel.marshall();
+		} finally {
+			parcel.recycle();
+		}
+	}
+
+	private static Bundle unmarshall(byte[] bytes) {
+		Parcel parcel = Parcel.obtain();
+		try {
+			parcel.unmarshall(bytes, 0, bytes.length);
+			parcel.setDataPosition(0);
+			return parcel.readBundle(SessionJournal.class.getClassLoader());
+		} finally {
+			parcel.recycle();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "SessionJournal " + file;
+	}
+}
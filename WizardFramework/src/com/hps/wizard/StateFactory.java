@@ -0,0 +1,24 @@
+package com.hps.wizard;
+
+/**
+ * <p>
+ * Creates instances of one {@link StateFragment} class by calling its constructor directly. Registering a factory with
+ * {@link StateRegistry#register(Class, StateFactory)} lets the framework skip the class lookup and reflective construction done by
+ * {@link android.support.v4.app.Fragment#instantiate(android.content.Context, String, android.os.Bundle)}.
+ * </p>
+ * 
+ * <pre>
+ * StateRegistry.register(MyState.class, new StateFactory() {
+ * 	&#064;Override
+ * 	public StateFragment newState() {
+ * 		return new MyState();
+ * 	}
+ * });
+ * </pre>
+ */
+public interface StateFactory {
+	/**
+	 * @return a new instance of the state, with no arguments set.
+	 */
+	StateFragment newState();
+}
@@ -1,6 +1,7 @@
 package com.hps.wizard;
 
 import java.io.Serializable;
+import java.util.Arrays;
 
 import android.app.Activity;
 import android.content.Intent;
@@ -14,6 +15,15 @@ public abstract class StateFragment extends Fragment {
 
 	private AbstractWizardActivity wizardActivity;
 
+	/** What the wizard's buttons last showed for this state. Kept by the activity. */
+	ButtonModel buttonModel;
+
+	/** Bumped by {@link #markDirty()}. */
+	private int changeCount;
+	/** The last bundle from {@link #getSavedInstanceState()}, and the change count it was taken at. */
+	private Bundle capturedState;
+	private int capturedChangeCount = -1;
+
 	/**
 	 * The definition of a state, including its class and arguments.
 	 */
@@ -36,11 +46,54 @@ public abstract class StateFragment extends Fragment {
 			clazz = stateClass;
 			args = arguments;
 		}
+
+		/**
+		 * Determines whether a state built from this definition could stand in for one built from the other. That's the case when both have the same class and
+		 * their arguments hold equal values. A null bundle is treated the same as an empty one.
+		 * 
+		 * @param other
+		 *            The definition to compare to.
+		 * @return true if the definitions are equivalent.
+		 */
+		public boolean isEquivalentTo(StateDefinition other) {
+			if (other == null || clazz != other.clazz) {
+				return false;
+			}
+
+			boolean empty = args == null || args.isEmpty();
+			boolean otherEmpty = other.args == null || other.args.isEmpty();
+			if (empty || otherEmpty) {
+				return empty && otherEmpty;
+			}
+
+			if (!args.keySet().equals(other.args.keySet())) {
+				return false;
+			}
+			for (String key : args.keySet()) {
+				if (!Arrays.deepEquals(new Object[] { args.get(key) }, new Object[] { other.args.get(key) })) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Works out a state's next state on a worker thread, from a copy of the state's input. See {@link StateFragment#createNextStateResolver()}.
+	 */
+	public interface NextStateResolver {
+		/**
+		 * Called on a worker thread.
+		 * 
+		 * @return the {@link StateDefinition} for the next state, or null to stay on the state.
+		 */
+		StateDefinition resolve();
 	}
 
 	/**
 	 * Create a new instance of a Fragment with the given class name. This method should be used in place of the constructors as it ensures the
-	 * {@link AbstractWizardActivity} gets set.
+	 * {@link AbstractWizardActivity} gets set. If a {@link StateFactory} is registered for the class in the {@link StateRegistry} it's used to build the
+	 * instance; otherwise it's built by reflection.
 	 * 
 	 * @param wizardActivity
 	 *            The activity for this state.
@@ -51,7 +104,20 @@ public abstract class StateFragment extends Fragment {
 	 * @return a new StateFragment instance.
 	 */
 	static StateFragment create(AbstractWizardActivity wizardActivity, String name, Bundle extras) {
-		StateFragment state = (StateFragment) instantiate(wizardActivity, name, extras);
+		StateFragment state;
+
+		StateFactory factory = StateRegistry.getFactory(name);
+		if (factory != null) {
+			state = factory.newState();
+			if (extras != null) {
+				// the same thing Fragment.instantiate does
+				extras.setClassLoader(state.getClass().getClassLoader());
+				state.setArguments(extras);
+			}
+		} else {
+			state = (StateFragment) instantiate(wizardActivity, name, extras);
+		}
+
 		state.wizardActivity = wizardActivity;
 		return state;
 	}
@@ -116,11 +182,7 @@ public abstract class StateFragment extends Fragment {
 	 * @return The label to put on the next button. Returning null hides the button.
 	 */
 	public String getNextButtonLabel() {
-		if (isFinal()) {
-			return wizardActivity.getString(R.string.wizard_finish);
-		} else {
-			return wizardActivity.getString(R.string.wizard_next);
-		}
+		return wizardActivity.getDefaultNextButtonLabel(isFinal());
 	}
 
 	/**
@@ -131,6 +193,46 @@ public abstract class StateFragment extends Fragment {
 	 */
 	abstract public StateDefinition getNextState();
 
+	/**
+	 * <p>
+	 * Determines whether the next state is worked out on a background thread. A state which decides where to go from a database lookup or a rules evaluation
+	 * can turn this on so the transition doesn't stall the UI. When it's on, once the state has been validated {@link #createNextStateResolver()} is called and
+	 * the resolver it returns is run on a worker thread, with the progress dialog showing. When it returns a state {@link #onForward()} is called and the wizard
+	 * moves on; if it returns null, or the user cancels, the wizard stays put and {@link #onForward()} isn't called. If the state also validates in the
+	 * background the progress dialog stays up from the start of validation to the move.
+	 * </p>
+	 * <p>
+	 * Such a state is never prefetched. The default implementation returns false.
+	 * </p>
+	 * 
+	 * @return true to work out the next state in the background.
+	 */
+	public boolean shouldResolveNextStateInBackground() {
+		return false;
+	}
+
+	/**
+	 * <p>
+	 * Builds what works out the next state on a worker thread. See {@link #shouldResolveNextStateInBackground()}. It's called on the main thread, and the
+	 * resolver should take copies of whatever input it needs then: the resolver can outlive the state, since the work carries on across configuration changes,
+	 * so it mustn't hold on to the state or touch its views.
+	 * </p>
+	 * <p>
+	 * The default implementation calls {@link #getNextState()} straight away and returns a resolver which answers with that.
+	 * </p>
+	 * 
+	 * @return the resolver.
+	 */
+	public NextStateResolver createNextStateResolver() {
+		final StateDefinition next = getNextState();
+		return new NextStateResolver() {
+			@Override
+			public StateDefinition resolve() {
+				return next;
+			}
+		};
+	}
+
 	/**
 	 * <p>
 	 * Gets the label for the button. Override this method to make it appear.
@@ -159,6 +261,51 @@ public abstract class StateFragment extends Fragment {
 		return getBundleToSave();
 	}
 
+	/**
+	 * <p>
+	 * Tells the wizard the data in this state's {@link #getSavedInstanceState()} bundle has changed, so the next save must rebuild it. States which aren't on
+	 * screen are only saved again after this has been called; the wizard calls it itself when a state leaves the screen, so this is only needed when something
+	 * changes a state's data while it's off screen.
+	 * </p>
+	 * <p>
+	 * A state which returns true from {@link #isChangeTracked()} must call this whenever its data changes, on screen or not.
+	 * </p>
+	 */
+	protected void markDirty() {
+		changeCount++;
+	}
+
+	/**
+	 * <p>
+	 * Determines whether this state calls {@link #markDirty()} every time its saved data changes. If so its bundle is reused by every save until it does, even
+	 * while it's on screen, which is worthwhile if building the bundle is expensive. Otherwise the state on screen is always saved afresh, since the user may
+	 * have changed anything.
+	 * </p>
+	 * <p>
+	 * The default implementation returns false.
+	 * </p>
+	 * 
+	 * @return true if the state tracks its own changes.
+	 */
+	protected boolean isChangeTracked() {
+		return false;
+	}
+
+	/**
+	 * Gets the bundle to save this state with, calling {@link #getSavedInstanceState()} only if the state may have changed since it was last called.
+	 * 
+	 * @param onScreen
+	 *            True if the state is the one being shown.
+	 * @return the bundle, which can be null.
+	 */
+	Bundle captureSavedInstanceState(boolean onScreen) {
+		if (capturedChangeCount != changeCount || (onScreen && !isChangeTracked())) {
+			capturedState = getSavedInstanceState();
+			capturedChangeCount = changeCount;
+		}
+		return capturedState;
+	}
+
 	/**
 	 * <p>
 	 * Gets the title for this view. Override this method to place a title on a step.
@@ -175,6 +322,13 @@ public abstract class StateFragment extends Fragment {
 		return null;
 	}
 
+	/**
+	 * @return the values shared by the states of the wizard. See {@link Blackboard}.
+	 */
+	protected Blackboard getBlackboard() {
+		return wizardActivity.getBlackboard();
+	}
+
 	/**
 	 * @return the {@link AbstractWizardActivity} that was set in {@link #create(AbstractWizardActivity, String, Bundle)}.
 	 */
@@ -299,6 +453,54 @@ public abstract class StateFragment extends Fragment {
 		return null;
 	}
 
+	/**
+	 * <p>
+	 * Gets the longest time background validation of this state may take. When it runs out the task is cancelled, its thread interrupted and the wizard's
+	 * buttons restored, just as if the user had pressed Cancel on the progress dialog.
+	 * </p>
+	 * <p>
+	 * The default implementation returns 0, which means no limit.
+	 * </p>
+	 * 
+	 * @return the deadline in milliseconds, or 0 for none.
+	 */
+	public long getValidationTimeoutMillis() {
+		return 0;
+	}
+
+	/**
+	 * <p>
+	 * Gets a fingerprint of the input which {@link #getValidatorTask()} validates, such as the entered values joined together. If the activity keeps a
+	 * {@link ValidationCache} and this state recently passed background validation with the same fingerprint, the validation is skipped and the wizard moves
+	 * straight on. Two different inputs must never have the same fingerprint, and the validation's outcome must depend only on that input.
+	 * </p>
+	 * <p>
+	 * The default implementation returns null, which means the result is never reused.
+	 * </p>
+	 * 
+	 * @return the fingerprint, or null to always validate.
+	 */
+	public String getValidationFingerprint() {
+		return null;
+	}
+
+	/**
+	 * <p>
+	 * Called on the main thread with the result of this state's background validation, before the wizard moves on or, for a fail, before the buttons are
+	 * restored. A state which fails can show the result's {@link ValidationResult#getFieldErrors() field errors} and response here without asking the server
+	 * again. When a pass is reused from the {@link ValidationCache}, or from validation started before next was clicked, it's called with that pass. Not
+	 * called when validation is cancelled.
+	 * </p>
+	 * <p>
+	 * The default implementation does nothing.
+	 * </p>
+	 * 
+	 * @param result
+	 *            The result of the validation.
+	 */
+	public void onValidationResult(ValidationResult result) {
+	}
+
 	/**
 	 * <p>
 	 * Called to make sure a back click should be honored.
@@ -0,0 +1,208 @@
+package com.hps.wizard;
+
+import java.util.EmptyStackException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * <p>
+ * The history of states in a wizard, from the first state (index 0) to the current one (the top). It's a simple array-backed stack with no synchronization,
+ * since the history is only ever touched on the main thread, so {@link #peek()}, {@link #get(int)} and {@link #size()} are constant-time and lock-free.
+ * </p>
+ * <p>
+ * A history can optionally be bounded. Once a bounded history is full, pushing a new state drops the oldest one, so the user can no longer go back to it.
+ * </p>
+ *
+ * @param <S>
+ *            The type of the states.
+ */
+public final class StateHistory<S> implements Iterable<S> {
+	/** Used as the maximum depth when the history should never drop states. */
+	public static final int UNBOUNDED = 0;
+
+	private static final int INITIAL_CAPACITY = 8;
+
+	private final int maxDepth;
+	private Object[] elements;
+	/** The array index of the oldest state. */
+	private int head;
+	private int size;
+
+	/**
+	 * Creates an unbounded history.
+	 */
+	public StateHistory() {
+		this(UNBOUNDED);
+	}
+
+	/**
+	 * @param maxDepth
+	 *            The maximum number of states to keep, or {@link #UNBOUNDED}.
+	 */
+	public StateHistory(int maxDepth) {
+		if (maxDepth < 0) {
+			throw new IllegalArgumentException("max depth cannot be negative: " + maxDepth);
+		}
+		this.maxDepth = maxDepth;
+		elements = new Object[maxDepth == UNBOUNDED ? INITIAL_CAPACITY : Math.min(maxDepth, INITIAL_CAPACITY)];
+	}
+
+	/**
+	 * Adds the state to the top of the history.
+	 *
+	 * @param state
+	 *            The state to add.
+	 * @return the oldest state if it had to be dropped to stay within the maximum depth, null otherwise.
+	 */
+	public S push(S state) {
+		if (maxDepth != UNBOUNDED && size == maxDepth) {
+			S dropped = elementAt(head);
+			elements[head] = state;
+			head = (head + 1) % elements.length;
+			return dropped;
+		}
+
+		if (size == elements.length) {
+			grow();
+		}
+		elements[(head + size) % elements.length] = state;
+		size++;
+		return null;
+	}
+
+	/**
+	 * Removes the current state from the top of the history.
+	 *
+	 * @return the state that was removed.
+	 * @throws EmptyStackException
+	 *             if the history is empty.
+	 */
+	public S pop() {
+		if (size == 0) {
+			throw new EmptyStackException();
+		}
+		int index = (head + size - 1) % elements.length;
+		S state = elementAt(index);
+		elements[index] = null;
+		size--;
+		return state;
+	}
+
+	/**
+	 * @return the current state, which is the top of the history.
+	 * @throws EmptyStackException
+	 *             if the history is empty.
+	 */
+	public S peek() {
+		if (size == 0) {
+			throw new EmptyStackException();
+		}
+		return elementAt((head + size - 1) % elements.length);
+	}
+
+	/**
+	 * @param index
+	 *            The position in the history, where 0 is the oldest state still kept and size() - 1 is the current state.
+	 * @return the state at that position.
+	 */
+	public S get(int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("index " + index + ", size " + size);
+		}
+		return elementAt((head + index) % elements.length);
+	}
+
+	/**
+	 * @return the number of states in the history.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return true if there are no states in the history.
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * @return the maximum number of states kept, or {@link #UNBOUNDED}.
+	 */
+	public int getMaxDepth() {
+		return maxDepth;
+	}
+
+	/**
+	 * Removes every state from the history.
+	 */
+	public void clear() {
+		for (int i = 0; i < size; i++) {
+			elements[(head + i) % elements.length] = null;
+		}
+		head = 0;
+		size = 0;
+	}
+
+	/**
+	 * Iterates from the oldest state to the current one.
+	 */
+	@Override
+	public Iterator<S> iterator() {
+		return new Iterator<S>() {
+			private int next;
+
+			@Override
+			public boolean hasNext() {
+				return next < size;
+			}
+
+			@Override
+			public S next() {
+				if (next >= size) {
+					throw new NoSuchElementException();
+				}
+				return get(next++);
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException("states can only be removed with pop()");
+			}
+		};
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder("[");
+		for (int i = 0; i < size; i++) {
+			if (i > 0) {
+				builder.append(", ");
+			}
+			builder.append(get(i));
+		}
+		return builder.append(']').toString();
+	}
+
+	@SuppressWarnings("unchecked")
+	private S elementAt(int index) {
+		return (S) elements[index];
+	}
+
+	/**
+	 * Doubles the capacity (up to the maximum depth, if there is one), moving the oldest state to the start of the new array.
+	 */
+	private void grow() {
+		int capacity = elements.length * 2;
+		if (maxDepth != UNBOUNDED && capacity > maxDepth) {
+			capacity = maxDepth;
+		}
+
+		Object[] grown = new Object[capacity];
+		for (int i = 0; i < size; i++) {
+			grown[i] = elements[(head + i) % elements.length];
+		}
+		elements = grown;
+		head = 0;
+	}
+}
@@ -0,0 +1,149 @@
+package com.hps.wizard;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import android.support.v4.app.FragmentTransaction;
+
+import com.hps.wizard.StateFragment.StateDefinition;
+
+/**
+ * <p>
+ * A bounded, least-recently-used pool of {@link StateFragment}s which have left the screen but whose views are kept. Pooled fragments stay in the content
+ * container, hidden, so showing one again is a matter of un-hiding it rather than inflating its view from scratch.
+ * </p>
+ * <p>
+ * Fragments are keyed by their class and arguments. A state the user goes back to is found by instance; a state the user moves forward to again after backing
+ * out of it can be found by {@link #find(StateDefinition)}. When the pool is full the least recently used fragment is removed, which destroys its view.
+ * </p>
+ * <p>
+ * The pool counts hits (a state was shown straight from the pool) and misses (it had to be added and inflated) so its effectiveness can be monitored.
+ * </p>
+ */
+public final class StatePool {
+	private final int capacity;
+	/** The pooled fragments and the definitions they were created from, in access order. */
+	private final LinkedHashMap<StateFragment, StateDefinition> pooled = new LinkedHashMap<StateFragment, StateDefinition>(16, 0.75f, true);
+	private int hitCount, missCount, evictionCount;
+
+	/**
+	 * @param capacity
+	 *            The maximum number of fragments to keep. Must be at least 1.
+	 */
+	public StatePool(int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("capacity must be at least 1: " + capacity);
+		}
+		this.capacity = capacity;
+	}
+
+	/**
+	 * Hides a state which is leaving the screen and adds it to the pool, removing the least recently used fragments if the pool is over capacity.
+	 *
+	 * @param state
+	 *            The state leaving the screen. It must currently be added.
+	 * @param transaction
+	 *            The transaction which will hide the state and remove any evicted fragments.
+	 */
+	void release(StateFragment state, FragmentTransaction transaction) {
+		transaction.hide(state);
+		pooled.put(state, new StateDefinition(state.getClass(), state.getArguments()));
+
+		Iterator<StateFragment> eldest = pooled.keySet().iterator();
+		while (pooled.size() > capacity) {
+			StateFragment evicted = eldest.next();
+			eldest.remove();
+			transaction.remove(evicted);
+			evictionCount++;
+		}
+	}
+
+	/**
+	 * Takes a state which is about to be shown out of the pool.
+	 *
+	 * @param state
+	 *            The state to be shown.
+	 * @return true if it was pooled, and so can simply be shown. False if it has to be added.
+	 */
+	boolean take(StateFragment state) {
+		if (pooled.remove(state) != null) {
+			hitCount++;
+			return true;
+		}
+		missCount++;
+		return false;
+	}
+
+	/**
+	 * @return true if the given state is in the pool.
+	 */
+	boolean contains(StateFragment state) {
+		return pooled.containsKey(state);
+	}
+
+	/**
+	 * Finds a pooled fragment which was created from a definition equivalent to the given one. See {@link StateDefinition#isEquivalentTo(StateDefinition)}.
+	 *
+	 * @param definition
+	 *            The definition of the state about to be created.
+	 * @return the pooled fragment, or null if there isn't one. It stays in the pool until it's taken.
+	 */
+	StateFragment find(StateDefinition definition) {
+		for (Map.Entry<StateFragment, StateDefinition> entry : pooled.entrySet()) {
+			if (entry.getValue().isEquivalentTo(definition)) {
+				return entry.getKey();
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Removes every pooled fragment, destroying their views.
+	 *
+	 * @param transaction
+	 *            The transaction which will remove them.
+	 */
+	void clear(FragmentTransaction transaction) {
+		for (StateFragment state : pooled.keySet()) {
+			transaction.remove(state);
+		}
+		evictionCount += pooled.size();
+		pooled.clear();
+	}
+
+	/**
+	 * @return the number of fragments in the pool.
+	 */
+	public int size() {
+		return pooled.size();
+	}
+
+	/**
+	 * @return the maximum number of fragments kept.
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * @return the number of states shown straight from the pool.
+	 */
+	public int getHitCount() {
+		return hitCount;
+	}
+
+	/**
+	 * @return the number of states which had to be added because they weren't pooled.
+	 */
+	public int getMissCount() {
+		return missCount;
+	}
+
+	/**
+	 * @return the number of fragments removed from the pool, either to stay within capacity or to release memory.
+	 */
+	public int getEvictionCount() {
+		return evictionCount;
+	}
+}
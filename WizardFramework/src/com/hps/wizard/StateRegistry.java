@@ -0,0 +1,76 @@
+package com.hps.wizard;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>
+ * Maps state class names to the {@link StateFactory}s which build them and to the classes themselves. {@link StateFragment} creation and history restoration
+ * check here first, and only fall back to reflection for classes which haven't been registered.
+ * </p>
+ * <p>
+ * Registration is typically done once, when the application starts (for instance in Application.onCreate), either by hand or by generated code. Lookups are
+ * lock-free.
+ * </p>
+ */
+public final class StateRegistry {
+	private static final ConcurrentHashMap<String, Entry> ENTRIES = new ConcurrentHashMap<String, Entry>();
+
+	private static final class Entry {
+		final Class<? extends StateFragment> stateClass;
+		final StateFactory factory;
+
+		Entry(Class<? extends StateFragment> stateClass, StateFactory factory) {
+			this.stateClass = stateClass;
+			this.factory = factory;
+		}
+	}
+
+	private StateRegistry() {
+		// static methods only
+	}
+
+	/**
+	 * Registers the factory for a state class, replacing any earlier registration for the same class.
+	 * 
+	 * @param stateClass
+	 *            The class of the state. Cannot be null.
+	 * @param factory
+	 *            The factory which builds instances of exactly that class. Cannot be null.
+	 */
+	public static void register(Class<? extends StateFragment> stateClass, StateFactory factory) {
+		if (stateClass == null || factory == null) {
+			throw new IllegalArgumentException("state class and factory cannot be null");
+		}
+		ENTRIES.put(stateClass.getName(), new Entry(stateClass, factory));
+	}
+
+	/**
+	 * Removes the registration for a state class, if there is one.
+	 * 
+	 * @param stateClass
+	 *            The class of the state.
+	 */
+	public static void unregister(Class<? extends StateFragment> stateClass) {
+		ENTRIES.remove(stateClass.getName());
+	}
+
+	/**
+	 * @param className
+	 *            The fully qualified name of the state class.
+	 * @return the factory registered for it, or null if there isn't one.
+	 */
+	public static StateFactory getFactory(String className) {
+		Entry entry = ENTRIES.get(className);
+		return entry == null ? null : entry.factory;
+	}
+
+	/**
+	 * @param className
+	 *            The fully qualified name of the state class.
+	 * @return the registered class with that name, or null if there isn't one.
+	 */
+	public static Class<? extends StateFragment> getStateClass(String className) {
+		Entry entry = ENTRIES.get(className);
+		return entry == null ? null : entry.stateClass;
+	}
+}
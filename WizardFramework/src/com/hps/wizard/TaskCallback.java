@@ -1,32 +1,32 @@
 package com.hps.wizard;
 
-import android.os.AsyncTask;
-
 /**
  * Callback interface through which the {@link TaskFragment} will report the task's progress and results back to the {@link AbstractWizardActivity}.
  */
 public interface TaskCallback {
 	/**
-	 * Callback method for use in {@link AsyncTask#onPreExecute}. It runs before the task is executed and updates the UI to prepare for the background
+	 * Callback method for use in {@link ValidationAsyncTask#onPreExecute}. It runs before the task is executed and updates the UI to prepare for the background
 	 * activities.
 	 */
 	void onPreExecute();
 
 	/**
-	 * Callback method for use in {@link AsyncTask#onProgressUpdate}. It runs when the background task calls publishProgress(String) and updates the UI to
-	 * reflect the new progress.
+	 * Callback method for use in {@link ValidationAsyncTask#onProgressUpdate}. It runs when the background task calls publishProgress and updates the UI to
+	 * reflect the new progress. It's called at most once a frame, and the progress object is reused, so copy out anything which needs to be kept.
 	 */
-	void onProgressUpdate(String... progress);
+	void onProgressUpdate(ValidationProgress progress);
 
 	/**
-	 * Callback method for use in {@link AsyncTask#onCancelled}. It runs when the background task is cancelled.
+	 * Callback method for use in {@link ValidationAsyncTask#onCancelled}. It runs when the background task is cancelled.
 	 */
 	void onCancelled();
 
 	/**
-	 * Callback method for use in {@link AsyncTask#onPostExecute}. It runs after execution and reports whether the validation passed or failed.
+	 * Callback method for use in {@link ValidationAsyncTask#onPostExecute}. It runs after execution and reports whether the validation passed or failed, and
+	 * why.
 	 * 
 	 * @param result
+	 *            The result, never null.
 	 */
-	void onPostExecute(Boolean result);
+	void onPostExecute(ValidationResult result);
 }
\ No newline at end of file
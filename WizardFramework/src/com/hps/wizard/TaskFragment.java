@@ -1,16 +1,135 @@
 package com.hps.wizard;
 
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Executor;
+
 import android.app.Activity;
 import android.os.Bundle;
+import android.os.Handler;
 import android.support.v4.app.Fragment;
+import android.util.Log;
 
 /**
- * This Fragment manages a single background task and retains itself across configuration changes.
+ * <p>
+ * This Fragment manages the wizard's background jobs and retains itself across configuration changes.
+ * </p>
+ * <p>
+ * Each job has a name and a {@link JobPriority}. A job whose name is already queued or running isn't started again. Validation, which the user is waiting on,
+ * starts right away and cancels any prefetch work. Other jobs run a few at a time, most urgent first, and prefetch work waits while validation runs. Only the
+ * validation job reports to the activity; any other job handles its own result in its task's {@link ValidationAsyncTask#onPostExecute(ValidationResult)}.
+ * </p>
  */
 public class TaskFragment extends Fragment {
+	private static final String TAG = "TaskFragment";
+
+	/** The name of the validation job. There's only ever one. */
+	static final String VALIDATION_JOB = "validation";
+
+	/** The most jobs which run at once. Validation is started even when this many are running. */
+	private static final int MAX_RUNNING_JOBS = 2;
+
+	/**
+	 * How urgent a background job is. Queued jobs start in this order.
+	 */
+	public enum JobPriority {
+		/** Validation of the current state, which the user is waiting on. Started by the wizard itself. */
+		VALIDATION,
+		/** Sending the wizard's results somewhere. */
+		SUBMISSION,
+		/** Loading data a coming state needs. */
+		LOADING,
+		/** Work done ahead of time in case it's needed. It's cancelled when validation starts, and held back while validation runs. */
+		PREFETCH
+	}
+
+	/** Stands in for the activity for jobs other than validation, so their default callbacks don't drive the progress dialog. */
+	private static final TaskCallback SILENT = new TaskCallback() {
+		@Override
+		public void onPreExecute() {
+		}
+
+		@Override
+		public void onProgressUpdate(ValidationProgress progress) {
+		}
+
+		@Override
+		public void onCancelled() {
+		}
+
+		@Override
+		public void onPostExecute(ValidationResult result) {
+		}
+	};
+
+	private static final Comparator<Job> MOST_URGENT_FIRST = new Comparator<Job>() {
+		@Override
+		public int compare(Job lhs, Job rhs) {
+			int byPriority = lhs.priority.compareTo(rhs.priority);
+			if (byPriority != 0) {
+				return byPriority;
+			}
+			return lhs.sequence < rhs.sequence ? -1 : (lhs.sequence == rhs.sequence ? 0 : 1);
+		}
+	};
 
 	private TaskCallback callback;
-	private ValidationAsyncTask task;
+
+	/** Every job which is queued or running, by name. */
+	private final Map<String, Job> jobs = new HashMap<String, Job>();
+	/** The jobs waiting for a free slot. */
+	private final PriorityQueue<Job> queue = new PriorityQueue<Job>(8, MOST_URGENT_FIRST);
+	/** The jobs which have been started and haven't finished. */
+	private final List<Job> running = new ArrayList<Job>(MAX_RUNNING_JOBS + 1);
+	/** Orders jobs of the same priority. */
+	private long nextSequence;
+
+	/** Kept here, rather than in the activity, so it survives configuration changes. Null unless the activity caches validation. */
+	private ValidationCache validationCache;
+	/** Kept here for the same reason. */
+	private final ValidationTimings validationTimings = new ValidationTimings();
+	/** Kept here for the same reason. */
+	private final Blackboard blackboard = new Blackboard();
+	/** Kept here for the same reason. */
+	private final WizardMetrics wizardMetrics = new WizardMetrics();
+	/** True if the validation job is working out the next state rather than validating. */
+	private boolean resolvingNextState;
+	/** The state class and input fingerprint of the running validation, recorded in the cache if it passes. */
+	private Class<? extends StateFragment> validatedClass;
+	private String validatedFingerprint;
+
+	private final Handler handler = new Handler();
+
+	/**
+	 * A named task, waiting or running. As a Runnable it cancels the task when its deadline passes.
+	 */
+	private class Job implements Runnable {
+		final String name;
+		final JobPriority priority;
+		final ValidationAsyncTask task;
+		final Executor executor;
+		final long timeoutMillis;
+		final long sequence = nextSequence++;
+
+		Job(String name, JobPriority priority, ValidationAsyncTask task, Executor executor, long timeoutMillis) {
+			this.name = name;
+			this.priority = priority;
+			this.task = task;
+			this.executor = executor;
+			this.timeoutMillis = timeoutMillis;
+		}
+
+		@Override
+		public void run() {
+			if (task.cancel(true)) {
+				Log.w(TAG, name + " timed out, cancelled " + task.getClass().getName());
+			}
+		}
+	}
 
 	/**
 	 * Hold a reference to the parent Activity so we can report the task's current progress and results. The Android framework will pass us a reference to the
@@ -20,6 +139,11 @@ public class TaskFragment extends Fragment {
 	public void onAttach(Activity activity) {
 		super.onAttach(activity);
 		callback = (TaskCallback) activity;
+		Job validation = jobs.get(VALIDATION_JOB);
+		if (validation != null) {
+			// a validation still running from before the configuration change reports to the new activity
+			validation.task.setCallback(callback);
+		}
 	}
 
 	/**
@@ -34,16 +158,254 @@ public class TaskFragment extends Fragment {
 	}
 
 	/**
-	 * Executes the given {@link ValidationAsyncTask}.
+	 * Executes the given {@link ValidationAsyncTask} as the validation job. Nothing happens if a validation is already queued or running.
 	 * 
 	 * @param validationTask
 	 *            The task to execute.
+	 * @param executor
+	 *            The executor to run it on.
+	 * @param stateClass
+	 *            The class of the state being validated.
+	 * @param fingerprint
+	 *            The fingerprint of the state's input, or null if the result shouldn't be cached.
+	 * @param timeoutMillis
+	 *            How long to let the task run before cancelling it, or 0 for no limit.
+	 * @return true if the task was started.
+	 */
+	boolean execute(ValidationAsyncTask validationTask, Executor executor, Class<? extends StateFragment> stateClass, String fingerprint, long timeoutMillis) {
+		if (jobs.containsKey(VALIDATION_JOB)) {
+			Log.w(TAG, "already validating, ignoring " + validationTask.getClass().getName());
+			return false;
+		}
+		validatedClass = stateClass;
+		validatedFingerprint = fingerprint;
+		submit(new Job(VALIDATION_JOB, JobPriority.VALIDATION, validationTask, executor, timeoutMillis));
+		return true;
+	}
+
+	/**
+	 * Executes a task which works out the next state as the validation job, since the user is waiting on it just the same. Its result's
+	 * {@link ValidationResult#getResponse() response} is the next state's definition. Nothing happens if a validation is already queued or running.
+	 * 
+	 * @param resolveTask
+	 *            The task to execute.
+	 * @param executor
+	 *            The executor to run it on.
+	 * @return true if the task was started.
+	 */
+	boolean resolveNextState(ValidationAsyncTask resolveTask, Executor executor) {
+		if (!execute(resolveTask, executor, null, null, 0)) {
+			return false;
+		}
+		resolvingNextState = true;
+		return true;
+	}
+
+	/**
+	 * @return true if the validation job running, or which has just finished, is working out the next state.
+	 */
+	boolean isResolvingNextState() {
+		return resolvingNextState;
+	}
+
+	/**
+	 * Takes over a {@link ValidationAsyncTask} which is already running, such as a speculative validation the user has started waiting on, as the validation
+	 * job. From here on it reports to this fragment's callback and is subject to the deadline. The parameters are as for
+	 * {@link #execute(ValidationAsyncTask, Executor, Class, String, long)}.
+	 */
+	void adopt(ValidationAsyncTask validationTask, Class<? extends StateFragment> stateClass, String fingerprint, long timeoutMillis) {
+		Job previous = jobs.get(VALIDATION_JOB);
+		if (previous != null) {
+			Log.w(TAG, "replacing validation " + previous.task.getClass().getName());
+			previous.task.cancel(true);
+			remove(previous);
+		}
+		validatedClass = stateClass;
+		validatedFingerprint = fingerprint;
+
+		Job job = new Job(VALIDATION_JOB, JobPriority.VALIDATION, validationTask, null, timeoutMillis);
+		jobs.put(job.name, job);
+		cancelPrefetching();
+		begin(job);
+	}
+
+	/**
+	 * Queues a background job other than validation.
+	 * 
+	 * @param name
+	 *            Identifies the job. A job with the same name which is queued or running isn't submitted again.
+	 * @param priority
+	 *            How urgent the job is. Can't be {@link JobPriority#VALIDATION}.
+	 * @param task
+	 *            The work to do. It isn't told about the activity, so it should handle its own result.
+	 * @param executor
+	 *            The executor to run it on.
+	 * @return false if a job with the same name is already queued or running, in which case the task is never executed.
+	 */
+	boolean submit(String name, JobPriority priority, ValidationAsyncTask task, Executor executor) {
+		if (priority == JobPriority.VALIDATION || VALIDATION_JOB.equals(name)) {
+			throw new IllegalArgumentException("validation jobs are started by the wizard");
+		}
+		if (jobs.containsKey(name)) {
+			return false;
+		}
+		submit(new Job(name, priority, task, executor, 0));
+		return true;
+	}
+
+	private void submit(Job job) {
+		jobs.put(job.name, job);
+		if (job.priority == JobPriority.VALIDATION) {
+			cancelPrefetching();
+			start(job);
+		} else {
+			queue.add(job);
+			startQueued();
+		}
+	}
+
+	/**
+	 * Cancels the validation job, interrupting its thread. The callback's onCancelled is called right away.
+	 * 
+	 * @return true if there was a validation to cancel.
 	 */
-	void execute(ValidationAsyncTask validationTask) {
-		this.task = validationTask;
-		task.setCallback(callback);
-		Object noParameters = null;
-		task.execute(noParameters);
+	boolean cancel() {
+		return cancel(VALIDATION_JOB);
+	}
+
+	/**
+	 * Cancels a job. One which is running is interrupted and its onCancelled called right away, and one which is queued is dropped without being started.
+	 * 
+	 * @param name
+	 *            The name the job was submitted with.
+	 * @return true if there was such a job.
+	 */
+	boolean cancel(String name) {
+		Job job = jobs.get(name);
+		if (job == null) {
+			return false;
+		}
+		job.task.cancel(true);
+		remove(job);
+		startQueued();
+		return true;
+	}
+
+	/**
+	 * @return true if a job with the given name is queued or running.
+	 */
+	boolean isInFlight(String name) {
+		return jobs.containsKey(name);
+	}
+
+	/**
+	 * Cancels the running prefetch jobs to make way for validation. They're dropped rather than requeued, since whoever asked for them will ask again if
+	 * they're still wanted.
+	 */
+	private void cancelPrefetching() {
+		for (int i = running.size() - 1; i >= 0; i--) {
+			Job job = running.get(i);
+			if (job.priority == JobPriority.PREFETCH) {
+				Log.i(TAG, "validation preempts " + job.name);
+				job.task.cancel(true);
+				remove(job);
+			}
+		}
+	}
+
+	/**
+	 * Starts queued jobs, most urgent first, while there are free slots. Prefetch jobs wait until no validation is running.
+	 */
+	private void startQueued() {
+		while (running.size() < MAX_RUNNING_JOBS && !queue.isEmpty()) {
+			if (queue.peek().priority == JobPriority.PREFETCH && jobs.containsKey(VALIDATION_JOB)) {
+				return;
+			}
+			start(queue.poll());
+		}
+	}
+
+	private void start(Job job) {
+		begin(job);
+		job.task.executeOnExecutor(job.executor);
+	}
+
+	/**
+	 * Marks the job as running, points its callbacks at the right place and schedules its deadline.
+	 */
+	private void begin(final Job job) {
+		running.add(job);
+		job.task.setCallback(job.priority == JobPriority.VALIDATION ? callback : SILENT);
+		job.task.setFinishedListener(new Runnable() {
+			@Override
+			public void run() {
+				remove(job);
+				startQueued();
+			}
+		});
+		if (job.timeoutMillis > 0) {
+			handler.postDelayed(job, job.timeoutMillis);
+		}
+	}
+
+	/**
+	 * Forgets the job, whether it's queued or running. Does nothing if it's already been forgotten.
+	 */
+	private void remove(Job job) {
+		handler.removeCallbacks(job);
+		queue.remove(job);
+		running.remove(job);
+		if (jobs.get(job.name) == job) {
+			jobs.remove(job.name);
+		}
+	}
+
+	/**
+	 * Forgets the validation job, so another can be started straight away, and for a validation records its timings and remembers a pass if there's a cache
+	 * and the state gave a fingerprint.
+	 * 
+	 * @param result
+	 *            The result of the validation, or null if it was cancelled.
+	 */
+	void onValidationFinished(ValidationResult result) {
+		Job job = jobs.get(VALIDATION_JOB);
+		if (job != null) {
+			remove(job);
+		}
+		boolean resolved = resolvingNextState;
+		resolvingNextState = false;
+		if (resolved) {
+			return;
+		}
+
+		if (result != null) {
+			validationTimings.record(result);
+		}
+		if (result != null && result.isPassed() && validationCache != null && validatedFingerprint != null) {
+			validationCache.putPassed(validatedClass, validatedFingerprint, result);
+		}
+		validatedClass = null;
+		validatedFingerprint = null;
+	}
+
+	ValidationTimings getValidationTimings() {
+		return validationTimings;
+	}
+
+	WizardMetrics getWizardMetrics() {
+		return wizardMetrics;
+	}
+
+	Blackboard getBlackboard() {
+		return blackboard;
+	}
+
+	ValidationCache getValidationCache() {
+		return validationCache;
+	}
+
+	void setValidationCache(ValidationCache validationCache) {
+		this.validationCache = validationCache;
 	}
 
 	/**
@@ -54,4 +416,17 @@ public class TaskFragment extends Fragment {
 		super.onDetach();
 		callback = null;
 	}
-}
\ No newline at end of file
+
+	/**
+	 * The activity is finishing for good, so nothing is left to report to. Cancel every job, quietly.
+	 */
+	@Override
+	public void onDestroy() {
+		super.onDestroy();
+		for (Job job : new ArrayList<Job>(jobs.values())) {
+			job.task.setCallback(SILENT);
+			job.task.cancel(true);
+			remove(job);
+		}
+	}
+}
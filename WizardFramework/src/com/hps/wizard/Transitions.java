@@ -0,0 +1,34 @@
+package com.hps.wizard;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * <p>
+ * Declares the states a {@link StateFragment} can move forward to, that is every class its {@link StateFragment#getNextState()} may return. A final state
+ * declares an empty list.
+ * </p>
+ *
+ * <pre>
+ * &#064;Transitions({ MuppetShow.class, SesameStreet.class })
+ * public class AreYouSure extends StateFragment {
+ * 	...
+ * }
+ * </pre>
+ * <p>
+ * The annotation is only read at compile time. When the WizardProcessor annotation processor is on the build path it writes a {@link WizardGraph} subclass
+ * for each package of annotated states, which the wizard loads with {@link WizardGraph#forState(Class)}. Without the processor the annotation has no effect.
+ * </p>
+ */
+@Documented
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.TYPE)
+public @interface Transitions {
+	/**
+	 * @return the classes of the states which can follow the annotated one.
+	 */
+	Class<? extends StateFragment>[] value();
+}
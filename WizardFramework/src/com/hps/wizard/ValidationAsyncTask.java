@@ -1,6 +1,17 @@
 package com.hps.wizard;
 
-import android.os.AsyncTask;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
 
 /**
  * <p>
@@ -8,19 +19,27 @@ import android.os.AsyncTask;
  * which must be set by {@link #setCallback(TaskCallback)} to avoid null pointer exceptions.
  * </p>
  * <p>
+ * It works like an AsyncTask, but runs on the {@link Executor} it's given rather than on AsyncTask's serial executor, which is shared by the whole process, so
+ * validation never waits behind unrelated work. {@link #doValidation()} runs on the executor and every callback is delivered on the main thread. By
+ * default {@link AbstractWizardActivity} uses {@link #DEFAULT_EXECUTOR}; see {@link AbstractWizardActivity#getValidationExecutor()}.
+ * </p>
+ * <p>
+ * {@link #doValidation()} returns a {@link ValidationResult}: a plain pass or fail, or one with field errors and the server's response. The result is handed
+ * to the state, with the time the task waited and ran filled in. Tasks written against the AsyncTask based version, which override
+ * <code>doInBackground</code>, can extend {@link LegacyValidationTask} instead.
+ * </p>
+ * <p>
  * <h2>Usage</h2>
  * 
  * <pre>
  * public class BackgroundValidation extends StateFragment {
  * 	private class BackgroundTask extends ValidationAsyncTask {
  * 		&#064;Override
- * 		protected Boolean doInBackground(Object... params) {
- * 			// params will always be null
- * 
+ * 		protected ValidationResult doValidation() {
  * 			// do anything you'd normally do in an AsyncTask, including calls to
- * 			publishProgress(&quot;progress string&quot;);
+ * 			publishProgress(percentDone, R.string.checking_card);
  * 
- * 			return trueIfValidated;
+ * 			return ValidationResult.of(trueIfValidated);
  * 		}
  * 	}
  * 
@@ -44,13 +63,87 @@ import android.os.AsyncTask;
  * }
  * </pre>
  */
-public abstract class ValidationAsyncTask extends AsyncTask<Object, String, Boolean> {
+public abstract class ValidationAsyncTask {
+	private static final int POOL_SIZE = Math.max(2, Math.min(Runtime.getRuntime().availableProcessors() - 1, 4));
+	private static final int QUEUE_SIZE = 128;
+
+	/**
+	 * A bounded pool of background-priority threads which is only used for validation. From Gingerbread on, idle threads are let go after 30 seconds.
+	 */
+	public static final Executor DEFAULT_EXECUTOR;
+
+	static {
+		ThreadFactory threadFactory = new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(final Runnable runnable) {
+				return new Thread(new Runnable() {
+					@Override
+					public void run() {
+						Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+						runnable.run();
+					}
+				}, "WizardValidation #" + count.incrementAndGet());
+			}
+		};
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(POOL_SIZE, POOL_SIZE, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(QUEUE_SIZE),
+				threadFactory);
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.GINGERBREAD) {
+			// not there before Gingerbread, where the threads just stay around
+			executor.allowCoreThreadTimeOut(true);
+		}
+		DEFAULT_EXECUTOR = executor;
+	}
+
+	private static final Handler MAIN_HANDLER = new Handler(Looper.getMainLooper());
+
+	/** Progress is delivered to the main thread at most once in this many milliseconds, which is one frame at 60fps. */
+	private static final long FRAME_MILLIS = 16;
 
 	/**
 	 * The callback to push events to. This must be set via {@link #setCallback(TaskCallback)} to avoid null pointer exceptions.
 	 */
 	private TaskCallback callback;
 
+	private volatile boolean started;
+	/** The executor the task was started on, or null before then. Set before {@link #doValidation()} is handed to it. */
+	private Executor executor;
+	private volatile boolean cancelled;
+	/** True once onPostExecute or onCancelled has been called. Only touched on the main thread. */
+	private boolean finished;
+	/** The thread running {@link #doValidation()}, or null when it isn't running. Guarded by this. */
+	private Thread worker;
+	/** The composite this task is part of, which takes its progress, or null if it's run on its own. */
+	private CompositeValidationTask composite;
+	/** Run on the main thread after onPostExecute or onCancelled, or null. */
+	private Runnable finishedListener;
+
+	/** The latest progress, waiting to be delivered. Guarded by itself. */
+	private final ValidationProgress pendingProgress = new ValidationProgress();
+	/** True while a delivery of {@link #pendingProgress} is scheduled. Guarded by pendingProgress. */
+	private boolean progressScheduled;
+	/** The progress handed to {@link #onProgressUpdate(ValidationProgress)}. Only touched on the main thread. */
+	private final ValidationProgress deliveredProgress = new ValidationProgress();
+	/** When progress was last delivered, in {@link SystemClock#uptimeMillis()} time. */
+	private volatile long lastProgressDelivery;
+	/** The attempt in progress and the most there will be, published along with the progress. Guarded by pendingProgress. */
+	private int attempt = 1, maxAttempts = 1;
+
+	private final Runnable deliverProgress = new Runnable() {
+		@Override
+		public void run() {
+			synchronized (pendingProgress) {
+				deliveredProgress.copyFrom(pendingProgress);
+				progressScheduled = false;
+			}
+			if (!cancelled && !finished) {
+				lastProgressDelivery = SystemClock.uptimeMillis();
+				onProgressUpdate(deliveredProgress);
+			}
+		}
+	};
+
 	/**
 	 * Set the callback which will receive task events.
 	 * 
@@ -61,22 +154,258 @@ public abstract class ValidationAsyncTask extends AsyncTask<Object, String, Bool
 		this.callback = callback;
 	}
 
-	@Override
-	protected void onPostExecute(Boolean result) {
+	/**
+	 * Set what to run on the main thread once the task has finished, after {@link #onPostExecute(ValidationResult)} or {@link #onCancelled()}, even if those are
+	 * overridden. Used by {@link TaskFragment} to keep track of its jobs.
+	 */
+	void setFinishedListener(Runnable finishedListener) {
+		this.finishedListener = finishedListener;
+	}
+
+	/**
+	 * Runs the validation. This is called on one of the executor's threads.
+	 * 
+	 * @return the result, which mustn't be null.
+	 */
+	protected abstract ValidationResult doValidation();
+
+	/**
+	 * Starts the task. {@link #onPreExecute()} is called right away, then {@link #doValidation()} is handed to the executor. Must be called on the
+	 * main thread, and only once per task.
+	 * 
+	 * @param executor
+	 *            The executor to run the validation on.
+	 * @return this task.
+	 */
+	public final ValidationAsyncTask executeOnExecutor(Executor executor) {
+		if (started) {
+			throw new IllegalStateException("a task can only be executed once");
+		}
+		started = true;
+		this.executor = executor;
+
+		onPreExecute();
+
+		final long queuedAt = System.nanoTime();
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				ValidationResult result = null;
+				if (!cancelled) {
+					try {
+						result = runInBackground(queuedAt);
+					} catch (final RuntimeException e) {
+						if (cancelled) {
+							// most likely the interrupt from cancel() surfacing as an exception, which AsyncTask swallowed too
+							postResult(null);
+							return;
+						}
+						// fail on the main thread, just as AsyncTask would have taken the process down
+						MAIN_HANDLER.post(new Runnable() {
+							@Override
+							public void run() {
+								throw new RuntimeException("An error occurred while validating in the background", e);
+							}
+						});
+						return;
+					}
+				}
+				postResult(result);
+			}
+		});
+		return this;
+	}
+
+	/**
+	 * Runs {@link #doValidation()} on the calling thread, where {@link #cancel(boolean)} can interrupt it, and times it.
+	 * 
+	 * @param queuedAt
+	 *            When the task was handed to the executor, in {@link System#nanoTime()} time.
+	 */
+	ValidationResult runInBackground(long queuedAt) {
+		synchronized (this) {
+			worker = Thread.currentThread();
+		}
+		long startedAt = System.nanoTime();
+		try {
+			ValidationResult result = doValidation();
+			if (result == null) {
+				throw new NullPointerException(getClass().getName() + ".doValidation returned null");
+			}
+			result.setTiming(startedAt - queuedAt, System.nanoTime() - startedAt);
+			return result;
+		} finally {
+			synchronized (this) {
+				worker = null;
+			}
+			// don't let an interrupt meant for this task leak into whatever the thread runs next
+			Thread.interrupted();
+		}
+	}
+
+	/**
+	 * @return the executor the task was started on, or null if it hasn't been.
+	 */
+	Executor getExecutor() {
+		return executor;
+	}
+
+	/**
+	 * Makes this task part of a composite, which runs it and takes its progress. It can't be executed on its own after that.
+	 */
+	void joinComposite(CompositeValidationTask composite) {
+		if (started) {
+			throw new IllegalStateException("a task which has been executed can't be part of a composite");
+		}
+		started = true;
+		this.composite = composite;
+	}
+
+	private void postResult(final ValidationResult result) {
+		MAIN_HANDLER.post(new Runnable() {
+			@Override
+			public void run() {
+				if (finished) {
+					return;
+				}
+				finished = true;
+				try {
+					if (cancelled) {
+						onCancelled();
+					} else {
+						onPostExecute(result);
+					}
+				} finally {
+					if (finishedListener != null) {
+						finishedListener.run();
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * Reports progress. It's passed to {@link #onProgressUpdate(ValidationProgress)} on the main thread, coalesced with any other progress published in the
+	 * same frame so only the latest is delivered. Nothing is allocated per call. Progress published after the task is cancelled is dropped. A task which is
+	 * part of a {@link CompositeValidationTask} sends its progress to the composite instead.
+	 * 
+	 * @param percent
+	 *            How far along the validation is, from 0 to 100, or {@link ValidationProgress#UNKNOWN_PERCENT}.
+	 * @param messageResId
+	 *            A string resource describing what the validation is doing, or 0 for none.
+	 * @param payload
+	 *            Anything else the activity should know, or null.
+	 */
+	protected final void publishProgress(int percent, int messageResId, Object payload) {
+		publish(percent, messageResId, null, payload);
+	}
+
+	/**
+	 * Reports progress with no payload. See {@link #publishProgress(int, int, Object)}.
+	 */
+	protected final void publishProgress(int percent, int messageResId) {
+		publish(percent, messageResId, null, null);
+	}
+
+	/**
+	 * Reports progress as text, as tasks written against AsyncTask do. The first value becomes the {@link ValidationProgress#getMessage() message}, and the
+	 * update is coalesced like any other. See {@link #publishProgress(int, int, Object)}.
+	 * 
+	 * @param values
+	 *            The progress to report.
+	 */
+	protected final void publishProgress(String... values) {
+		publish(ValidationProgress.UNKNOWN_PERCENT, 0, values != null && values.length > 0 ? values[0] : null, null);
+	}
+
+	/**
+	 * Sets the attempt reported with any progress published from now on. Used by {@link RetryingValidationTask}.
+	 */
+	void setAttempt(int attempt, int maxAttempts) {
+		synchronized (pendingProgress) {
+			this.attempt = attempt;
+			this.maxAttempts = maxAttempts;
+		}
+	}
+
+	/**
+	 * Used by {@link CompositeValidationTask} to publish its merged progress, which can have both a resource and text.
+	 */
+	void publishMerged(int percent, int messageResId, String message, Object payload) {
+		publish(percent, messageResId, message, payload);
+	}
+
+	private void publish(int percent, int messageResId, String message, Object payload) {
+		if (cancelled) {
+			return;
+		}
+		if (composite != null) {
+			composite.onPartProgress(this, percent, messageResId, message, payload);
+			return;
+		}
+
+		boolean schedule;
+		synchronized (pendingProgress) {
+			pendingProgress.set(percent, messageResId, message, payload);
+			pendingProgress.setAttempt(attempt, maxAttempts);
+			schedule = !progressScheduled;
+			progressScheduled = true;
+		}
+		if (schedule) {
+			long wait = lastProgressDelivery + FRAME_MILLIS - SystemClock.uptimeMillis();
+			MAIN_HANDLER.postDelayed(deliverProgress, Math.max(0, wait));
+		}
+	}
+
+	/**
+	 * Cancels the task. {@link #onCancelled()} will be called on the main thread instead of {@link #onPostExecute(ValidationResult)}. If the task has been
+	 * started that happens straight away, without waiting for {@link #doValidation()} to return, so a validation which hangs can't hold up the wizard.
+	 * Whatever it eventually returns is ignored. Long-running work should check {@link #isCancelled()} or respond to the interrupt.
+	 * 
+	 * @param mayInterruptIfRunning
+	 *            True to interrupt the thread running the validation.
+	 * @return false if the task was already cancelled.
+	 */
+	public final boolean cancel(boolean mayInterruptIfRunning) {
+		if (cancelled) {
+			return false;
+		}
+		cancelled = true;
+		if (mayInterruptIfRunning) {
+			synchronized (this) {
+				if (worker != null) {
+					worker.interrupt();
+				}
+			}
+		}
+		if (started && composite == null) {
+			postResult(null);
+		}
+		return true;
+	}
+
+	/**
+	 * @return true if {@link #cancel(boolean)} has been called.
+	 */
+	public final boolean isCancelled() {
+		return cancelled;
+	}
+
+	protected void onPostExecute(ValidationResult result) {
 		callback.onPostExecute(result);
 	}
 
-	@Override
-	protected void onProgressUpdate(String... values) {
-		callback.onProgressUpdate(values);
+	/**
+	 * Called on the main thread with the latest progress. The object is reused, so it mustn't be kept.
+	 */
+	protected void onProgressUpdate(ValidationProgress progress) {
+		callback.onProgressUpdate(progress);
 	}
 
-	@Override
 	protected void onCancelled() {
 		callback.onCancelled();
 	}
 
-	@Override
 	protected void onPreExecute() {
 		callback.onPreExecute();
 	}
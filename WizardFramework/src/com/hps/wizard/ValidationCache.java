@@ -0,0 +1,166 @@
+package com.hps.wizard;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import android.os.SystemClock;
+
+/**
+ * <p>
+ * Remembers which states recently passed background validation, and with what input, so that going back and then forward again without changing anything
+ * doesn't run the same validation again. A state takes part by returning a fingerprint of its input from {@link StateFragment#getValidationFingerprint()};
+ * only passes are remembered, and only for the time-to-live the cache was created with. See {@link AbstractWizardActivity#getValidationCacheTtlMillis()}. The
+ * passing {@link ValidationResult} is kept, so a hit can hand the state the same response the validation gave.
+ * </p>
+ * <p>
+ * Entries can be dropped early with {@link #invalidate(Class)} or {@link #invalidateAll()}, for instance when something the validation depends on changes
+ * outside of the state's input. At most {@value #MAX_ENTRIES} entries are kept, least recently used first out.
+ * </p>
+ * <p>
+ * The cache counts hits and misses so its effectiveness can be monitored. It's only used on the main thread.
+ * </p>
+ */
+public final class ValidationCache {
+	/** The maximum number of entries kept. */
+	public static final int MAX_ENTRIES = 32;
+
+	private final long ttlMillis;
+	/** The remembered passes, keyed by state class name and fingerprint. */
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+			return size() > MAX_ENTRIES;
+		}
+	};
+	private int hitCount, missCount;
+
+	/**
+	 * A remembered pass and when it expires, in {@link SystemClock#elapsedRealtime()} time.
+	 */
+	private static final class Entry {
+		final ValidationResult result;
+		final long expiry;
+
+		Entry(ValidationResult result, long expiry) {
+			this.result = result;
+			this.expiry = expiry;
+		}
+	}
+
+	/**
+	 * @param ttlMillis
+	 *            How long a pass is remembered, in milliseconds. Must be positive.
+	 */
+	public ValidationCache(long ttlMillis) {
+		if (ttlMillis <= 0) {
+			throw new IllegalArgumentException("time-to-live must be positive: " + ttlMillis);
+		}
+		this.ttlMillis = ttlMillis;
+	}
+
+	private static String key(Class<?> stateClass, String fingerprint) {
+		return stateClass.getName() + '\n' + fingerprint;
+	}
+
+	/**
+	 * Looks for a recent pass, counting a hit or a miss.
+	 * 
+	 * @param stateClass
+	 *            The class of the state being validated.
+	 * @param fingerprint
+	 *            The fingerprint of its current input.
+	 * @return the result the state passed validation with, given the same input within the time-to-live, or null if there isn't one.
+	 */
+	public ValidationResult getPassed(Class<?> stateClass, String fingerprint) {
+		String key = key(stateClass, fingerprint);
+		Entry entry = entries.get(key);
+		if (entry != null && entry.expiry > SystemClock.elapsedRealtime()) {
+			hitCount++;
+			return entry.result;
+		}
+		if (entry != null) {
+			entries.remove(key);
+		}
+		missCount++;
+		return null;
+	}
+
+	/**
+	 * Checks for a recent pass, counting a hit or a miss. See {@link #getPassed(Class, String)}.
+	 * 
+	 * @return true if the state passed validation with the same input within the time-to-live.
+	 */
+	public boolean hasPassed(Class<?> stateClass, String fingerprint) {
+		return getPassed(stateClass, fingerprint) != null;
+	}
+
+	/**
+	 * Remembers that the state passed validation with the given input.
+	 * 
+	 * @param stateClass
+	 *            The class of the state which was validated.
+	 * @param fingerprint
+	 *            The fingerprint of the input it was validated with.
+	 * @param result
+	 *            The passing result, handed to the state again on a hit.
+	 */
+	public void putPassed(Class<?> stateClass, String fingerprint, ValidationResult result) {
+		if (!result.isPassed()) {
+			throw new IllegalArgumentException("only passes are cached: " + result);
+		}
+		entries.put(key(stateClass, fingerprint), new Entry(result, SystemClock.elapsedRealtime() + ttlMillis));
+	}
+
+	/**
+	 * Forgets every pass of the given state, whatever its input.
+	 * 
+	 * @param stateClass
+	 *            The class of the state.
+	 */
+	public void invalidate(Class<?> stateClass) {
+		String prefix = stateClass.getName() + '\n';
+		for (Iterator<String> keys = entries.keySet().iterator(); keys.hasNext();) {
+			if (keys.next().startsWith(prefix)) {
+				keys.remove();
+			}
+		}
+	}
+
+	/**
+	 * Forgets every pass.
+	 */
+	public void invalidateAll() {
+		entries.clear();
+	}
+
+	/**
+	 * @return the number of remembered passes, including any which have expired but haven't been looked up since.
+	 */
+	public int size() {
+		return entries.size();
+	}
+
+	/**
+	 * @return how long a pass is remembered, in milliseconds.
+	 */
+	public long getTtlMillis() {
+		return ttlMillis;
+	}
+
+	/**
+	 * @return the number of validations skipped because of a recent pass.
+	 */
+	public int getHitCount() {
+		return hitCount;
+	}
+
+	/**
+	 * @return the number of lookups which found no recent pass, so the validation was run.
+	 */
+	public int getMissCount() {
+		return missCount;
+	}
+}
@@ -0,0 +1,88 @@
+package com.hps.wizard;
+
+/**
+ * <p>
+ * The progress of a background validation, as published by {@link ValidationAsyncTask#publishProgress(int, int, Object)}: how far along it is, what it's
+ * doing and, optionally, anything else the activity should know.
+ * </p>
+ * <p>
+ * Updates are coalesced, so the main thread sees at most one per frame however often the task publishes, and only the latest. To avoid allocating on every
+ * update each task reuses a single instance, so a {@link TaskCallback} must copy out whatever it wants to keep rather than holding on to the object.
+ * </p>
+ */
+public final class ValidationProgress {
+	/** The percentage when the task can't say how far along it is. */
+	public static final int UNKNOWN_PERCENT = -1;
+
+	private int percent = UNKNOWN_PERCENT;
+	private int messageResId;
+	private String message;
+	private Object payload;
+	private int attempt = 1;
+	private int maxAttempts = 1;
+
+	/**
+	 * @return how far along the validation is, from 0 to 100, or {@link #UNKNOWN_PERCENT}.
+	 */
+	public int getPercent() {
+		return percent;
+	}
+
+	/**
+	 * @return the string resource describing what the validation is doing, or 0 if there isn't one.
+	 */
+	public int getMessageResId() {
+		return messageResId;
+	}
+
+	/**
+	 * @return the text describing what the validation is doing, or null if there isn't any. This takes precedence over {@link #getMessageResId()}.
+	 */
+	public String getMessage() {
+		return message;
+	}
+
+	/**
+	 * @return whatever else the task published, or null.
+	 */
+	public Object getPayload() {
+		return payload;
+	}
+
+	/**
+	 * @return the number of the attempt in progress, starting at 1. Only a {@link RetryingValidationTask} makes more than one.
+	 */
+	public int getAttempt() {
+		return attempt;
+	}
+
+	/**
+	 * @return the most attempts the task will make.
+	 */
+	public int getMaxAttempts() {
+		return maxAttempts;
+	}
+
+	void set(int percent, int messageResId, String message, Object payload) {
+		this.percent = percent;
+		this.messageResId = messageResId;
+		this.message = message;
+		this.payload = payload;
+	}
+
+	void setAttempt(int attempt, int maxAttempts) {
+		this.attempt = attempt;
+		this.maxAttempts = maxAttempts;
+	}
+
+	void copyFrom(ValidationProgress other) {
+		set(other.percent, other.messageResId, other.message, other.payload);
+		setAttempt(other.attempt, other.maxAttempts);
+	}
+
+	@Override
+	public String toString() {
+		return "ValidationProgress " + percent + "% " + (message != null ? message : "res " + messageResId) + (payload != null ? " " + payload : "")
+				+ (maxAttempts > 1 ? " attempt " + attempt + "/" + maxAttempts : "");
+	}
+}
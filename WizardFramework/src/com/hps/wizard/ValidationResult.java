@@ -0,0 +1,176 @@
+package com.hps.wizard;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * <p>
+ * The outcome of a background validation: whether it passed, and if not, why. Along with pass or fail it can carry an error message for each field which
+ * failed and whatever the server responded, so the state can show the errors straight away without asking again. See
+ * {@link StateFragment#onValidationResult(ValidationResult)}.
+ * </p>
+ * <p>
+ * The framework fills in how long the task waited for a thread and how long it then ran, and, for a {@link RetryingValidationTask}, how long each attempt
+ * took. These are collected by {@link ValidationTimings}.
+ * </p>
+ * 
+ * <pre>
+ * &#064;Override
+ * protected ValidationResult doValidation() {
+ * 	CardResponse response = gateway.checkCard(card);
+ * 	if (response.isApproved()) {
+ * 		return ValidationResult.passed(response);
+ * 	}
+ * 	return ValidationResult.failed(response).addFieldError(&quot;cvv&quot;, response.getDeclineReason());
+ * }
+ * </pre>
+ */
+public final class ValidationResult {
+	private final boolean passed;
+	private final Object response;
+	private final Map<String, String> fieldErrors = new LinkedHashMap<String, String>();
+	private long queueNanos, executionNanos;
+	/** How long each attempt took, or null if the task made a single attempt and didn't time it separately. */
+	private long[] attemptNanos;
+
+	private ValidationResult(boolean passed, Object response) {
+		this.passed = passed;
+		this.response = response;
+	}
+
+	/**
+	 * @return a passing result with no response.
+	 */
+	public static ValidationResult passed() {
+		return new ValidationResult(true, null);
+	}
+
+	/**
+	 * @param response
+	 *            What the server responded, or null.
+	 * @return a passing result.
+	 */
+	public static ValidationResult passed(Object response) {
+		return new ValidationResult(true, response);
+	}
+
+	/**
+	 * @return a failing result with no response.
+	 */
+	public static ValidationResult failed() {
+		return new ValidationResult(false, null);
+	}
+
+	/**
+	 * @param response
+	 *            What the server responded, or null.
+	 * @return a failing result.
+	 */
+	public static ValidationResult failed(Object response) {
+		return new ValidationResult(false, response);
+	}
+
+	/**
+	 * @param passed
+	 *            Whether validation passed.
+	 * @return a result with no response, as returned by tasks which only say pass or fail.
+	 */
+	public static ValidationResult of(boolean passed) {
+		return new ValidationResult(passed, null);
+	}
+
+	/**
+	 * Records what was wrong with a field. Meant to be called while building the result, on the task's thread.
+	 * 
+	 * @param field
+	 *            The field, named however the state likes.
+	 * @param message
+	 *            What's wrong with it.
+	 * @return this result.
+	 */
+	public ValidationResult addFieldError(String field, String message) {
+		fieldErrors.put(field, message);
+		return this;
+	}
+
+	/**
+	 * @return true if validation passed.
+	 */
+	public boolean isPassed() {
+		return passed;
+	}
+
+	/**
+	 * @return what the server responded, or null.
+	 */
+	public Object getResponse() {
+		return response;
+	}
+
+	/**
+	 * @return the error message for each field, in the order they were added. Empty if there are none.
+	 */
+	public Map<String, String> getFieldErrors() {
+		return Collections.unmodifiableMap(fieldErrors);
+	}
+
+	/**
+	 * @return the error message for the field, or null if it has none.
+	 */
+	public String getFieldError(String field) {
+		return fieldErrors.get(field);
+	}
+
+	/**
+	 * @return how long the task waited for the executor to start it, in nanoseconds.
+	 */
+	public long getQueueNanos() {
+		return queueNanos;
+	}
+
+	/**
+	 * @return how long the task ran for, in nanoseconds.
+	 */
+	public long getExecutionNanos() {
+		return executionNanos;
+	}
+
+	/**
+	 * @return how many attempts the task made. Only a {@link RetryingValidationTask} makes more than one.
+	 */
+	public int getAttemptCount() {
+		return attemptNanos == null ? 1 : attemptNanos.length;
+	}
+
+	/**
+	 * @param attempt
+	 *            The number of an attempt, from 1 to {@link #getAttemptCount()}.
+	 * @return how long that attempt took, in nanoseconds. For a task which made a single attempt, that's its {@link #getExecutionNanos() execution time}.
+	 */
+	public long getAttemptLatencyNanos(int attempt) {
+		if (attempt < 1 || attempt > getAttemptCount()) {
+			throw new IndexOutOfBoundsException("attempt " + attempt + " of " + getAttemptCount());
+		}
+		return attemptNanos == null ? executionNanos : attemptNanos[attempt - 1];
+	}
+
+	void setTiming(long queueNanos, long executionNanos) {
+		this.queueNanos = queueNanos;
+		this.executionNanos = executionNanos;
+	}
+
+	/**
+	 * @param attemptNanos
+	 *            How long each attempt took, in order. Kept, not copied.
+	 */
+	void setAttemptLatencies(long[] attemptNanos) {
+		this.attemptNanos = attemptNanos;
+	}
+
+	@Override
+	public String toString() {
+		return "ValidationResult " + (passed ? "passed" : "failed") + (fieldErrors.isEmpty() ? "" : " " + fieldErrors) + " queued "
+				+ queueNanos / 1000000 + "ms, ran " + executionNanos / 1000000 + "ms" + (getAttemptCount() > 1 ? " in " + getAttemptCount() + " attempts" : "");
+	}
+}
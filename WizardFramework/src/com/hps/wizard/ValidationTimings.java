@@ -0,0 +1,130 @@
+package com.hps.wizard;
+
+/**
+ * <p>
+ * Adds up how long background validations spent waiting for a thread and running, and how many attempts they took and how long each attempt ran, so the
+ * wizard's validation latency can be monitored, retries included. Every finished
+ * validation is recorded, speculative ones included; cancelled ones aren't, since they have no result. See
+ * {@link AbstractWizardActivity#getValidationTimings()}.
+ * </p>
+ * <p>
+ * Like the {@link ValidationCache} it survives configuration changes but not the activity finishing. It's only used on the main thread.
+ * </p>
+ */
+public final class ValidationTimings {
+	private int count, passCount;
+	private long totalQueueNanos, maxQueueNanos;
+	private long totalExecutionNanos, maxExecutionNanos;
+	private int attemptCount, retriedCount;
+	private long totalAttemptNanos, maxAttemptNanos;
+
+	/**
+	 * Adds a finished validation.
+	 */
+	public void record(ValidationResult result) {
+		count++;
+		if (result.isPassed()) {
+			passCount++;
+		}
+		totalQueueNanos += result.getQueueNanos();
+		maxQueueNanos = Math.max(maxQueueNanos, result.getQueueNanos());
+		totalExecutionNanos += result.getExecutionNanos();
+		maxExecutionNanos = Math.max(maxExecutionNanos, result.getExecutionNanos());
+
+		int attempts = result.getAttemptCount();
+		attemptCount += attempts;
+		if (attempts > 1) {
+			retriedCount++;
+		}
+		for (int i = 1; i <= attempts; i++) {
+			long nanos = result.getAttemptLatencyNanos(i);
+			totalAttemptNanos += nanos;
+			maxAttemptNanos = Math.max(maxAttemptNanos, nanos);
+		}
+	}
+
+	/**
+	 * @return the number of validations recorded.
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	/**
+	 * @return the number of those which passed.
+	 */
+	public int getPassCount() {
+		return passCount;
+	}
+
+	/**
+	 * @return the mean time spent waiting for a thread, in nanoseconds, or 0 if nothing has been recorded.
+	 */
+	public long getMeanQueueNanos() {
+		return count == 0 ? 0 : totalQueueNanos / count;
+	}
+
+	/**
+	 * @return the longest time spent waiting for a thread, in nanoseconds.
+	 */
+	public long getMaxQueueNanos() {
+		return maxQueueNanos;
+	}
+
+	/**
+	 * @return the mean running time, in nanoseconds, or 0 if nothing has been recorded.
+	 */
+	public long getMeanExecutionNanos() {
+		return count == 0 ? 0 : totalExecutionNanos / count;
+	}
+
+	/**
+	 * @return the longest running time, in nanoseconds.
+	 */
+	public long getMaxExecutionNanos() {
+		return maxExecutionNanos;
+	}
+
+	/**
+	 * @return the number of attempts made by the validations recorded. It's more than {@link #getCount()} if any were retried.
+	 */
+	public int getAttemptCount() {
+		return attemptCount;
+	}
+
+	/**
+	 * @return the number of validations which took more than one attempt.
+	 */
+	public int getRetriedCount() {
+		return retriedCount;
+	}
+
+	/**
+	 * @return the mean running time of a single attempt, in nanoseconds, or 0 if nothing has been recorded.
+	 */
+	public long getMeanAttemptNanos() {
+		return attemptCount == 0 ? 0 : totalAttemptNanos / attemptCount;
+	}
+
+	/**
+	 * @return the longest running time of a single attempt, in nanoseconds.
+	 */
+	public long getMaxAttemptNanos() {
+		return maxAttemptNanos;
+	}
+
+	/**
+	 * Forgets everything recorded so far.
+	 */
+	public void reset() {
+		count = passCount = attemptCount = retriedCount = 0;
+		totalQueueNanos = maxQueueNanos = totalExecutionNanos = maxExecutionNanos = totalAttemptNanos = maxAttemptNanos = 0;
+	}
+
+	@Override
+	public String toString() {
+		return "ValidationTimings " + passCount + "/" + count + " passed, queued " + getMeanQueueNanos() / 1000000 + "ms mean " + maxQueueNanos / 1000000
+				+ "ms max, ran " + getMeanExecutionNanos() / 1000000 + "ms mean " + maxExecutionNanos / 1000000 + "ms max, " + retriedCount + " retried in "
+				+ attemptCount + " attempts of " + getMeanAttemptNanos() / 1000000 + "ms mean " + maxAttemptNanos / 1000000 + "ms max";
+	}
+}
@@ -35,7 +35,8 @@ public class WizardActivity extends AbstractWizardActivity {
 	 * @param firstState
 	 *            The definition of the first state in the wizard.
 	 * @param stepCount
-	 *            The number of steps in the wizard. Use {@link WizardActivity#STEP_COUNT_UNKNOWN} to hide the step counter.
+	 *            The number of steps in the wizard. Use {@link WizardActivity#STEP_COUNT_UNKNOWN} to hide the step counter, or
+	 *            {@link WizardActivity#STEP_COUNT_AUTOMATIC} to have it worked out from the states' {@link Transitions}.
 	 * @param allowPreviousPlaceholder
 	 *            Whether an empty slot should be provided for the previous button when it's not visible.
 	 * @param allowNeutralPlaceholder
@@ -45,11 +46,39 @@ public class WizardActivity extends AbstractWizardActivity {
 	 */
 	public static void startWizard(Activity startingActivity, StateDefinition firstState, int stepCount, boolean allowPreviousPlaceholder,
 			boolean allowNeutralPlaceholder, int requestCode) {
+		startWizard(startingActivity, firstState, stepCount, allowPreviousPlaceholder, allowNeutralPlaceholder, requestCode, null);
+	}
+
+	/**
+	 * Launches a new WizardActivity with the given parameters, journalling its progress so it can be resumed if the process is killed. If a journal for the
+	 * session exists from an earlier run which didn't finish, the wizard picks up where that run left off. See {@link SessionJournal}.
+	 * 
+	 * @param startingActivity
+	 *            the calling activity. It is used for the call to {@link Activity#startActivityForResult(Intent, int)}.
+	 * @param firstState
+	 *            The definition of the first state in the wizard.
+	 * @param stepCount
+	 *            The number of steps in the wizard. Use {@link WizardActivity#STEP_COUNT_UNKNOWN} to hide the step counter, or
+	 *            {@link WizardActivity#STEP_COUNT_AUTOMATIC} to have it worked out from the states' {@link Transitions}.
+	 * @param allowPreviousPlaceholder
+	 *            Whether an empty slot should be provided for the previous button when it's not visible.
+	 * @param allowNeutralPlaceholder
+	 *            Whether an empty slot should be provided for the neutral button when it's not visible.
+	 * @param requestCode
+	 *            The request code to use for the call to {@link Activity#startActivityForResult(Intent, int)}.
+	 * @param sessionName
+	 *            Names the session's journal, see {@link SessionJournal#fileFor(android.content.Context, String)}. Null to not journal it.
+	 */
+	public static void startWizard(Activity startingActivity, StateDefinition firstState, int stepCount, boolean allowPreviousPlaceholder,
+			boolean allowNeutralPlaceholder, int requestCode, String sessionName) {
 		Intent wizardIntent = new Intent(startingActivity, WizardActivity.class);
 		wizardIntent.putExtra(FIRST_STATE_CLASS, firstState.clazz);
 		wizardIntent.putExtra(STEP_COUNT, stepCount);
 		wizardIntent.putExtra(ALLOW_NEUTRAL_BUTTON_PLACEHOLDER, allowNeutralPlaceholder);
 		wizardIntent.putExtra(ALLOW_PREVIOUS_BUTTON_PLACEHOLDER, allowPreviousPlaceholder);
+		if (sessionName != null) {
+			wizardIntent.putExtra(SESSION_JOURNAL, sessionName);
+		}
 		wizardIntent.putExtras(firstState.args);
 
 		startingActivity.startActivityForResult(wizardIntent, requestCode);
@@ -78,12 +107,16 @@ public class WizardActivity extends AbstractWizardActivity {
 	 * </p>
 	 * <p>
 	 * Currently this is just a text field in the form of x/y where x is the current step number and y is the number of steps. Future implementations could
-	 * change this to be a graphical indicator or move the position around.
+	 * change this to be a graphical indicator or move the position around. See {@link #getStepCountText()}.
 	 * </p>
 	 */
 	private void updateStepCount() {
-		if (getStepCountTextView().getVisibility() == View.VISIBLE) {
-			getStepCountTextView().setText(String.valueOf(getStates().size()) + "/" + String.valueOf(getStepCount()));
+		String stepCountText = getStepCountText();
+		if (stepCountText == null) {
+			getStepCountTextView().setVisibility(View.GONE);
+		} else {
+			getStepCountTextView().setVisibility(View.VISIBLE);
+			getStepCountTextView().setText(stepCountText);
 		}
 	}
 
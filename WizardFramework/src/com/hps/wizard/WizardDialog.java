@@ -42,7 +42,8 @@ public class WizardDialog extends AbstractWizardActivity {
 	 * @param firstState
 	 *            The definition of the first state in the wizard.
 	 * @param stepCount
-	 *            The number of steps in the wizard. Use {@link WizardDialog#STEP_COUNT_UNKNOWN} to hide the step counter.
+	 *            The number of steps in the wizard. Use {@link WizardDialog#STEP_COUNT_UNKNOWN} to hide the step counter, or
+	 *            {@link WizardDialog#STEP_COUNT_AUTOMATIC} to have it worked out from the states' {@link Transitions}.
 	 * @param allowPreviousPlaceholder
 	 *            Whether an empty slot should be provided for the previous button when it's not visible.
 	 * @param allowNeutralPlaceholder
@@ -52,11 +53,39 @@ public class WizardDialog extends AbstractWizardActivity {
 	 */
 	public static void startWizard(Activity startingActivity, StateDefinition firstState, int stepCount, boolean allowPreviousPlaceholder,
 			boolean allowNeutralPlaceholder, int requestCode) {
+		startWizard(startingActivity, firstState, stepCount, allowPreviousPlaceholder, allowNeutralPlaceholder, requestCode, null);
+	}
+
+	/**
+	 * Launches a new WizardDialog with the given parameters, journalling its progress so it can be resumed if the process is killed. If a journal for the
+	 * session exists from an earlier run which didn't finish, the wizard picks up where that run left off. See {@link SessionJournal}.
+	 * 
+	 * @param startingActivity
+	 *            the calling activity. It is used for the call to {@link Activity#startActivityForResult(Intent, int)}.
+	 * @param firstState
+	 *            The definition of the first state in the wizard.
+	 * @param stepCount
+	 *            The number of steps in the wizard. Use {@link WizardDialog#STEP_COUNT_UNKNOWN} to hide the step counter, or
+	 *            {@link WizardDialog#STEP_COUNT_AUTOMATIC} to have it worked out from the states' {@link Transitions}.
+	 * @param allowPreviousPlaceholder
+	 *            Whether an empty slot should be provided for the previous button when it's not visible.
+	 * @param allowNeutralPlaceholder
+	 *            Whether an empty slot should be provided for the neutral button when it's not visible.
+	 * @param requestCode
+	 *            The request code to use for the call to {@link Activity#startActivityForResult(Intent, int)}.
+	 * @param sessionName
+	 *            Names the session's journal, see {@link SessionJournal#fileFor(android.content.Context, String)}. Null to not journal it.
+	 */
+	public static void startWizard(Activity startingActivity, StateDefinition firstState, int stepCount, boolean allowPreviousPlaceholder,
+			boolean allowNeutralPlaceholder, int requestCode, String sessionName) {
 		Intent wizardIntent = new Intent(startingActivity, WizardDialog.class);
 		wizardIntent.putExtra(FIRST_STATE_CLASS, firstState.clazz);
 		wizardIntent.putExtra(STEP_COUNT, stepCount);
 		wizardIntent.putExtra(ALLOW_NEUTRAL_BUTTON_PLACEHOLDER, allowNeutralPlaceholder);
 		wizardIntent.putExtra(ALLOW_PREVIOUS_BUTTON_PLACEHOLDER, allowPreviousPlaceholder);
+		if (sessionName != null) {
+			wizardIntent.putExtra(SESSION_JOURNAL, sessionName);
+		}
 		wizardIntent.putExtras(firstState.args);
 
 		startingActivity.startActivityForResult(wizardIntent, requestCode);
@@ -68,8 +97,8 @@ public class WizardDialog extends AbstractWizardActivity {
 		 * The dialog layout hides the title and step count views so we can show them as the actual dialog title.
 		 */
 		String titleString = getStates().peek().getTitle();
-		if (getStepCount() != STEP_COUNT_UNKNOWN) {
-			String stepCountString = String.valueOf(getStates().size()) + "/" + String.valueOf(getStepCount());
+		String stepCountString = getStepCountText();
+		if (stepCountString != null) {
 			StringBuilder titleBuilder = new StringBuilder(stepCountString);
 			titleBuilder.append(" ");
 			titleBuilder.append(titleString);
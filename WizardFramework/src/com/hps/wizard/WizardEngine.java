@@ -0,0 +1,503 @@
+package com.hps.wizard;
+
+import java.util.List;
+
+/**
+ * <p>
+ * The navigation core of a wizard. The engine owns the history of states and decides what happens when the user moves forward or back, but it knows nothing
+ * about how a state is built, validated or displayed. All of that is delegated to a {@link Host}. In the framework the host is provided by
+ * {@link AbstractWizardActivity}, which simply renders whatever state the engine says is current.
+ * </p>
+ * <p>
+ * The engine has no Android dependencies, so it can be driven on a plain JVM for load testing and profiling.
+ * </p>
+ * <p>
+ * By default every state in the history stays alive. An engine can instead be told to park off-screen states: when it moves forward, the state it leaves is
+ * replaced by the definition returned from {@link Host#saveState(Object)}, and it's only rebuilt via {@link Host#restoreState(Object)} when the user goes back
+ * to it. Restoring a saved history then only builds the current state.
+ * </p>
+ * <p>
+ * An engine can also prefetch the next state. When {@link #prefetch()} is called (typically while the main thread is idle) it asks the current state for its
+ * next state, builds it and has the host prepare it. If the next click leads to the same state, the prepared one is used instead of building a new one. The
+ * prefetched state is thrown away as soon as the prediction changes. The engine counts prefetches, hits and discards so the hit rate can be monitored.
+ * </p>
+ *
+ * @param <S>
+ *            The type of the states kept in the history.
+ * @param <D>
+ *            The type of the definitions used to build new states.
+ */
+public class WizardEngine<S, D> {
+
+	/**
+	 * Everything the {@link WizardEngine} needs from the outside world: building states from definitions, asking them questions and displaying them.
+	 *
+	 * @param <S>
+	 *            The type of the states kept in the history.
+	 * @param <D>
+	 *            The type of the definitions used to build new states.
+	 */
+	public interface Host<S, D> {
+		/**
+		 * Build a brand new state for the given definition.
+		 *
+		 * @param definition
+		 *            The definition of the state. Cannot be null.
+		 * @return the new state, which cannot be null.
+		 */
+		S createState(D definition);
+
+		/**
+		 * Rebuild a state which was part of a previously saved history. The host may reuse an existing instance if it still has one.
+		 *
+		 * @param definition
+		 *            The definition of the state, including its saved data. Cannot be null.
+		 * @return the state, which cannot be null.
+		 */
+		S restoreState(D definition);
+
+		/**
+		 * Capture a state which is leaving the screen so it can be parked. The returned definition must carry everything
+		 * {@link #restoreState(Object)} needs to rebuild the state.
+		 *
+		 * @param state
+		 *            The state being parked.
+		 * @return the definition to park in its place.
+		 */
+		D saveState(S state);
+
+		/**
+		 * @return the definition of the state that follows the given one.
+		 */
+		D getNextState(S state);
+
+		/**
+		 * @return true if the state's next state takes a while to work out, so it should be asked for by {@link #resolveNextStateInBackground(Object)} rather
+		 *         than {@link #getNextState(Object)}.
+		 */
+		boolean shouldResolveNextStateInBackground(S state);
+
+		/**
+		 * Start working out the state's next state in the background. When it's known the host must call {@link WizardEngine#handleNextStateResolved(Object)}.
+		 */
+		void resolveNextStateInBackground(S state);
+
+		/**
+		 * @return true if the state allows a next click to be honored.
+		 */
+		boolean canGoForward(S state);
+
+		/**
+		 * @return true if the state allows a back click to be honored.
+		 */
+		boolean canGoBack(S state);
+
+		/**
+		 * @return true if the state wants to be validated by {@link #validateInBackground(Object)} rather than {@link #validate(Object)}.
+		 */
+		boolean shouldValidateInBackground(S state);
+
+		/**
+		 * Validate the state on the calling thread.
+		 *
+		 * @return true if validation passed.
+		 */
+		boolean validate(S state);
+
+		/**
+		 * Start validating the state in the background. When validation passes the host must call {@link WizardEngine#handleSuccessfulValidation()}.
+		 */
+		void validateInBackground(S state);
+
+		/**
+		 * Called on the current state just before the engine moves forward from it.
+		 */
+		void onForward(S state);
+
+		/**
+		 * Called on the current state just before the engine removes it from the history.
+		 */
+		void onBack(S state);
+
+		/**
+		 * Called when a back step is requested but the given state is the only one in the history.
+		 */
+		void onBackFromFirstState(S state);
+
+		/**
+		 * Display the given state, which is always the top of the history.
+		 */
+		void showState(S state);
+
+		/**
+		 * Get a prefetched state ready to be shown, for instance by building its views. The state is not in the history yet.
+		 */
+		void prepareState(S state);
+
+		/**
+		 * Throw away a prefetched state which will not be shown after all.
+		 */
+		void discardState(S state);
+
+		/**
+		 * Compare the definition a state was prefetched from with the definition of the state actually being moved to.
+		 *
+		 * @return true if a state built from the first can stand in for a state built from the second.
+		 */
+		boolean isSameState(D prefetched, D actual);
+	}
+
+	private final Host<S, D> host;
+	private final int maxHistoryDepth;
+	private final boolean parkOffscreenStates;
+	/** The live states. When parking off-screen states this only ever holds the current state. */
+	private final StateHistory<S> states;
+	/** The definitions of parked states, in order from first to last. Only used when parking off-screen states. */
+	private final StateHistory<D> parked;
+
+	private boolean prefetching;
+	private S prefetchedState;
+	private D prefetchedDefinition;
+	private int prefetchCount, prefetchHitCount, prefetchDiscardCount;
+
+	/**
+	 * Creates an engine with an unbounded history which keeps every state alive.
+	 *
+	 * @param host
+	 *            The host which builds and displays states for this engine. Cannot be null.
+	 */
+	public WizardEngine(Host<S, D> host) {
+		this(host, StateHistory.UNBOUNDED, false);
+	}
+
+	/**
+	 * Creates an engine which keeps every state alive.
+	 *
+	 * @param host
+	 *            The host which builds and displays states for this engine. Cannot be null.
+	 * @param maxHistoryDepth
+	 *            The maximum number of states to keep in the history, or {@link StateHistory#UNBOUNDED}. See {@link StateHistory}.
+	 */
+	public WizardEngine(Host<S, D> host, int maxHistoryDepth) {
+		this(host, maxHistoryDepth, false);
+	}
+
+	/**
+	 * @param host
+	 *            The host which builds and displays states for this engine. Cannot be null.
+	 * @param maxHistoryDepth
+	 *            The maximum number of states to keep in the history, or {@link StateHistory#UNBOUNDED}. See {@link StateHistory}.
+	 * @param parkOffscreenStates
+	 *            true to keep only the current state alive and park the others as definitions, false to keep every state alive.
+	 */
+	public WizardEngine(Host<S, D> host, int maxHistoryDepth, boolean parkOffscreenStates) {
+		if (host == null) {
+			throw new IllegalArgumentException("host cannot be null");
+		}
+		this.host = host;
+		this.maxHistoryDepth = maxHistoryDepth;
+		this.parkOffscreenStates = parkOffscreenStates;
+
+		if (parkOffscreenStates) {
+			states = new StateHistory<S>();
+			// one slot of the maximum depth is taken by the live state
+			parked = new StateHistory<D>(maxHistoryDepth == StateHistory.UNBOUNDED ? StateHistory.UNBOUNDED : maxHistoryDepth - 1);
+		} else {
+			states = new StateHistory<S>(maxHistoryDepth);
+			parked = new StateHistory<D>();
+		}
+	}
+
+	/**
+	 * Adds the state to the history. If we're parking off-screen states the current state is parked first.
+	 *
+	 * @param state
+	 *            the state to add (cannot be null)
+	 */
+	private void addState(S state) {
+		if (state == null) {
+			throw new IllegalArgumentException("null state cannot be added!");
+		}
+
+		if (parkOffscreenStates && !states.isEmpty()) {
+			S leaving = states.pop();
+			if (maxHistoryDepth != 1) {
+				parked.push(host.saveState(leaving));
+			}
+		}
+
+		states.push(state);
+	}
+
+	/**
+	 * Rebuild the history from the given definitions, in order from first to last, and show the last one.
+	 *
+	 * @param definitions
+	 *            The saved definitions. Cannot be null or empty.
+	 */
+	public void buildStates(List<D> definitions) {
+		if (definitions == null || definitions.isEmpty()) {
+			throw new IllegalStateException("Cannot restore an empty history: " + definitions);
+		}
+
+		int last = definitions.size() - 1;
+		for (int i = 0; i < last; i++) {
+			if (parkOffscreenStates) {
+				// no need to build it until the user comes back to it
+				if (maxHistoryDepth != 1) {
+					parked.push(definitions.get(i));
+				}
+			} else {
+				addState(host.restoreState(definitions.get(i)));
+			}
+		}
+		addState(host.restoreState(definitions.get(last)));
+
+		host.showState(states.peek());
+	}
+
+	/**
+	 * Build the state for the given definition, add it to the history and show it.
+	 *
+	 * @param definition
+	 *            The definition of the state to move to.
+	 */
+	public void moveForwardToState(D definition) {
+		S state = takePrefetchedState(definition);
+		if (state == null) {
+			state = host.createState(definition);
+		}
+
+		addState(state);
+
+		host.showState(state);
+	}
+
+	/**
+	 * The next button was clicked. Here we ask the current state if we are allowed to go forward. If we are, validate it and go.
+	 */
+	public void handleNextClicked() {
+		S state = states.peek();
+		if (host.canGoForward(state)) {
+			if (host.shouldValidateInBackground(state)) {
+				host.validateInBackground(state);
+			} else if (host.validate(state)) {
+				handleSuccessfulValidation();
+			}
+		}
+	}
+
+	/**
+	 * Move to the next state. If the current state's next state is worked out in the background this only starts that; the move happens in
+	 * {@link #handleNextStateResolved(Object)}, and the state isn't told it's being left until then.
+	 */
+	public void handleSuccessfulValidation() {
+		S state = states.peek();
+		if (host.shouldResolveNextStateInBackground(state)) {
+			host.resolveNextStateInBackground(state);
+			return;
+		}
+		host.onForward(state);
+		D definition = host.getNextState(state);
+		moveForwardToState(definition);
+	}
+
+	/**
+	 * The next state of the current state has been worked out in the background. Move to it.
+	 *
+	 * @param definition
+	 *            The definition of the next state, or null to stay where we are, in which case the current state is never told it was nearly left.
+	 */
+	public void handleNextStateResolved(D definition) {
+		if (definition != null) {
+			host.onForward(states.peek());
+			moveForwardToState(definition);
+		}
+	}
+
+	/**
+	 * The back button was clicked. Move back a step if the current state allows it.
+	 */
+	public void handleBackClicked() {
+		if (host.canGoBack(states.peek())) {
+			goBackAStep();
+		}
+	}
+
+	/**
+	 * Move back one step in the wizard.
+	 */
+	public void goBackAStep() {
+		if (getHistoryDepth() < 2) {
+			host.onBackFromFirstState(states.peek());
+		} else {
+			discardPrefetch();
+
+			host.onBack(states.peek());
+
+			states.pop();
+
+			if (states.isEmpty()) {
+				states.push(host.restoreState(parked.pop()));
+			}
+
+			host.showState(states.peek());
+		}
+	}
+
+	/**
+	 * Turn prefetching of the next state on or off. Turning it off discards any prefetched state.
+	 *
+	 * @param prefetching
+	 *            true to allow {@link #prefetch()} to build the next state ahead of time.
+	 */
+	public void setPrefetching(boolean prefetching) {
+		this.prefetching = prefetching;
+		if (!prefetching) {
+			discardPrefetch();
+		}
+	}
+
+	/**
+	 * @return true if prefetching of the next state is turned on.
+	 */
+	public boolean isPrefetching() {
+		return prefetching;
+	}
+
+	/**
+	 * <p>
+	 * Predict the next state and build it ahead of time. Nothing is done if prefetching is off or the current state can't go forward. If a state has already
+	 * been prefetched for the same prediction it's kept; if the prediction has changed it's discarded and the new prediction is built instead.
+	 * </p>
+	 * <p>
+	 * This calls {@link Host#getNextState(Object)} speculatively, so it must only be used with states whose next state can be asked for without side effects.
+	 * </p>
+	 */
+	public void prefetch() {
+		if (!prefetching || states.isEmpty()) {
+			return;
+		}
+
+		S current = states.peek();
+		// a next state which has to be worked out in the background is too slow to predict on the main thread
+		D predicted = host.canGoForward(current) && !host.shouldResolveNextStateInBackground(current) ? host.getNextState(current) : null;
+		if (predicted == null) {
+			discardPrefetch();
+			return;
+		}
+
+		if (prefetchedState != null) {
+			if (host.isSameState(prefetchedDefinition, predicted)) {
+				return;
+			}
+			discardPrefetch();
+		}
+
+		prefetchedState = host.createState(predicted);
+		prefetchedDefinition = predicted;
+		prefetchCount++;
+
+		host.prepareState(prefetchedState);
+	}
+
+	/**
+	 * Throw away the prefetched state, if there is one.
+	 */
+	public void discardPrefetch() {
+		if (prefetchedState != null) {
+			S discarded = prefetchedState;
+			prefetchedState = null;
+			prefetchedDefinition = null;
+			prefetchDiscardCount++;
+
+			host.discardState(discarded);
+		}
+	}
+
+	/**
+	 * Hand over the prefetched state if it was built for the given definition. Otherwise it's discarded.
+	 *
+	 * @return the prefetched state, or null if there isn't a matching one.
+	 */
+	private S takePrefetchedState(D definition) {
+		if (prefetchedState == null) {
+			return null;
+		}
+
+		if (!host.isSameState(prefetchedDefinition, definition)) {
+			discardPrefetch();
+			return null;
+		}
+
+		S state = prefetchedState;
+		prefetchedState = null;
+		prefetchedDefinition = null;
+		prefetchHitCount++;
+		return state;
+	}
+
+	/**
+	 * @return the prefetched state, or null if there isn't one.
+	 */
+	public S getPrefetchedState() {
+		return prefetchedState;
+	}
+
+	/**
+	 * @return the number of states built by {@link #prefetch()}.
+	 */
+	public int getPrefetchCount() {
+		return prefetchCount;
+	}
+
+	/**
+	 * @return the number of prefetched states which were moved to.
+	 */
+	public int getPrefetchHitCount() {
+		return prefetchHitCount;
+	}
+
+	/**
+	 * @return the number of prefetched states which were thrown away.
+	 */
+	public int getPrefetchDiscardCount() {
+		return prefetchDiscardCount;
+	}
+
+	/**
+	 * @return the fraction of prefetched states which were moved to, or 0 if nothing has been prefetched.
+	 */
+	public double getPrefetchHitRate() {
+		return prefetchCount == 0 ? 0 : (double) prefetchHitCount / prefetchCount;
+	}
+
+	/**
+	 * @return the current state, which is the top of the history.
+	 */
+	public S getCurrentState() {
+		return states.peek();
+	}
+
+	/**
+	 * @return the live states, from first to current. When parking off-screen states this only holds the current state.
+	 */
+	public StateHistory<S> getStates() {
+		return states;
+	}
+
+	/**
+	 * @return the definitions of parked states, from first to last. These all come before the live states. This is always empty unless the engine is parking
+	 *         off-screen states.
+	 */
+	public StateHistory<D> getParkedStates() {
+		return parked;
+	}
+
+	/**
+	 * @return the number of states in the whole history, parked or live.
+	 */
+	public int getHistoryDepth() {
+		return parked.size() + states.size();
+	}
+}
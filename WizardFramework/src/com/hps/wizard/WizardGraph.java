@@ -0,0 +1,401 @@
+package com.hps.wizard;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>
+ * The transitions between the states of a wizard, as an adjacency table. Each state has an index, and each index has the indexes of the states which can
+ * follow it, or null if that state's transitions were never declared. Looking up a state's successors is constant-time.
+ * </p>
+ * <p>
+ * Graphs are normally generated at compile time from the {@link Transitions} annotations in a package, as a subclass named {@link #GENERATED_CLASS_NAME} in
+ * that package, and loaded with {@link #forState(Class)}. They can also be built by hand.
+ * </p>
+ * <p>
+ * The graph also answers how many steps remain after a state, by the shortest and by the longest route to a final state. Both are worked out for every state
+ * at once, the first time either is asked for, in time proportional to the size of the graph. After that each answer is a constant-time lookup.
+ * </p>
+ * <p>
+ * This class doesn't depend on Android, so states are plain classes here.
+ * </p>
+ */
+public class WizardGraph {
+	/** The simple name of the class generated for each package of annotated states. */
+	public static final String GENERATED_CLASS_NAME = "GeneratedWizardGraph";
+
+	/** Returned by {@link #getShortestRemaining(Class)} and {@link #getLongestRemaining(Class)} when the number of steps can't be worked out. */
+	public static final int UNKNOWN = -1;
+
+	/** Stands in for packages with no generated graph, since a ConcurrentHashMap can't hold null. */
+	private static final WizardGraph NONE = new WizardGraph(new Class<?>[0], new int[0][]);
+
+	/** The graphs loaded so far, by package name. */
+	private static final ConcurrentHashMap<String, WizardGraph> LOADED = new ConcurrentHashMap<String, WizardGraph>();
+
+	private final Class<?>[] states;
+	private final Map<Class<?>, Integer> indexes;
+	private final int[][] successors;
+	private final List<List<Class<?>>> successorLists;
+
+	/** The shortest (row 0) and longest (row 1) number of steps remaining after each state, or null until first needed. */
+	private volatile int[][] remaining;
+
+	/**
+	 * @param states
+	 *            Every state in the graph, each once. The position of a state in this array is its index.
+	 * @param successors
+	 *            For each state, the indexes of the states which can follow it. An empty array marks a final state, and null a state whose transitions are
+	 *            unknown.
+	 */
+	public WizardGraph(Class<?>[] states, int[][] successors) {
+		if (states.length != successors.length) {
+			throw new IllegalArgumentException(states.length + " states but " + successors.length + " rows of successors");
+		}
+
+		this.states = states.clone();
+		this.successors = successors.clone();
+		indexes = new HashMap<Class<?>, Integer>(states.length * 2);
+		successorLists = new ArrayList<List<Class<?>>>(states.length);
+
+		for (int i = 0; i < states.length; i++) {
+			if (indexes.put(states[i], i) != null) {
+				throw new IllegalArgumentException("state " + states[i].getName() + " appears more than once");
+			}
+		}
+
+		for (int i = 0; i < states.length; i++) {
+			int[] row = successors[i];
+			if (row == null) {
+				successorLists.add(null);
+				continue;
+			}
+
+			Class<?>[] next = new Class<?>[row.length];
+			for (int j = 0; j < row.length; j++) {
+				if (row[j] < 0 || row[j] >= states.length) {
+					throw new IllegalArgumentException("state " + states[i].getName() + " has a successor out of range: " + row[j]);
+				}
+				next[j] = states[row[j]];
+			}
+			this.successors[i] = row.clone();
+			successorLists.add(Collections.unmodifiableList(Arrays.asList(next)));
+		}
+	}
+
+	/**
+	 * Finds the generated graph for the package of the given state. Each package is only looked up once.
+	 *
+	 * @param state
+	 *            Any state of the wizard.
+	 * @return the graph, or null if none was generated for that package.
+	 */
+	public static WizardGraph forState(Class<?> state) {
+		String name = state.getName();
+		int lastDot = name.lastIndexOf('.');
+		String packageName = lastDot < 0 ? "" : name.substring(0, lastDot);
+
+		WizardGraph graph = LOADED.get(packageName);
+		if (graph == null) {
+			graph = load(packageName, state.getClassLoader());
+			WizardGraph raced = LOADED.putIfAbsent(packageName, graph);
+			if (raced != null) {
+				graph = raced;
+			}
+		}
+		return graph == NONE ? null : graph;
+	}
+
+	private static WizardGraph load(String packageName, ClassLoader classLoader) {
+		String className = packageName.length() == 0 ? GENERATED_CLASS_NAME : packageName + "." + GENERATED_CLASS_NAME;
+		try {
+			return Class.forName(className, true, classLoader).asSubclass(WizardGraph.class).getConstructor().newInstance();
+		} catch (ClassNotFoundException e) {
+			return NONE;
+		} catch (NoSuchMethodException e) {
+			throw new IllegalStateException("Cannot load wizard graph " + className, e);
+		} catch (InstantiationException e) {
+			throw new IllegalStateException("Cannot load wizard graph " + className, e);
+		} catch (IllegalAccessException e) {
+			throw new IllegalStateException("Cannot load wizard graph " + className, e);
+		} catch (InvocationTargetException e) {
+			throw new IllegalStateException("Cannot load wizard graph " + className, e);
+		}
+	}
+
+	/**
+	 * @return the number of states in the graph.
+	 */
+	public int size() {
+		return states.length;
+	}
+
+	/**
+	 * @return the index of the state, or -1 if it's not in the graph.
+	 */
+	public int indexOf(Class<?> state) {
+		Integer index = indexes.get(state);
+		return index == null ? -1 : index;
+	}
+
+	/**
+	 * @return the state at the given index.
+	 */
+	public Class<?> getState(int index) {
+		return states[index];
+	}
+
+	/**
+	 * @return true if the state is in the graph with a declared list of transitions.
+	 */
+	public boolean hasDeclaredTransitions(Class<?> state) {
+		int index = indexOf(state);
+		return index >= 0 && successors[index] != null;
+	}
+
+	/**
+	 * @return the states which can follow the given one, which is empty for a final state. Null if the state isn't in the graph or its transitions are
+	 *         unknown.
+	 */
+	public List<Class<?>> getSuccessors(Class<?> state) {
+		int index = indexOf(state);
+		return index < 0 ? null : successorLists.get(index);
+	}
+
+	/**
+	 * Checks a transition against the graph.
+	 *
+	 * @param from
+	 *            The state being left.
+	 * @param to
+	 *            The state being moved to.
+	 * @return false if the graph declares the transitions of from and to isn't among them, true otherwise.
+	 */
+	public boolean isDeclaredTransition(Class<?> from, Class<?> to) {
+		List<Class<?>> next = getSuccessors(from);
+		return next == null || next.contains(to);
+	}
+
+	/**
+	 * Gets the number of steps after the given state on the shortest route to a final state.
+	 *
+	 * @param state
+	 *            The current state.
+	 * @return the number of steps, which is 0 for a final state. {@link #UNKNOWN} if the state isn't in the graph, if some route from it leads to a state whose
+	 *         transitions are unknown, or if no route from it reaches a final state.
+	 */
+	public int getShortestRemaining(Class<?> state) {
+		return getRemaining(state, 0);
+	}
+
+	/**
+	 * Gets the number of steps after the given state on the longest route to a final state.
+	 *
+	 * @param state
+	 *            The current state.
+	 * @return the number of steps, which is 0 for a final state. {@link #UNKNOWN} in the same cases as {@link #getShortestRemaining(Class)}, and also when a
+	 *         route from the state runs into a cycle, since there's then no longest route.
+	 */
+	public int getLongestRemaining(Class<?> state) {
+		return getRemaining(state, 1);
+	}
+
+	private int getRemaining(Class<?> state, int row) {
+		int index = indexOf(state);
+		if (index < 0) {
+			return UNKNOWN;
+		}
+
+		int[][] counts = remaining;
+		if (counts == null) {
+			// computing it twice on a race is harmless, the results are the same
+			counts = computeRemaining();
+			remaining = counts;
+		}
+		return counts[row][index];
+	}
+
+	/**
+	 * Works out the remaining step counts for every state by walking the graph backwards from the final states.
+	 *
+	 * @return the shortest counts followed by the longest counts.
+	 */
+	private int[][] computeRemaining() {
+		int count = states.length;
+
+		/**
+		 * Build the predecessor lists, all in one array. The predecessors of state i are at [offsets[i], offsets[i + 1]).
+		 */
+		int[] offsets = new int[count + 1];
+		for (int[] row : successors) {
+			if (row != null) {
+				for (int next : row) {
+					offsets[next + 1]++;
+				}
+			}
+		}
+		for (int i = 0; i < count; i++) {
+			offsets[i + 1] += offsets[i];
+		}
+		int[] predecessors = new int[offsets[count]];
+		int[] filled = new int[count];
+		for (int i = 0; i < count; i++) {
+			int[] row = successors[i];
+			if (row != null) {
+				for (int next : row) {
+					predecessors[offsets[next] + filled[next]++] = i;
+				}
+			}
+		}
+
+		int[] queue = new int[count];
+		int head = 0, tail = 0;
+
+		/**
+		 * Anything which can lead to a state with unknown transitions has an unknown count.
+		 */
+		boolean[] unknown = new boolean[count];
+		for (int i = 0; i < count; i++) {
+			if (successors[i] == null) {
+				unknown[i] = true;
+				queue[tail++] = i;
+			}
+		}
+		while (head < tail) {
+			int index = queue[head++];
+			for (int p = offsets[index]; p < offsets[index + 1]; p++) {
+				int previous = predecessors[p];
+				if (!unknown[previous]) {
+					unknown[previous] = true;
+					queue[tail++] = previous;
+				}
+			}
+		}
+
+		/**
+		 * Shortest: a breadth-first search backwards from every final state at once reaches each state by its shortest route first.
+		 */
+		int[] shortest = new int[count];
+		Arrays.fill(shortest, UNKNOWN);
+		head = tail = 0;
+		for (int i = 0; i < count; i++) {
+			if (!unknown[i] && successors[i].length == 0) {
+				shortest[i] = 0;
+				queue[tail++] = i;
+			}
+		}
+		while (head < tail) {
+			int index = queue[head++];
+			for (int p = offsets[index]; p < offsets[index + 1]; p++) {
+				int previous = predecessors[p];
+				if (!unknown[previous] && shortest[previous] == UNKNOWN) {
+					shortest[previous] = shortest[index] + 1;
+					queue[tail++] = previous;
+				}
+			}
+		}
+
+		/**
+		 * Longest: a state is settled once all of its successors are, starting from the final states. States which never settle are on, or lead into, a
+		 * cycle.
+		 */
+		int[] longest = new int[count];
+		int[] unsettled = new int[count];
+		head = tail = 0;
+		for (int i = 0; i < count; i++) {
+			if (unknown[i]) {
+				longest[i] = UNKNOWN;
+			} else {
+				unsettled[i] = successors[i].length;
+				if (unsettled[i] == 0) {
+					queue[tail++] = i;
+				}
+			}
+		}
+		while (head < tail) {
+			int index = queue[head++];
+			for (int p = offsets[index]; p < offsets[index + 1]; p++) {
+				int previous = predecessors[p];
+				if (!unknown[previous]) {
+					longest[previous] = Math.max(longest[previous], longest[index] + 1);
+					if (--unsettled[previous] == 0) {
+						queue[tail++] = previous;
+					}
+				}
+			}
+		}
+		for (int i = 0; i < count; i++) {
+			if (unsettled[i] > 0) {
+				longest[i] = UNKNOWN;
+			}
+		}
+
+		return new int[][] { shortest, longest };
+	}
+
+	/**
+	 * @param start
+	 *            The first state.
+	 * @return every state which can be reached from the start, including the start itself, in breadth-first order. Empty if the start isn't in the graph.
+	 */
+	public Set<Class<?>> getReachableStates(Class<?> start) {
+		Set<Class<?>> reached = new LinkedHashSet<Class<?>>();
+		int first = indexOf(start);
+		if (first < 0) {
+			return reached;
+		}
+
+		boolean[] seen = new boolean[states.length];
+		int[] queue = new int[states.length];
+		int head = 0, tail = 0;
+		queue[tail++] = first;
+		seen[first] = true;
+		while (head < tail) {
+			int index = queue[head++];
+			reached.add(states[index]);
+			int[] row = successors[index];
+			if (row != null) {
+				for (int next : row) {
+					if (!seen[next]) {
+						seen[next] = true;
+						queue[tail++] = next;
+					}
+				}
+			}
+		}
+		return reached;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder("WizardGraph {");
+		for (int i = 0; i < states.length; i++) {
+			if (i > 0) {
+				builder.append(", ");
+			}
+			builder.append(states[i].getSimpleName()).append(" -> ");
+			List<Class<?>> next = successorLists.get(i);
+			if (next == null) {
+				builder.append('?');
+			} else {
+				builder.append('[');
+				for (int j = 0; j < next.size(); j++) {
+					if (j > 0) {
+						builder.append(", ");
+					}
+					builder.append(next.get(j).getSimpleName());
+				}
+				builder.append(']');
+			}
+		}
+		return builder.append('}').toString();
+	}
+}
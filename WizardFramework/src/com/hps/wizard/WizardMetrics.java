@@ -0,0 +1,329 @@
+package com.hps.wizard;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ * Times each phase of the move from a tap on Next to the first frame drawn with the next state showing, so it's possible to see where a transition spends its
+ * time and how many frames it drops. Each {@link Phase} is timed from the tap, and recorded in a histogram kept for the state Next was tapped on. Listeners
+ * see each transition as it completes. See {@link AbstractWizardActivity#getWizardMetrics()}.
+ * </p>
+ * <p>
+ * The first frame is taken to be drawn once the view tree has been laid out and drawn after the new state's fragment transaction is committed. Dropped frames
+ * are estimated from that at 60 frames a second: a transition which is drawn within one frame drops none. A tap which doesn't lead to a move, because the
+ * state can't go forward or fails validation, isn't recorded.
+ * </p>
+ * <p>
+ * Recording is cheap: a timestamp for each phase, and a few counters per state once the transition completes. The histograms survive configuration changes
+ * but not the activity finishing. {@link #dump()} writes them in a line-based text format meant to be pulled from test runs and compared across builds. It's
+ * only used on the main thread.
+ * </p>
+ */
+public final class WizardMetrics {
+	/**
+	 * The phases of a transition, in the order they normally happen. A transition needn't go through them all: a state which doesn't validate in the
+	 * background skips the validation phases, and a prefetched state isn't created.
+	 */
+	public enum Phase {
+		/** Next was tapped. Every other phase is timed from here. */
+		TAP,
+		/** Validation of the state was started. */
+		VALIDATION_STARTED,
+		/** Validation of the state passed. */
+		VALIDATION_FINISHED,
+		/** The next state was worked out. */
+		NEXT_STATE,
+		/** The next state's fragment was created. */
+		STATE_CREATED,
+		/** The fragment transaction showing the next state was committed. */
+		COMMITTED,
+		/** The first frame showing the next state was drawn. */
+		FIRST_FRAME
+	}
+
+	/**
+	 * Told about each completed transition.
+	 */
+	public interface Listener {
+		/**
+		 * Called on the main thread once the first frame of the new state has been drawn.
+		 * 
+		 * @param transition
+		 *            The transition. It's only valid during the call.
+		 */
+		void onTransition(Transition transition);
+	}
+
+	/**
+	 * A transition being timed. One instance is reused for every transition.
+	 */
+	public static final class Transition {
+		private Class<? extends StateFragment> stateClass;
+		private final long[] phaseNanos = new long[PHASES.length];
+
+		/**
+		 * @return the class of the state Next was tapped on.
+		 */
+		public Class<? extends StateFragment> getStateClass() {
+			return stateClass;
+		}
+
+		/**
+		 * @return how long after the tap the phase happened, in nanoseconds, or -1 if the transition didn't go through it.
+		 */
+		public long getPhaseNanos(Phase phase) {
+			return phaseNanos[phase.ordinal()];
+		}
+
+		/**
+		 * @return the estimated number of frames dropped between the tap and the first frame.
+		 */
+		public int getDroppedFrames() {
+			return droppedFrames(phaseNanos[Phase.FIRST_FRAME.ordinal()]);
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder builder = new StringBuilder("Transition from ").append(stateClass.getSimpleName());
+			for (Phase phase : PHASES) {
+				long nanos = phaseNanos[phase.ordinal()];
+				if (phase != Phase.TAP && nanos >= 0) {
+					builder.append(' ').append(phase.name().toLowerCase()).append('=').append(nanos / 1000000).append("ms");
+				}
+			}
+			return builder.append(", ").append(getDroppedFrames()).append(" frames dropped").toString();
+		}
+	}
+
+	/**
+	 * A histogram with power of two buckets: bucket 0 counts values of 0, bucket i counts values from 2^(i-1) up to 2^i - 1, and the last bucket counts
+	 * everything bigger.
+	 */
+	private static final class Histogram {
+		final int[] buckets = new int[BUCKETS];
+		int count;
+		long total, max;
+
+		void record(long value) {
+			int bucket = value <= 0 ? 0 : Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(value));
+			buckets[bucket]++;
+			count++;
+			total += value;
+			max = Math.max(max, value);
+		}
+
+		/**
+		 * @return the upper bound of the bucket holding the given fraction of the values, or the maximum if that's in the last bucket.
+		 */
+		long percentile(double fraction) {
+			int target = (int) Math.ceil(count * fraction);
+			int seen = 0;
+			for (int i = 0; i < BUCKETS - 1; i++) {
+				seen += buckets[i];
+				if (seen >= target) {
+					return Math.min(max, (1L << i) - 1);
+				}
+			}
+			return max;
+		}
+	}
+
+	/** The histograms for one state: one per phase but the tap, plus dropped frames. */
+	private static final class StateHistograms {
+		final Histogram[] phaseMillis = new Histogram[PHASES.length];
+		final Histogram droppedFrames = new Histogram();
+
+		StateHistograms() {
+			for (int i = 1; i < PHASES.length; i++) {
+				phaseMillis[i] = new Histogram();
+			}
+		}
+	}
+
+	/** The version of the {@link #dump()} format. */
+	public static final int DUMP_VERSION = 1;
+
+	private static final Phase[] PHASES = Phase.values();
+	private static final int BUCKETS = 16;
+	private static final long FRAME_NANOS = 1000000000L / 60;
+
+	private final Transition transition = new Transition();
+	/** True while a transition is being timed. */
+	private boolean timing;
+	private long tapNanos;
+
+	private final Map<Class<? extends StateFragment>, StateHistograms> histograms = new LinkedHashMap<Class<? extends StateFragment>, StateHistograms>();
+	private final List<Listener> listeners = new ArrayList<Listener>();
+
+	/**
+	 * Starts timing a transition, abandoning any which is already being timed.
+	 */
+	void begin(Class<? extends StateFragment> stateClass) {
+		timing = true;
+		tapNanos = System.nanoTime();
+		transition.stateClass = stateClass;
+		Arrays.fill(transition.phaseNanos, -1);
+		transition.phaseNanos[Phase.TAP.ordinal()] = 0;
+	}
+
+	/**
+	 * Records that the transition being timed has reached a phase. Ignored if there isn't one, or if it has already reached the phase.
+	 */
+	void mark(Phase phase) {
+		if (timing && transition.phaseNanos[phase.ordinal()] < 0) {
+			transition.phaseNanos[phase.ordinal()] = System.nanoTime() - tapNanos;
+		}
+	}
+
+	/**
+	 * @return true if a transition is being timed.
+	 */
+	boolean isTiming() {
+		return timing;
+	}
+
+	/**
+	 * Stops timing the transition without recording it, because the wizard isn't moving after all.
+	 */
+	void cancel() {
+		timing = false;
+	}
+
+	/**
+	 * Records the first frame of the transition being timed, and with it the transition.
+	 */
+	void finish() {
+		if (!timing) {
+			return;
+		}
+		mark(Phase.FIRST_FRAME);
+		timing = false;
+
+		StateHistograms state = histograms.get(transition.stateClass);
+		if (state == null) {
+			state = new StateHistograms();
+			histograms.put(transition.stateClass, state);
+		}
+		for (int i = 1; i < PHASES.length; i++) {
+			long nanos = transition.phaseNanos[i];
+			if (nanos >= 0) {
+				state.phaseMillis[i].record(nanos / 1000000);
+			}
+		}
+		state.droppedFrames.record(transition.getDroppedFrames());
+
+		for (int i = 0; i < listeners.size(); i++) {
+			listeners.get(i).onTransition(transition);
+		}
+	}
+
+	private static int droppedFrames(long nanos) {
+		return nanos <= FRAME_NANOS ? 0 : (int) ((nanos - 1) / FRAME_NANOS);
+	}
+
+	/**
+	 * Adds a listener told about each completed transition.
+	 */
+	public void addListener(Listener listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * Removes a listener.
+	 */
+	public void removeListener(Listener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * @return the number of transitions recorded from the given state.
+	 */
+	public int getTransitionCount(Class<? extends StateFragment> stateClass) {
+		StateHistograms state = histograms.get(stateClass);
+		return state == null ? 0 : state.droppedFrames.count;
+	}
+
+	/**
+	 * Forgets everything recorded so far.
+	 */
+	public void reset() {
+		histograms.clear();
+		timing = false;
+	}
+
+	/**
+	 * <p>
+	 * Writes out the histograms. The first line is <code>wizard-metrics</code> and the format version. Then for each state, and each phase it has been
+	 * through, there's a line of tab separated fields:
+	 * </p>
+	 * 
+	 * <pre>
+	 * state class  phase  count  mean  p50  p90  max  buckets
+	 * </pre>
+	 * <p>
+	 * The phase is the lower case name of a {@link Phase}, with times in milliseconds from the tap, or <code>dropped_frames</code>, with counts of frames. The
+	 * percentiles are the upper bounds of the histogram buckets they fall in. The buckets are the comma separated counts described by the bucket bounds 0, 1,
+	 * 2-3, 4-7 and so on.
+	 * </p>
+	 */
+	public void dump(PrintWriter writer) {
+		writer.print("wizard-metrics\t");
+		writer.println(DUMP_VERSION);
+		for (Map.Entry<Class<? extends StateFragment>, StateHistograms> entry : histograms.entrySet()) {
+			String stateName = entry.getKey().getName();
+			StateHistograms state = entry.getValue();
+			for (int i = 1; i < PHASES.length; i++) {
+				dumpLine(writer, stateName, PHASES[i].name().toLowerCase(), state.phaseMillis[i]);
+			}
+			dumpLine(writer, stateName, "dropped_frames", state.droppedFrames);
+		}
+		writer.flush();
+	}
+
+	/**
+	 * @return the histograms in the format described by {@link #dump(PrintWriter)}.
+	 */
+	public String dump() {
+		StringWriter out = new StringWriter();
+		dump(new PrintWriter(out));
+		return out.toString();
+	}
+
+	private static void dumpLine(PrintWriter writer, String stateName, String metric, Histogram histogram) {
+		if (histogram.count == 0) {
+			return;
+		}
+		writer.print(stateName);
+		writer.print('\t');
+		writer.print(metric);
+		writer.print('\t');
+		writer.print(histogram.count);
+		writer.print('\t');
+		writer.print(histogram.total / histogram.count);
+		writer.print('\t');
+		writer.print(histogram.percentile(0.5));
+		writer.print('\t');
+		writer.print(histogram.percentile(0.9));
+		writer.print('\t');
+		writer.print(histogram.max);
+		writer.print('\t');
+		for (int i = 0; i < BUCKETS; i++) {
+			if (i > 0) {
+				writer.print(',');
+			}
+			writer.print(histogram.buckets[i]);
+		}
+		writer.println();
+	}
+
+	@Override
+	public String toString() {
+		return "WizardMetrics " + histograms.size() + " states";
+	}
+}
@@ -0,0 +1,222 @@
+package com.hps.wizard.processor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic.Kind;
+import javax.tools.JavaFileObject;
+
+/**
+ * <p>
+ * Reads the com.hps.wizard.Transitions annotations on states and writes a com.hps.wizard.WizardGraph subclass named GeneratedWizardGraph into each package
+ * which has annotated states. The generated class holds the adjacency table as array literals, so loading it costs no more than loading any other class.
+ * </p>
+ * <p>
+ * Along the way it reports:
+ * </p>
+ * <ul>
+ * <li>an error for an annotation on anything but a concrete StateFragment subclass;</li>
+ * <li>a warning for a transition to a state in the same package which isn't annotated itself, since the graph can't see past it.</li>
+ * </ul>
+ */
+@SupportedAnnotationTypes(TransitionsProcessor.TRANSITIONS)
+public class TransitionsProcessor extends AbstractProcessor {
+	static final String TRANSITIONS = "com.hps.wizard.Transitions";
+	static final String STATE_FRAGMENT = "com.hps.wizard.StateFragment";
+	/** Must match WizardGraph.GENERATED_CLASS_NAME. */
+	static final String GENERATED_CLASS_NAME = "GeneratedWizardGraph";
+
+	/** Packages whose graph has been written, so a later round can't write it again. */
+	private final Set<String> written = new HashSet<String>();
+
+	@Override
+	public SourceVersion getSupportedSourceVersion() {
+		return SourceVersion.latestSupported();
+	}
+
+	@Override
+	public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+		TypeElement transitions = processingEnv.getElementUtils().getTypeElement(TRANSITIONS);
+		if (transitions == null) {
+			return false;
+		}
+		TypeElement stateFragment = processingEnv.getElementUtils().getTypeElement(STATE_FRAGMENT);
+
+		/**
+		 * Group the annotated states by package, sorted by name so the output doesn't depend on the order the compiler visits them.
+		 */
+		Map<String, Map<String, List<String>>> packages = new TreeMap<String, Map<String, List<String>>>();
+		for (Element element : roundEnv.getElementsAnnotatedWith(transitions)) {
+			if (!isConcreteState(element, stateFragment)) {
+				error(element, "@Transitions can only be put on a concrete subclass of " + STATE_FRAGMENT);
+				continue;
+			}
+
+			TypeElement state = (TypeElement) element;
+			String packageName = processingEnv.getElementUtils().getPackageOf(state).getQualifiedName().toString();
+			Map<String, List<String>> states = packages.get(packageName);
+			if (states == null) {
+				states = new TreeMap<String, List<String>>();
+				packages.put(packageName, states);
+			}
+			states.put(state.getQualifiedName().toString(), getTargets(state, transitions));
+		}
+
+		for (Map.Entry<String, Map<String, List<String>>> entry : packages.entrySet()) {
+			if (written.add(entry.getKey())) {
+				warnAboutUnannotatedTargets(entry.getKey(), entry.getValue());
+				writeGraph(entry.getKey(), entry.getValue());
+			} else {
+				error(processingEnv.getElementUtils().getPackageElement(entry.getKey()), "The wizard graph for " + entry.getKey()
+						+ " was already written in an earlier round");
+			}
+		}
+		return true;
+	}
+
+	private boolean isConcreteState(Element element, TypeElement stateFragment) {
+		if (element.getKind() != ElementKind.CLASS || element.getModifiers().contains(Modifier.ABSTRACT)) {
+			return false;
+		}
+		return stateFragment == null || processingEnv.getTypeUtils().isSubtype(element.asType(), stateFragment.asType());
+	}
+
+	/**
+	 * @return the qualified names of the classes in the state's annotation, without duplicates.
+	 */
+	private List<String> getTargets(TypeElement state, TypeElement transitions) {
+		List<String> targets = new ArrayList<String>();
+		for (AnnotationMirror mirror : state.getAnnotationMirrors()) {
+			if (!processingEnv.getTypeUtils().isSameType(mirror.getAnnotationType(), transitions.asType())) {
+				continue;
+			}
+			for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> value : mirror.getElementValues().entrySet()) {
+				if (value.getKey().getSimpleName().contentEquals("value")) {
+					addTargets(value.getValue().getValue(), targets);
+				}
+			}
+		}
+		return targets;
+	}
+
+	private void addTargets(Object value, List<String> targets) {
+		if (value instanceof List) {
+			for (Object item : (List<?>) value) {
+				addTargets(((AnnotationValue) item).getValue(), targets);
+			}
+		} else if (value instanceof TypeMirror) {
+			String name = ((TypeElement) ((DeclaredType) value).asElement()).getQualifiedName().toString();
+			if (!targets.contains(name)) {
+				targets.add(name);
+			}
+		}
+	}
+
+	private void warnAboutUnannotatedTargets(String packageName, Map<String, List<String>> states) {
+		for (Map.Entry<String, List<String>> state : states.entrySet()) {
+			for (String target : state.getValue()) {
+				if (!states.containsKey(target) && target.startsWith(packageName + ".") && target.indexOf('.', packageName.length() + 1) < 0) {
+					TypeElement element = processingEnv.getElementUtils().getTypeElement(state.getKey());
+					processingEnv.getMessager().printMessage(Kind.WARNING,
+							target + " has no @Transitions annotation, so the wizard graph doesn't know where it leads", element);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Writes the generated graph. Annotated states come first, in name order, followed by any targets which weren't annotated themselves.
+	 */
+	private void writeGraph(String packageName, Map<String, List<String>> states) {
+		Map<String, Integer> indexes = new LinkedHashMap<String, Integer>();
+		for (String state : states.keySet()) {
+			indexes.put(state, indexes.size());
+		}
+		for (List<String> targets : states.values()) {
+			for (String target : targets) {
+				if (!indexes.containsKey(target)) {
+					indexes.put(target, indexes.size());
+				}
+			}
+		}
+
+		String className = packageName.length() == 0 ? GENERATED_CLASS_NAME : packageName + "." + GENERATED_CLASS_NAME;
+		List<Element> origins = new ArrayList<Element>();
+		for (String state : states.keySet()) {
+			origins.add(processingEnv.getElementUtils().getTypeElement(state));
+		}
+
+		StringBuilder source = new StringBuilder();
+		if (packageName.length() > 0) {
+			source.append("package ").append(packageName).append(";\n\n");
+		}
+		source.append("/**\n");
+		source.append(" * The transitions declared with @Transitions in this package. Generated by ").append(getClass().getName()).append(", do not edit.\n");
+		source.append(" */\n");
+		source.append("public final class ").append(GENERATED_CLASS_NAME).append(" extends com.hps.wizard.WizardGraph {\n");
+		source.append("\tpublic ").append(GENERATED_CLASS_NAME).append("() {\n");
+		source.append("\t\tsuper(new Class<?>[] {\n");
+		for (String state : indexes.keySet()) {
+			source.append("\t\t\t\t").append(state).append(".class,\n");
+		}
+		source.append("\t\t}, new int[][] {\n");
+		for (String state : indexes.keySet()) {
+			source.append("\t\t\t\t");
+			List<String> targets = states.get(state);
+			if (targets == null) {
+				source.append("null");
+			} else {
+				source.append("{ ");
+				for (int i = 0; i < targets.size(); i++) {
+					if (i > 0) {
+						source.append(", ");
+					}
+					source.append(indexes.get(targets.get(i)));
+				}
+				source.append(targets.isEmpty() ? "}" : " }");
+			}
+			source.append(", // ").append(state.substring(state.lastIndexOf('.') + 1)).append('\n');
+		}
+		source.append("\t\t});\n");
+		source.append("\t}\n");
+		source.append("}\n");
+
+		try {
+			JavaFileObject file = processingEnv.getFiler().createSourceFile(className, origins.toArray(new Element[origins.size()]));
+			Writer writer = file.openWriter();
+			try {
+				writer.write(source.toString());
+			} finally {
+				writer.close();
+			}
+		} catch (IOException e) {
+			PackageElement element = processingEnv.getElementUtils().getPackageElement(packageName);
+			error(element, "Cannot write " + className + ": " + e.getMessage());
+		}
+	}
+
+	private void error(Element element, String message) {
+		processingEnv.getMessager().printMessage(Kind.ERROR, message, element);
+	}
+}
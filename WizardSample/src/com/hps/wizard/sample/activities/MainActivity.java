@@ -12,11 +12,21 @@ import android.widget.CheckBox;
 import android.widget.EditText;
 
 import com.hps.wizard.AbstractWizardActivity;
+import com.hps.wizard.StateFactory;
+import com.hps.wizard.StateFragment;
 import com.hps.wizard.StateFragment.StateDefinition;
+import com.hps.wizard.StateRegistry;
 import com.hps.wizard.WizardActivity;
 import com.hps.wizard.WizardDialog;
 import com.hps.wizard.sample.R;
+import com.hps.wizard.sample.states.AreYouSure;
+import com.hps.wizard.sample.states.BackgroundValidation;
+import com.hps.wizard.sample.states.Choice;
 import com.hps.wizard.sample.states.Instructions;
+import com.hps.wizard.sample.states.MuppetShow;
+import com.hps.wizard.sample.states.Results;
+import com.hps.wizard.sample.states.SesameStreet;
+import com.hps.wizard.sample.states.Seuss;
 
 /**
  * The main {@link Activity}.
@@ -30,6 +40,8 @@ public class MainActivity extends Activity {
 		super.onCreate(savedInstanceState);
 		setContentView(R.layout.activity_main);
 
+		registerStates();
+
 		/**
 		 * Set the start button to launch the wizard.
 		 */
@@ -43,6 +55,61 @@ public class MainActivity extends Activity {
 
 	}
 
+	/**
+	 * Registers a factory for each state so the wizard can build them with a plain constructor call instead of reflection. This is optional; any state that
+	 * isn't registered is still built by reflection.
+	 */
+	private void registerStates() {
+		StateRegistry.register(Instructions.class, new StateFactory() {
+			@Override
+			public StateFragment newState() {
+				return new Instructions();
+			}
+		});
+		StateRegistry.register(BackgroundValidation.class, new StateFactory() {
+			@Override
+			public StateFragment newState() {
+				return new BackgroundValidation();
+			}
+		});
+		StateRegistry.register(Seuss.class, new StateFactory() {
+			@Override
+			public StateFragment newState() {
+				return new Seuss();
+			}
+		});
+		StateRegistry.register(Choice.class, new StateFactory() {
+			@Override
+			public StateFragment newState() {
+				return new Choice();
+			}
+		});
+		StateRegistry.register(AreYouSure.class, new StateFactory() {
+			@Override
+			public StateFragment newState() {
+				return new AreYouSure();
+			}
+		});
+		StateRegistry.register(MuppetShow.class, new StateFactory() {
+			@Override
+			public StateFragment newState() {
+				return new MuppetShow();
+			}
+		});
+		StateRegistry.register(SesameStreet.class, new StateFactory() {
+			@Override
+			public StateFragment newState() {
+				return new SesameStreet();
+			}
+		});
+		StateRegistry.register(Results.class, new StateFactory() {
+			@Override
+			public StateFragment newState() {
+				return new Results();
+			}
+		});
+	}
+
 	/**
 	 * Launches the wizard. See the inline comments for more details.
 	 */
@@ -58,9 +125,10 @@ public class MainActivity extends Activity {
 
 		/**
 		 * Step two: determine the step count. If this is unknown or you don't want to display the step counter, send WizardActivity.STEP_COUNT_UNKNOWN to be
-		 * explicit or nothing at all.
+		 * explicit or nothing at all. If the states declare their @Transitions and the project runs the wizard's annotation processor, send
+		 * WizardActivity.STEP_COUNT_AUTOMATIC and the wizard will count the steps itself.
 		 * 
-		 * In this case we use the check box to determine if we should show it.
+		 * In this case we use the check box to determine if we should show it. This project doesn't run the processor, so the count is given.
 		 */
 		CheckBox stepCountKnownCheckbox = (CheckBox) findViewById(R.id.stepCountKnownCheckbox);
 		int stepCount = AbstractWizardActivity.STEP_COUNT_UNKNOWN;
@@ -0,0 +1,18 @@
+package com.hps.wizard.sample.states;
+
+import com.hps.wizard.Blackboard;
+
+/**
+ * The keys the quiz states use to share their answers on the wizard's {@link Blackboard}.
+ */
+final class Answers {
+	static final Blackboard.Key<String> SEUSS_ANSWER = new Blackboard.Key<String>("seuss_answer", String.class);
+	static final Blackboard.Key<Boolean> SEUSS_CORRECT = new Blackboard.Key<Boolean>("seuss_correct", Boolean.class);
+	static final Blackboard.Key<String> MUPPET_ANSWER = new Blackboard.Key<String>("muppet_answer", String.class);
+	static final Blackboard.Key<Boolean> MUPPET_CORRECT = new Blackboard.Key<Boolean>("muppet_correct", Boolean.class);
+	static final Blackboard.Key<String> SESAME_ANSWER = new Blackboard.Key<String>("sesame_answer", String.class);
+	static final Blackboard.Key<Boolean> SESAME_CORRECT = new Blackboard.Key<Boolean>("sesame_correct", Boolean.class);
+
+	private Answers() {
+	}
+}
@@ -11,11 +11,13 @@ import android.widget.TextView;
 
 import com.hps.wizard.StateFragment;
 import com.hps.wizard.AbstractWizardActivity;
+import com.hps.wizard.Transitions;
 import com.hps.wizard.sample.R;
 
 /**
  * This fragment is a state fragment which accepts two possible next states and a label. It then moves forward to the appropriate state based on user selection.
  */
+@Transitions({ MuppetShow.class, SesameStreet.class })
 public class AreYouSure extends StateFragment {
 	public static final String ARE_YOU_SURE_TEXT = "text";
 	public static final String YES_STATE = "yesState";
@@ -13,48 +13,63 @@ import android.widget.TextView;
 
 import com.hps.wizard.StateFragment;
 import com.hps.wizard.ValidationAsyncTask;
+import com.hps.wizard.ValidationResult;
 import com.hps.wizard.AbstractWizardActivity;
+import com.hps.wizard.Transitions;
 import com.hps.wizard.sample.R;
 
 /**
  * This state simulates the ability to have validation run on a background thread. For instance, credentials may need to be verified against a server.
  */
+@Transitions(Seuss.class)
 public class BackgroundValidation extends StateFragment {
 	/**
 	 * A simple task for simulating background processing. It counts down from start to zero and then passes or fails based on the flag given to the
-	 * constructor.
+	 * constructor. A fail carries an error for the check box, the way a real validation would report which field was wrong.
 	 */
 	private class BackgroundTask extends ValidationAsyncTask {
 		private int start;
 		private Boolean shouldPass;
+		private String failureMessage;
 
 		/**
 		 * @param start
 		 *            the starting value
 		 * @param shouldPass
 		 *            true if validation should pass, false otherwise.
+		 * @param failureMessage
+		 *            the error to report against the check box if it fails.
 		 */
-		public BackgroundTask(int start, boolean shouldPass) {
+		public BackgroundTask(int start, boolean shouldPass, String failureMessage) {
 			super();
 			this.start = start;
 			this.shouldPass = shouldPass;
+			this.failureMessage = failureMessage;
 		}
 
 		@Override
-		protected Boolean doInBackground(Object... params) {
+		protected ValidationResult doValidation() {
 			// Count down to zero, updating the progress as we go.
 			for (int i = start; i > 0; i--) {
 				try {
-					publishProgress("" + i);
+					publishProgress((start - i) * 100 / start, R.string.background_validation_progress);
 					Thread.sleep(500);
 				} catch (InterruptedException e) {
 					// ignore it
 				}
 			}
-			return shouldPass;
+			if (shouldPass) {
+				return ValidationResult.passed();
+			}
+			return ValidationResult.failed().addFieldError(PASS_FIELD, failureMessage);
 		}
 	}
 
+	/**
+	 * The name the task reports its error against.
+	 */
+	private static final String PASS_FIELD = "pass";
+
 	/**
 	 * Keys for saving the state of the UI across orientation changes.
 	 */
@@ -188,9 +203,15 @@ public class BackgroundValidation extends StateFragment {
 		// create the task to be run
 		int start = durationSlider.getProgress();
 		boolean shouldPass = passCheckBox.isChecked();
-		ValidationAsyncTask validator = new BackgroundTask(start, shouldPass);
+		ValidationAsyncTask validator = new BackgroundTask(start, shouldPass, getString(R.string.background_validation_failed));
 
 		return validator;
 	}
 
+	@Override
+	public void onValidationResult(ValidationResult result) {
+		// show the error straight from the result, without validating again
+		passCheckBox.setError(result.getFieldError(PASS_FIELD));
+	}
+
 }
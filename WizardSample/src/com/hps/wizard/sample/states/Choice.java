@@ -13,12 +13,14 @@ import android.widget.TextView;
 
 import com.hps.wizard.AbstractWizardActivity;
 import com.hps.wizard.StateFragment;
+import com.hps.wizard.Transitions;
 import com.hps.wizard.sample.R;
 
 /**
  * This state forces the user to pick between the Muppet Show and Sesame Street. The next state will be {@link AreYouSure}, built according to the choice here.
  * It also demonstrates how to react to a press of the neutral button in {@link #onNeutralButtonClicked()} and {@link #validate()}.
  */
+@Transitions(AreYouSure.class)
 public class Choice extends StateFragment {
 
 	private static final String CHECKED_BUTTON_ID = "checkedId";
@@ -1,7 +1,5 @@
 package com.hps.wizard.sample.states;
 
-import android.content.Context;
-import android.content.SharedPreferences;
 import android.os.Bundle;
 import android.text.Html;
 import android.view.LayoutInflater;
@@ -10,11 +8,13 @@ import android.view.ViewGroup;
 import android.widget.TextView;
 
 import com.hps.wizard.StateFragment;
+import com.hps.wizard.Transitions;
 import com.hps.wizard.sample.R;
 
 /**
  * Nothing really special here except that the name supplied in the arguments is used to build the title.
  */
+@Transitions(BackgroundValidation.class)
 public class Instructions extends StateFragment {
 
 	public static final String NAME_ARG = "name";
@@ -46,12 +46,6 @@ public class Instructions extends StateFragment {
 
 	@Override
 	public StateDefinition getNextState() {
-		/**
-		 * When they move to the next state, clear out any prior test results.
-		 */
-		SharedPreferences prefs = getWizardActivity().getSharedPreferences("answers", Context.MODE_PRIVATE);
-		prefs.edit().clear().commit();
-
 		/**
 		 * The next state is always BackgroundValidation.
 		 */
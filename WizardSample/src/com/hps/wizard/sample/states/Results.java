@@ -1,21 +1,22 @@
 package com.hps.wizard.sample.states;
 
-import android.content.Context;
 import android.content.Intent;
-import android.content.SharedPreferences;
 import android.os.Bundle;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.webkit.WebView;
 
+import com.hps.wizard.Blackboard;
 import com.hps.wizard.StateFragment;
+import com.hps.wizard.Transitions;
 import com.hps.wizard.sample.R;
 
 /**
- * This class gathers up the answers from prior steps and display a summary to the user. Because they were store in shared preferences there's no need to send
- * them as bundled arguments.
+ * This class gathers up the answers from prior steps and display a summary to the user. Because they were put on the wizard's {@link Blackboard} there's no
+ * need to send them as bundled arguments.
  */
+@Transitions({})
 public class Results extends StateFragment {
 	private int total;
 
@@ -34,20 +35,20 @@ public class Results extends StateFragment {
 	}
 
 	/**
-	 * @return an HTML string of the results built from the answers stored in the {@link SharedPreferences}.
+	 * @return an HTML string of the results built from the answers on the {@link Blackboard}.
 	 */
 	private StringBuilder getHtmlResults() {
-		SharedPreferences prefs = getActivity().getSharedPreferences("answers", Context.MODE_PRIVATE);
+		Blackboard answers = getBlackboard();
 
 		StringBuilder html = new StringBuilder();
 
 		html.append("<html><body><table border='1' style='border-collapse : collapse; border : 1px solid black;'><tr><th valign='top'align='left'  width='50%'>Question</th><th valign='top'align='left'  width='20%'>Your Answer</th><th valign='top'align='left'  width='20%'>Correct Answer</th><th valign='top' align='right' width='10%'>Score</th></tr>");
 
-		addSeussAnswer(html, prefs);
-		if (prefs.getString("muppet_answer", null) != null) {
-			addMuppetAnswer(html, prefs);
+		addSeussAnswer(html, answers);
+		if (answers.contains(Answers.MUPPET_ANSWER)) {
+			addMuppetAnswer(html, answers);
 		} else {
-			addSesameStreetAnswer(html, prefs);
+			addSesameStreetAnswer(html, answers);
 		}
 
 		addTotal(html);
@@ -72,15 +73,15 @@ public class Results extends StateFragment {
 	 * Add a line to the results for the Sesame Street question. Increment the score if they were right.
 	 * 
 	 * @param html
-	 * @param prefs
+	 * @param answers
 	 */
-	private void addSesameStreetAnswer(StringBuilder html, SharedPreferences prefs) {
-		String answer = prefs.getString("sesame_answer", null);
+	private void addSesameStreetAnswer(StringBuilder html, Blackboard answers) {
+		String answer = answers.get(Answers.SESAME_ANSWER);
 		html.append("<tr><td valign='top'>Who owned the store until he died in 1982?</td><td valign='top'>");
 		html.append(answer);
 		html.append("</td><td valign='top'>Mr. Hooper</td><td valign='top'  align='right'>");
 
-		int score = prefs.getBoolean("sesame_correct", false) ? 1 : 0;
+		int score = answers.get(Answers.SESAME_CORRECT, false) ? 1 : 0;
 		total += score;
 
 		html.append(score);
@@ -91,15 +92,15 @@ public class Results extends StateFragment {
 	 * Add a line to the results for the Muppet Show question. Increment the score if they were right.
 	 * 
 	 * @param html
-	 * @param prefs
+	 * @param answers
 	 */
-	private void addMuppetAnswer(StringBuilder html, SharedPreferences prefs) {
-		String answer = prefs.getString("muppet_answer", null);
+	private void addMuppetAnswer(StringBuilder html, Blackboard answers) {
+		String answer = answers.get(Answers.MUPPET_ANSWER);
 		html.append("<tr><td valign='top'>Which character was played by both Jim Hensen and Frank Oz simultaneously?</td><td valign='top'>");
 		html.append(answer);
 		html.append("</td><td valign='top'>The Swedish Chef</td><td valign='top' align='right'>");
 
-		int score = prefs.getBoolean("muppet_correct", false) ? 1 : 0;
+		int score = answers.get(Answers.MUPPET_CORRECT, false) ? 1 : 0;
 		total += score;
 
 		html.append(score);
@@ -110,15 +111,15 @@ public class Results extends StateFragment {
 	 * Add a line to the results for the Dr. Seuss question. Increment the score if they were right.
 	 * 
 	 * @param html
-	 * @param prefs
+	 * @param answers
 	 */
-	private void addSeussAnswer(StringBuilder html, SharedPreferences prefs) {
-		String answer = prefs.getString("seuss_answer", null);
+	private void addSeussAnswer(StringBuilder html, Blackboard answers) {
+		String answer = answers.get(Answers.SEUSS_ANSWER);
 		html.append("<tr><td valign='top'>Which thing did the Cat bring?</td><td valign='top'>");
 		html.append(answer);
 		html.append("</td><td valign='top'>Thing 1 or Thing 2</td><td valign='top' align='right'>");
 
-		int score = prefs.getBoolean("seuss_correct", false) ? 1 : 0;
+		int score = answers.get(Answers.SEUSS_CORRECT, false) ? 1 : 0;
 		total += score;
 
 		html.append(score);
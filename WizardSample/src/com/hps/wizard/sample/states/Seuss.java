@@ -1,7 +1,5 @@
 package com.hps.wizard.sample.states;
 
-import android.content.Context;
-import android.content.SharedPreferences;
 import android.os.Bundle;
 import android.util.Log;
 import android.view.LayoutInflater;
@@ -11,14 +9,17 @@ import android.widget.RadioButton;
 import android.widget.RadioGroup;
 import android.widget.RadioGroup.OnCheckedChangeListener;
 
+import com.hps.wizard.Blackboard;
 import com.hps.wizard.StateFragment;
 import com.hps.wizard.AbstractWizardActivity;
+import com.hps.wizard.Transitions;
 import com.hps.wizard.sample.R;
 
 /**
- * A state offering a single multiple choice question. The answer supplied and whether it is right or wrong is stored in {@link SharedPreferences} when the user
- * moves forward and cleared if they go back.
+ * A state offering a single multiple choice question. The answer supplied and whether it is right or wrong is put on the wizard's {@link Blackboard} when
+ * the user moves forward. Going back restores the blackboard, so there's nothing to clear.
  */
+@Transitions(Choice.class)
 public class Seuss extends StateFragment {
 
 	private static final String CHECKED_BUTTON_ID = "checkedId";
@@ -120,20 +121,7 @@ public class Seuss extends StateFragment {
 		int id = thingGroup.getCheckedRadioButtonId();
 		RadioButton btn = (RadioButton) thingGroup.findViewById(id);
 		String label = btn.getText().toString();
-		SharedPreferences prefs = getWizardActivity().getSharedPreferences("answers", Context.MODE_PRIVATE);
-		prefs.edit().putString("seuss_answer", label).putBoolean("seuss_correct",
-				label.equals("Thing 1") || label.equals("Thing 2")).commit();
-	}
-
-	@Override
-	public void onBack() {
-		super.onBack();
-
-		/**
-		 * When the user moves back, clear any stored answer.
-		 */
-		SharedPreferences prefs = getWizardActivity().getSharedPreferences("answers", Context.MODE_PRIVATE);
-		prefs.edit().remove("seuss_answer").remove("seuss_correct").commit();
+		getBlackboard().put(Answers.SEUSS_ANSWER, label).put(Answers.SEUSS_CORRECT, label.equals("Thing 1") || label.equals("Thing 2"));
 	}
 
 }